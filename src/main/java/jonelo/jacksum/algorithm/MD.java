@@ -25,7 +25,7 @@
 
 package jonelo.jacksum.algorithm;
 import java.security.*;
-public class MD extends AbstractChecksum {
+public class MD extends AbstractChecksum implements Cloneable {
 
     private MessageDigest md = null;    
     
@@ -58,6 +58,17 @@ public class MD extends AbstractChecksum {
        return getHexValue()+separator+getFilename();
     }
     
+    public Object clone() throws CloneNotSupportedException {
+       MD copy = (MD) super.clone();
+       copy.md = (MessageDigest) md.clone();
+       return copy;
+    }
+
+    public byte[] getByteArray()
+    {
+       return md.digest();
+    }
+
     public String getHexValue()
     {
        String s = Service.format(md.digest());
@@ -13,7 +13,7 @@ import java.util.Arrays;
  *
  * @author Esko Luontola
  */
-public class CRC {
+public class CRC implements Cloneable {
 
     /**
      * All algorithms known by this class.
@@ -40,6 +40,21 @@ public class CRC {
      */
     private String algorithmName;
 
+    /**
+     * Length of the checksum value in bytes.
+     */
+    private int digestLength;
+
+    /**
+     * Length of the checksum value in HEX format.
+     */
+    private int hexLength;
+
+    /**
+     * Whether the checksum value fits in an <code>int</code>.
+     */
+    private boolean intValue;
+
     /**
      * The first byte of the data
      */
@@ -84,6 +99,17 @@ public class CRC {
         }
 
         this.algorithmName = algorithm;
+
+        if (this.crc instanceof MD) {
+            this.intValue = false;
+            this.digestLength = ((MD) this.crc).getByteArray().length;
+            this.hexLength = this.digestLength * 2;
+        } else {
+            this.intValue = true;
+            this.digestLength = 4;
+            this.hexLength = this.crc.getHexValue().length();
+        }
+        this.reset();
     }
 
     /**
@@ -95,6 +121,38 @@ public class CRC {
         allSameAsFirstByte = true;
     }
 
+    /**
+     * Returns a new <code>CRC</code> whose state is the same as the state of this one, so that the checksum of data
+     * with a common beginning can be counted by updating copies of the same <code>CRC</code>. The copy can be updated
+     * independently of this <code>CRC</code>.
+     *
+     * @return the copy, or null if the state of the algorithm can not be copied
+     * @see #canCopy()
+     */
+    public CRC copy() {
+        if (!this.canCopy()) {
+            return null;
+        }
+        try {
+            CRC copy = (CRC) super.clone();
+            copy.crc = (AbstractChecksum) ((MD) this.crc).clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the state of this <code>CRC</code> can be copied, which is possible for the algorithms that use a
+     * <code>MessageDigest</code>, such as MD5 and SHA-1.
+     *
+     * @see #copy()
+     */
+    public boolean canCopy() {
+        return this.crc instanceof MD;
+    }
+
     /**
      * Updates the checksum with specified array of bytes.
      *
@@ -110,7 +168,7 @@ public class CRC {
             allSameAsFirstByte = true;
         }
         if (allSameAsFirstByte) {
-            for (int i = offset; i < length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 if (bytes[i] != firstByte) {
                     allSameAsFirstByte = false;
                     break;
@@ -136,6 +194,73 @@ public class CRC {
         }
     }
 
+    /**
+     * Returns the checksum value of those algorithms whose checksum fits in an <code>int</code>, such as CRC-32.
+     *
+     * @return the current checksum value
+     * @see #hasIntValue()
+     */
+    public int getIntValue() {
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the checksum value of those algorithms whose checksum does not fit in an <code>int</code>, such as MD5
+     * and SHA-1. Like {@link #getHexValue()}, this finishes the calculation, so it may be called only once before
+     * resetting.
+     *
+     * @return the current checksum value, {@link #getDigestLength()} bytes long
+     * @see #hasIntValue()
+     */
+    public byte[] getByteArray() {
+        return ((MD) crc).getByteArray();
+    }
+
+    /**
+     * Returns whether the checksum value fits in an <code>int</code>, in which case it should be read with
+     * <code>getIntValue</code> instead of <code>getByteArray</code>.
+     *
+     * @return true for algorithms such as CRC-32, false for algorithms such as MD5 and SHA-1
+     */
+    public boolean hasIntValue() {
+        return this.intValue;
+    }
+
+    /**
+     * Returns the length of the checksum value in bytes.
+     */
+    public int getDigestLength() {
+        return this.digestLength;
+    }
+
+    /**
+     * Returns the length of the checksum value in HEX format, not counting the special value for data that consists of
+     * the same byte.
+     */
+    public int getHexLength() {
+        return this.hexLength;
+    }
+
+    /**
+     * Returns whether all bytes of the data are the same, in which case {@link #getHexValue()} shows the byte instead
+     * of the checksum.
+     *
+     * @return true if there is data and all of it is the same byte, otherwise false
+     */
+    public boolean isUniform() {
+        return allSameAsFirstByte && firstByte >= Byte.MIN_VALUE;
+    }
+
+    /**
+     * Returns the byte that all of the data consists of.
+     *
+     * @return the first byte of the data
+     * @see #isUniform()
+     */
+    public byte getUniformByte() {
+        return (byte) firstByte;
+    }
+
     /**
      * Returns an array containing the names of the algorithms known by this class.
      *
@@ -0,0 +1,76 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Keeps the files that are read during one operation open, so that each file is opened only once, however many items
+ * are read from it. The files should be read with positional reads, which do not move the position of the channel, so
+ * that reading an item does not depend on the items that were read before it. Not thread safe.
+ *
+ * @author Esko Luontola
+ */
+class ChannelCache {
+
+    private final Map<File, RandomAccessFile> open = new HashMap<File, RandomAccessFile>();
+
+    /**
+     * Returns the channel of a file, opening the file for reading if it is not yet open.
+     *
+     * @param file the file to read
+     * @return the channel of the file
+     * @throws IOException if the file can not be opened
+     */
+    public FileChannel getChannel(File file) throws IOException {
+        RandomAccessFile input = open.get(file);
+        if (input == null) {
+            input = new RandomAccessFile(file, "r");
+            open.put(file, input);
+        }
+        return input.getChannel();
+    }
+
+    /**
+     * Reads bytes from a file into a buffer, starting at the given position of the file. The position of the buffer
+     * is set to zero and its limit to the number of bytes read.
+     *
+     * @param file     the file to read
+     * @param buffer   the buffer to fill
+     * @param position the index of the first byte to read
+     * @param length   the number of bytes to read, at most the capacity of the buffer
+     * @return the number of bytes read, which is less than <code>length</code> only at the end of the file
+     * @throws IOException if the file can not be read
+     */
+    public int read(File file, ByteBuffer buffer, long position, int length) throws IOException {
+        FileChannel channel = getChannel(file);
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    /**
+     * Closes all the files that were opened.
+     */
+    public void close() {
+        for (RandomAccessFile input : open.values()) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        open.clear();
+    }
+}
@@ -6,12 +6,22 @@ package net.orfjackal.ccorr;
 
 import javax.swing.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * This class is used to represent a CCorr Checksum File. A new <code>ChecksumFile</code> is created with the
  * <code>createChecksumFile</code> method. This program counts checksums from the given file at regular intervals and
  * stores the information in this class. The part checksums and other data are used in a <code>Comparison</code> to find
  * the differences between any files.
+ * <p/>
+ * The checksums can be made with many algorithms at once, in which case the file is read only once and every
+ * algorithm gets a column of checksums of its own. The first algorithm is the primary algorithm, which is used when no
+ * algorithm is specified.
  *
  * @author Esko Luontola
  */
@@ -19,11 +29,17 @@ public class ChecksumFile implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The version of the serialized form. Version 1 stored the checksums in HEX format and did not write a version
+     * number. Version 2 stored the checksums of only one algorithm.
+     */
+    private static final int SERIAL_VERSION = 3;
+
     /**
      * Maximum allowed part length in bytes.
      * <p/>
-     * NOTE: The part size is used in allocating a byte array in {@link #updateChecksums(long, String)}, so if this is
-     * very high, the program will run out of memory.
+     * NOTE: The part size is used in allocating a byte array in {@link #updateChecksums(long, String,
+     * ProgressMonitor, boolean)}, so if this is very high, the program will run out of memory.
      */
     public static final int MAX_PART_SIZE = 10 * 1024 * 1024;    // 10 MB
 
@@ -32,6 +48,19 @@ public class ChecksumFile implements Serializable {
      */
     public static final int MIN_PART_SIZE = 1024;           // 1 KB
 
+    /**
+     * Files at least this long are processed in parallel by {@link #createChecksumFile(File, long, String)}, if there
+     * is more than one {@link Settings#getWorkerThreads() worker thread}. Smaller files are faster to read
+     * sequentially.
+     */
+    public static final long PARALLEL_HASHING_MIN_LENGTH = 32 * 1024 * 1024;    // 32 MB
+
+    /**
+     * Maximum length of the window of the source file that is memory mapped at a time when the file is processed in
+     * parallel. Each window is processed by one thread.
+     */
+    private static final long MAPPED_WINDOW_LENGTH = 64 * 1024 * 1024;       // 64 MB
+
     /**
      * The file extension used by CCorr Checksum File.
      */
@@ -43,14 +72,14 @@ public class ChecksumFile implements Serializable {
     public static final String FILE_TYPE = "CCorr Checksum File";
 
     /**
-     * The part checksums in HEX format.
+     * The part checksums, one column for each of the algorithms in <code>usedAlgorithms</code>.
      */
-    private String[] checksums;
+    private PartChecksums[] checksums;
 
     /**
-     * The name of the algorithm that was used for making the checksums.
+     * The names of the algorithms that were used for making the checksums. The first one is the primary algorithm.
      */
-    private String usedAlgorithm;
+    private String[] usedAlgorithms;
 
     /**
      * The length of the parts used for making the checksums in bytes. The type is <code>long</code> to avoid bugs in
@@ -73,6 +102,15 @@ public class ChecksumFile implements Serializable {
      */
     private File savedAsFile;
 
+    /**
+     * How many bytes of the source file have been processed by the currently running {@link #updateChecksums()}. Used
+     * for following the progress of {@link #createChecksumFiles(File[], long, String)}.
+     */
+    private transient volatile long bytesDone;
+
+    private static final AtomicLongFieldUpdater<ChecksumFile> BYTES_DONE =
+            AtomicLongFieldUpdater.newUpdater(ChecksumFile.class, "bytesDone");
+
 
     /**
      * Private constructor for ChecksumFile. Use the method loadFromFile or createChecksumFile to create an instance
@@ -87,9 +125,9 @@ public class ChecksumFile implements Serializable {
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
-        // TODO: write as the first object an Integer which tells the version of the file, so that importing old versions would be possible
+        out.writeObject(SERIAL_VERSION);
         out.writeObject(checksums);
-        out.writeObject(usedAlgorithm);
+        out.writeObject(usedAlgorithms);
         out.writeLong(partLength);
         out.writeObject(sourceFile);
         out.writeLong(sourceFileLength);
@@ -97,12 +135,34 @@ public class ChecksumFile implements Serializable {
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        checksums = (String[]) in.readObject();
-        usedAlgorithm = (String) in.readObject();
+        Object first = in.readObject();
+        Object hexChecksums = null;
+        if (first instanceof Integer) {
+            int version = (Integer) first;
+            if (version > SERIAL_VERSION) {
+                throw new InvalidObjectException("Unsupported version " + version);
+            }
+            if (version >= 3) {
+                checksums = (PartChecksums[]) in.readObject();
+                usedAlgorithms = (String[]) in.readObject();
+            } else {
+                checksums = new PartChecksums[]{(PartChecksums) in.readObject()};
+                usedAlgorithms = new String[]{(String) in.readObject()};
+            }
+        } else {
+            // version 1, which began with the checksums in HEX format
+            hexChecksums = first;
+            usedAlgorithms = new String[]{(String) in.readObject()};
+        }
         partLength = in.readLong();
         sourceFile = (File) in.readObject();
         sourceFileLength = in.readLong();
         savedAsFile = (File) in.readObject();
+
+        if (hexChecksums != null) {
+            checksums = new PartChecksums[]{PartChecksums.fromHexValues(usedAlgorithms[0], (String[]) hexChecksums,
+                    partLength, sourceFileLength)};
+        }
     }
 
     /**
@@ -119,13 +179,30 @@ public class ChecksumFile implements Serializable {
      * @see Settings#setProgressMonitor(ProgressMonitor)
      */
     public static ChecksumFile createChecksumFile(File file, long partLength, String algorithm) {
+        return createChecksumFile(file, partLength, new String[]{algorithm});
+    }
+
+    /**
+     * Creates a new <code>ChecksumFile</code> object from the given file, making the checksums with many algorithms at
+     * once. The file is read only once, so this is faster than making the checksums one algorithm at a time. A
+     * ProgressMonitor is used if available.
+     *
+     * @param file       the file to process.
+     * @param partLength the part length used to make checksums; if less than <code>MIN_PART_SIZE</code> or greater than
+     *                   <code>MAX_PART_SIZE</code>, the smallest or biggest allowed value will be used
+     * @param algorithms the names of the algorithms to be used for making the checksums, the primary algorithm first
+     * @return a new <code>ChecksumFile</code> object if operation is successful, otherwise null
+     * @see #createChecksumFile(File, long, String)
+     * @see #getAlgorithms()
+     */
+    public static ChecksumFile createChecksumFile(File file, long partLength, String[] algorithms) {
         /*
          * updateChecksums takes care of checking the input attributes
          * so we don't need to check them here
          */
 
         ChecksumFile result = new ChecksumFile(file);
-        boolean successful = result.updateChecksums(partLength, algorithm);
+        boolean successful = result.updateChecksums(partLength, algorithms, Settings.getProgressMonitor(), true);
 
         if (successful) {
             return result;
@@ -134,6 +211,96 @@ public class ChecksumFile implements Serializable {
         }
     }
 
+    /**
+     * Creates new <code>ChecksumFile</code> objects from many files at once. The files are processed in parallel using
+     * at most {@link Settings#getWorkerThreads()} threads, which is faster than processing them one at a time if the
+     * files are on different disks or on a fast disk. A ProgressMonitor is used if available, and it shows the combined
+     * progress of all the files.
+     *
+     * @param files      the files to process
+     * @param partLength the part length used to make checksums; if less than <code>MIN_PART_SIZE</code> or greater than
+     *                   <code>MAX_PART_SIZE</code>, the smallest or biggest allowed value will be used
+     * @param algorithm  the name of the  algorithm to be used for making the checksums
+     * @return an array containing a new <code>ChecksumFile</code> for each of the files in the same order, with null
+     *         in the place of those files whose processing failed or was cancelled
+     * @see #createChecksumFile(File, long, String)
+     * @see Settings#setProgressMonitor(ProgressMonitor)
+     */
+    public static ChecksumFile[] createChecksumFiles(File[] files, long partLength, String algorithm) {
+        return createChecksumFiles(files, partLength, new String[]{algorithm});
+    }
+
+    /**
+     * Creates new <code>ChecksumFile</code> objects from many files at once, making the checksums with many algorithms
+     * at once. Each file is read only once.
+     *
+     * @param files      the files to process
+     * @param partLength the part length used to make checksums; if less than <code>MIN_PART_SIZE</code> or greater than
+     *                   <code>MAX_PART_SIZE</code>, the smallest or biggest allowed value will be used
+     * @param algorithms the names of the algorithms to be used for making the checksums, the primary algorithm first
+     * @return an array containing a new <code>ChecksumFile</code> for each of the files in the same order, with null
+     *         in the place of those files whose processing failed or was cancelled
+     * @see #createChecksumFiles(File[], long, String)
+     * @see #createChecksumFile(File, long, String[])
+     */
+    public static ChecksumFile[] createChecksumFiles(File[] files, final long partLength, final String[] algorithms) {
+        Log.print("createChecksumFiles: Start, " + files.length + " files");
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+
+        // setup progress monitor
+        if (monitor != null) {
+            monitor.setMinimum(0);
+            monitor.setMaximum(100);
+        }
+
+        final ChecksumFile[] results = new ChecksumFile[files.length];
+        long totalLength = 0;
+        for (int i = 0; i < files.length; i++) {
+            results[i] = new ChecksumFile(files[i]);
+            totalLength += files[i].length();
+        }
+
+        // start making checksums
+        ExecutorService executor = Workers.newExecutor(files.length);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (final ChecksumFile result : results) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return result.updateChecksums(partLength, algorithms, null, false);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // wait for the files to be processed and update progress monitor
+        awaitTermination(executor, results, totalLength, monitor);
+
+        // collect the results
+        int successful = 0;
+        for (int i = 0; i < results.length; i++) {
+            boolean ok;
+            try {
+                ok = futures.get(i).isDone() && !futures.get(i).isCancelled() && futures.get(i).get();
+            } catch (Exception e) {
+                e.printStackTrace();
+                ok = false;
+            }
+            if (ok) {
+                successful++;
+            } else {
+                results[i] = null;
+            }
+        }
+
+        // close progress monitor
+        if (monitor != null) {
+            monitor.setProgress(monitor.getMaximum());
+        }
+
+        Log.println("createChecksumFiles: Done, " + successful + " of " + results.length + " files successful");
+        return results;
+    }
+
     /**
      * Rebuilds the checksums from the source file using the saved settings. This operation can take some minutes
      * depending on the size of the file to be processed. A ProgressMonitor is used if available
@@ -143,7 +310,254 @@ public class ChecksumFile implements Serializable {
      * @see Settings#setProgressMonitor(ProgressMonitor)
      */
     public boolean updateChecksums() {
-        return updateChecksums(this.partLength, this.usedAlgorithm);
+        return updateChecksums(this.partLength, this.usedAlgorithms, Settings.getProgressMonitor(), true);
+    }
+
+    /**
+     * Creates a <code>ChecksumFile</code> with half the part length, in which only the given parts are hashed again.
+     * Each of the given parts is divided into two smaller parts, which are read from the source file. The other parts
+     * are not read, and the smaller parts in them have the checksum of the part that contains them, so the new file
+     * has the same differences to other files as this file, except in the given parts.
+     *
+     * @param parts the indexes of the parts to hash again, in ascending order
+     * @return a new <code>ChecksumFile</code>, or null if the part length can not be halved or the source file has
+     *         changed or can not be read
+     * @see #createHalvedChecksumFiles(ChecksumFile[], int[])
+     */
+    public ChecksumFile createHalvedChecksumFile(int[] parts) {
+        if (this.checksums == null || this.partLength % 2 != 0
+                || !this.sourceFile.exists() || this.sourceFile.length() != this.sourceFileLength) {
+            return null;
+        }
+        ChecksumFile result = new ChecksumFile(this.sourceFile);
+        result.usedAlgorithms = this.usedAlgorithms.clone();
+        result.partLength = this.partLength / 2;
+        result.sourceFileLength = this.sourceFileLength;
+        int halvedParts = (int) ((this.sourceFileLength + result.partLength - 1) / result.partLength);
+
+        // the halves of the given parts, leaving out those after the end of the file
+        int[] refinedParts = new int[parts.length * 2];
+        int count = 0;
+        for (int part : parts) {
+            for (int half = part * 2; half < part * 2 + 2 && half < halvedParts; half++) {
+                refinedParts[count] = half;
+                count++;
+            }
+        }
+        refinedParts = Arrays.copyOf(refinedParts, count);
+
+        CRC[] crcs = createCRCs(this.usedAlgorithms);
+        result.checksums = new PartChecksums[crcs.length];
+        for (int i = 0; i < crcs.length; i++) {
+            result.checksums[i] = new PartChecksums(crcs[i], halvedParts, this.checksums[i], 2, refinedParts);
+        }
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(this.sourceFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate((int) result.partLength);
+                for (int part : refinedParts) {
+                    long start = result.partLength * part;
+                    buffer.clear();
+                    buffer.limit((int) Math.min(result.partLength, this.sourceFileLength - start));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, start + buffer.position()) < 0) {
+                            throw new EOFException("Unexpected end of " + this.sourceFile);
+                        }
+                    }
+                    result.updatePart(part, buffer.array(), buffer.limit(), crcs);
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Creates <code>ChecksumFile</code> objects with half the part length from many files at once, hashing again only
+     * the given parts. The files are processed in parallel using at most {@link Settings#getWorkerThreads()} threads.
+     *
+     * @param files the files to process
+     * @param parts the indexes of the parts to hash again, in ascending order; the parts that a file does not have are
+     *              left out
+     * @return the new files in the same order, or null if any of them failed
+     * @see #createHalvedChecksumFile(int[])
+     */
+    public static ChecksumFile[] createHalvedChecksumFiles(ChecksumFile[] files, int[] parts) {
+        return createHalvedChecksumFiles(files, parts, null, 0);
+    }
+
+    /**
+     * Creates <code>ChecksumFile</code> objects with half the part length from many files at once, like {@link
+     * #createHalvedChecksumFiles(ChecksumFile[], int[])}, and advances a ProgressMonitor by one for each file that is
+     * done. If the monitor is cancelled, the files that are not yet done are stopped.
+     *
+     * @param files    the files to process
+     * @param parts    the indexes of the parts to hash again, in ascending order
+     * @param monitor  optional <code>ProgressMonitor</code>, can be null
+     * @param progress the progress of the monitor before the first file
+     * @return the new files in the same order, or null if any of them failed or the monitor was cancelled
+     */
+    static ChecksumFile[] createHalvedChecksumFiles(ChecksumFile[] files, final int[] parts,
+                                                   ProgressMonitor monitor, int progress) {
+        ExecutorService executor = Workers.newExecutor(files.length);
+        List<Future<ChecksumFile>> futures = new ArrayList<Future<ChecksumFile>>();
+        for (final ChecksumFile file : files) {
+            futures.add(executor.submit(new Callable<ChecksumFile>() {
+                public ChecksumFile call() {
+                    return file.createHalvedChecksumFile(parts);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        ChecksumFile[] results = new ChecksumFile[files.length];
+        try {
+            for (int i = 0; i < results.length; i++) {
+                while (true) {
+                    try {
+                        results[i] = futures.get(i).get(200, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        if (monitor != null && monitor.isCanceled()) {
+                            Log.println("createHalvedChecksumFiles: Cancelled by user");
+                            return null;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+                if (results[i] == null) {
+                    Log.println("createHalvedChecksumFiles: Failed to read " + files[i].getSourceFile());
+                    return null;
+                }
+                if (monitor != null) {
+                    monitor.setProgress(progress + i + 1);
+                    monitor.setNote("Read " + (i + 1) + " of " + files.length + " files");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Creates a <code>ChecksumFile</code> for a file that is being written, so that the checksums of its parts can be
+     * made from the data while it is written, instead of reading the file afterwards. The checksum of each part must be
+     * made with {@link #updatePart(int, byte[], int, CRC[])} before the <code>ChecksumFile</code> is used.
+     *
+     * @param file       the file that is being written
+     * @param fileLength the length of the file when it has been written
+     * @param partLength the part length used to make checksums
+     * @param algorithm  the name of the algorithm used for making the checksums
+     * @return a new <code>ChecksumFile</code>
+     * @see FileCombination#writeVerifiedFile(File, long, String)
+     */
+    static ChecksumFile createForWriting(File file, long fileLength, long partLength, String algorithm) {
+        ChecksumFile result = new ChecksumFile(file);
+        CRC[] crcs = createCRCs(new String[]{algorithm});
+        result.usedAlgorithms = new String[]{crcs[0].getAlgorithm()};
+        result.partLength = partLength;
+        result.sourceFileLength = fileLength;
+        int parts = (int) ((fileLength + partLength - 1) / partLength);
+        result.checksums = new PartChecksums[]{new PartChecksums(crcs[0], parts)};
+        return result;
+    }
+
+    /**
+     * Returns whether a part has checksums of its own, made of the data of the part. A part of a file made with {@link
+     * #createHalvedChecksumFile(int[])} that was not hashed again has the checksums of the bigger part that contains
+     * it.
+     *
+     * @param part the index of the part
+     * @return true if the checksums of the part were made of its data, otherwise false
+     */
+    boolean isRefined(int part) {
+        return this.checksums != null && part >= 0 && part < this.getParts() && this.checksums[0].isRefined(part);
+    }
+
+    /**
+     * Creates a <code>ChecksumFile</code> with a longer part length from the CRC-32 checksums of this file, without
+     * reading the source file. The CRC-32 of each longer part is combined from the CRC-32 checksums of the parts in it.
+     * The checksums of other algorithms can not be combined, so the new file has only the CRC-32 checksums.
+     *
+     * @param partLength the new part length, a multiple of the part length of this file
+     * @return a new <code>ChecksumFile</code>, this file if the part length is the same, or null if this file has no
+     *         CRC-32 checksums, the part length is not a multiple of the part length of this file, or some longer part
+     *         contains only some of the halves of a part that was not hashed again
+     * @see #createHalvedChecksumFile(int[])
+     */
+    public ChecksumFile createCoarserChecksumFile(long partLength) {
+        int column = indexOfAlgorithm("CRC-32");
+        if (this.checksums == null || column < 0 || partLength <= 0 || partLength % this.partLength != 0
+                || partLength / this.partLength > Integer.MAX_VALUE) {
+            return null;
+        }
+        if (partLength == this.partLength) {
+            return this;
+        }
+        int factor = (int) (partLength / this.partLength);
+        PartChecksums coarser = this.checksums[column].createCoarserCrc32(factor, this.partLength,
+                this.sourceFileLength);
+        if (coarser == null) {
+            return null;
+        }
+        ChecksumFile result = new ChecksumFile(this.sourceFile);
+        result.usedAlgorithms = new String[]{"CRC-32"};
+        result.partLength = partLength;
+        result.sourceFileLength = this.sourceFileLength;
+        result.checksums = new PartChecksums[]{coarser};
+        return result;
+    }
+
+    /**
+     * Returns whether some parts have the checksums of the bigger parts that contain them, because they were not hashed
+     * again when the file was made with {@link #createHalvedChecksumFile(int[])}.
+     *
+     * @return true if some parts do not have checksums of their own, otherwise false
+     */
+    boolean hasCoarseParts() {
+        return this.checksums != null && this.checksums[0].hasCoarseParts();
+    }
+
+    /**
+     * Creates a <code>ChecksumFile</code> whose parts are refined in the same way as the parts of another file, from
+     * the CRC-32 checksums of this file, without reading the source file. The parts that were hashed again in the other
+     * file keep the checksums of this file, and the other parts get the checksums of the bigger parts that contain
+     * them, which are combined from the CRC-32 checksums of this file. The checksums of other algorithms can not be
+     * combined, so the new file has only the CRC-32 checksums.
+     *
+     * @param layout a file made with {@link #createHalvedChecksumFile(int[])}, with the same part length as this file
+     * @return a new <code>ChecksumFile</code>, this file if the other file does not have coarse parts, or null if this
+     *         file has no CRC-32 checksums, has coarse parts itself, or has a different part length
+     * @see #createCoarserChecksumFile(long)
+     */
+    public ChecksumFile createRefinedChecksumFile(ChecksumFile layout) {
+        int column = indexOfAlgorithm("CRC-32");
+        if (this.checksums == null || layout.checksums == null || column < 0 || layout.partLength != this.partLength) {
+            return null;
+        }
+        if (!layout.hasCoarseParts()) {
+            return this;
+        }
+        PartChecksums refined = this.checksums[column].createRefinedCrc32(layout.checksums[0], this.partLength,
+                this.sourceFileLength);
+        if (refined == null) {
+            return null;
+        }
+        ChecksumFile result = new ChecksumFile(this.sourceFile);
+        result.usedAlgorithms = new String[]{"CRC-32"};
+        result.partLength = this.partLength;
+        result.sourceFileLength = this.sourceFileLength;
+        result.checksums = new PartChecksums[]{refined};
+        return result;
     }
 
     /**
@@ -152,21 +566,26 @@ public class ChecksumFile implements Serializable {
      *
      * @param partLength the part length used to make checksums; if less than <code>MIN_PART_SIZE</code> or greater than
      *                   <code>MAX_PART_SIZE</code>, the smallest or biggest allowed value will be used
-     * @param algorithm  the name of the  algorithm to be used for making the checksums
+     * @param algorithms the names of the algorithms to be used for making the checksums, the primary algorithm first;
+     *                   unknown algorithms are replaced with CRC-32 and duplicates are ignored
+     * @param monitor    optional <code>ProgressMonitor</code>, can be null
+     * @param parallel   true to process large files in parallel, false to always read the file sequentially
      * @return true if operation is successful, otherwise false.
      * @see #createChecksumFile(java.io.File,long,String)
      * @see CRC#getSupportedAlgorithms()
      * @see Settings#setProgressMonitor(ProgressMonitor)
      */
-    private boolean updateChecksums(long partLength, String algorithm) {
-        Log.print("updateChecksums(" + partLength + ", " + algorithm + ") from " + this.sourceFile);
+    private boolean updateChecksums(long partLength, String[] algorithms, ProgressMonitor monitor, boolean parallel) {
+        Log.print("updateChecksums(" + partLength + ", " + Arrays.toString(algorithms) + ") from " + this.sourceFile);
         boolean successful = false;
-
-        ProgressMonitor monitor = Settings.getProgressMonitor();
+        this.bytesDone = 0;
 
         if (this.sourceFile.exists() && this.sourceFile.canRead()) {
-            CRC crc = new CRC(algorithm);
-            this.usedAlgorithm = crc.getAlgorithm();
+            CRC[] crcs = createCRCs(algorithms);
+            this.usedAlgorithms = new String[crcs.length];
+            for (int i = 0; i < crcs.length; i++) {
+                this.usedAlgorithms[i] = crcs[i].getAlgorithm();
+            }
 
             if (partLength < MIN_PART_SIZE) {
                 partLength = MIN_PART_SIZE;
@@ -183,7 +602,10 @@ public class ChecksumFile implements Serializable {
                 if ((this.sourceFileLength % this.partLength) != 0) {
                     parts++;
                 }
-                this.checksums = new String[parts];
+                this.checksums = new PartChecksums[crcs.length];
+                for (int i = 0; i < crcs.length; i++) {
+                    this.checksums[i] = new PartChecksums(crcs[i], parts);
+                }
 
                 // setup progress monitor
                 if (monitor != null) {
@@ -191,39 +613,12 @@ public class ChecksumFile implements Serializable {
                     monitor.setMaximum(100);
                 }
 
-                // stuff for reading files
-                BufferedInputStream input =
-                        new BufferedInputStream(
-                                new FileInputStream(this.sourceFile),
-                                Settings.getReadBufferLength()
-                        );
-                byte[] buffer = new byte[(int) this.partLength];
-                int lastMonitorValue = -1;
-
-                // read one part at a time and make the checksums
-                for (int i = 0; i < this.checksums.length; i++) {
-                    int len = input.read(buffer);
-                    crc.reset();
-                    crc.update(buffer, 0, len);
-                    this.checksums[i] = crc.getHexValue();
-
-                    // update progress monitor
-                    if (monitor != null) {
-                        int percentage = i * 100 / parts;
-                        if (percentage != lastMonitorValue) {
-                            monitor.setProgress(percentage);
-                            monitor.setNote("Completed " + percentage + "%");
-                            lastMonitorValue = percentage;
-                            Thread.yield(); // allow the GUI some time to be updated
-                        }
-
-                        if (monitor.isCanceled()) {
-                            Log.print("updateChecksums: Cancelled by user");
-                            throw new Exception("Cancelled by user");
-                        }
-                    }
+                if (parallel && this.sourceFileLength >= PARALLEL_HASHING_MIN_LENGTH
+                        && Settings.getWorkerThreads() > 1) {
+                    readChecksumsInParallel(this.usedAlgorithms, monitor);
+                } else {
+                    readChecksumsSequentially(crcs, monitor);
                 }
-                input.close();
                 successful = true;
 
             } catch (Exception e) {
@@ -249,13 +644,272 @@ public class ChecksumFile implements Serializable {
     }
 
     /**
-     * Returns the name of the algorithm that was used for making the checksums.
+     * Creates a <code>CRC</code> for each of the algorithms, leaving out the duplicates.
+     *
+     * @param algorithms the names of the algorithms, or null to use the default algorithm of <code>CRC</code>
+     * @return the <code>CRC</code>s in the same order as the algorithms
+     */
+    static CRC[] createCRCs(String[] algorithms) {
+        if (algorithms == null || algorithms.length == 0) {
+            algorithms = new String[]{null};
+        }
+        Vector<CRC> crcs = new Vector<CRC>();
+        Set<String> names = new HashSet<String>();
+        for (String algorithm : algorithms) {
+            CRC crc = new CRC(algorithm);
+            if (names.add(crc.getAlgorithm())) {
+                crcs.add(crc);
+            }
+        }
+        return crcs.toArray(new CRC[crcs.size()]);
+    }
+
+    /**
+     * Makes the checksums of one part with all the algorithms.
+     *
+     * @param part   the index of the part
+     * @param buffer the data of the part
+     * @param len    the length of the data
+     * @param crcs   the <code>CRC</code>s used for making the checksums, one for each algorithm
+     */
+    void updatePart(int part, byte[] buffer, int len, CRC[] crcs) {
+        for (int i = 0; i < crcs.length; i++) {
+            crcs[i].reset();
+            crcs[i].update(buffer, 0, len);
+            this.checksums[i].set(part, crcs[i]);
+        }
+    }
+
+    /**
+     * Makes the checksums by reading the source file one part at a time.
+     *
+     * @param crcs    the <code>CRC</code>s used for making the checksums, one for each algorithm
+     * @param monitor optional <code>ProgressMonitor</code>, can be null
+     * @throws Exception something went wrong or operation was cancelled by user
+     */
+    private void readChecksumsSequentially(CRC[] crcs, ProgressMonitor monitor) throws Exception {
+        int parts = this.getParts();
+
+        // stuff for reading files
+        BufferedInputStream input =
+                new BufferedInputStream(
+                        new FileInputStream(this.sourceFile),
+                        Settings.getReadBufferLength()
+                );
+        byte[] buffer = new byte[(int) this.partLength];
+        int lastMonitorValue = -1;
+
+        try {
+            // read one part at a time and make the checksums
+            for (int i = 0; i < parts; i++) {
+                int len = input.read(buffer);
+                updatePart(i, buffer, len, crcs);
+                this.bytesDone += len;
+
+                if (Thread.currentThread().isInterrupted()) {
+                    Log.print("updateChecksums: Interrupted");
+                    throw new Exception("Interrupted");
+                }
+
+                // update progress monitor
+                if (monitor != null) {
+                    int percentage = i * 100 / parts;
+                    if (percentage != lastMonitorValue) {
+                        monitor.setProgress(percentage);
+                        monitor.setNote("Completed " + percentage + "%");
+                        lastMonitorValue = percentage;
+                        Thread.yield(); // allow the GUI some time to be updated
+                    }
+
+                    if (monitor.isCanceled()) {
+                        Log.print("updateChecksums: Cancelled by user");
+                        throw new Exception("Cancelled by user");
+                    }
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Makes the checksums by hashing many ranges of parts in parallel. Each range is memory mapped from the source file
+     * and processed by its own task, which writes the checksums of the range to their own slots in the checksum
+     * array.
+     *
+     * @param algorithms the names of the algorithms to be used for making the checksums
+     * @param monitor    optional <code>ProgressMonitor</code>, can be null
+     * @throws Exception something went wrong or operation was cancelled by user
+     */
+    private void readChecksumsInParallel(final String[] algorithms, ProgressMonitor monitor) throws Exception {
+        int parts = this.getParts();
+        int threads = Settings.getWorkerThreads();
+
+        // a few windows per thread, so that the threads will not be left waiting for the slowest one
+        long partsPerWindow = Math.min(MAPPED_WINDOW_LENGTH / this.partLength, parts / (threads * 4));
+        partsPerWindow = Math.max(1, partsPerWindow);
+        Log.print("updateChecksums: Hashing in parallel, " + partsPerWindow + " parts per window");
+
+        RandomAccessFile file = new RandomAccessFile(this.sourceFile, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            ExecutorService executor = Workers.newExecutor(threads);
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (long first = 0; first < parts; first += partsPerWindow) {
+                final int firstPart = (int) first;
+                final int endPart = (int) Math.min(parts, first + partsPerWindow);
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        readChecksums(channel, firstPart, endPart, createCRCs(algorithms));
+                        return null;
+                    }
+                }));
+            }
+            executor.shutdown();
+
+            if (!awaitTermination(executor, new ChecksumFile[]{this}, this.sourceFileLength, monitor)) {
+                throw new Exception("Cancelled by user");
+            }
+            for (Future<Object> future : futures) {
+                future.get();   // rethrows the exceptions of the tasks
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Makes the checksums for a range of parts from a memory mapped window of the source file.
+     * <p/>
+     * NOTE: The mapping is released only when the buffer is garbage collected, and until then on some platforms the
+     * file can not be deleted.
+     *
+     * @param channel   the channel of the source file
+     * @param firstPart the index of the first part in the range
+     * @param endPart   the index of the part after the last part in the range
+     * @param crcs      the <code>CRC</code>s used for making the checksums, one for each algorithm
+     * @throws Exception something went wrong or the thread was interrupted
+     */
+    private void readChecksums(FileChannel channel, int firstPart, int endPart, CRC[] crcs) throws Exception {
+        long start = this.partLength * firstPart;
+        long end = Math.min(this.sourceFileLength, this.partLength * endPart);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        byte[] buffer = new byte[(int) this.partLength];
+
+        for (int i = firstPart; i < endPart; i++) {
+            int len = (int) Math.min(this.partLength, window.remaining());
+            window.get(buffer, 0, len);
+            updatePart(i, buffer, len, crcs);
+            BYTES_DONE.addAndGet(this, len);
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Waits for the tasks of an <code>ExecutorService</code> to finish, and meanwhile shows in a progress monitor how
+     * much of the files have been processed. All the tasks are interrupted if the user cancels the operation.
+     *
+     * @param executor    the <code>ExecutorService</code> which has been shut down
+     * @param files       the files that are being processed
+     * @param totalLength the total length of the files in bytes
+     * @param monitor     optional <code>ProgressMonitor</code>, can be null
+     * @return true if all the tasks finished, false if they were cancelled
+     */
+    private static boolean awaitTermination(ExecutorService executor, ChecksumFile[] files, long totalLength,
+                                            ProgressMonitor monitor) {
+        int lastMonitorValue = -1;
+        try {
+            while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                if (monitor != null) {
+                    long done = 0;
+                    for (ChecksumFile file : files) {
+                        done += file.bytesDone;
+                    }
+                    int percentage = (int) (done * 100 / Math.max(1, totalLength));
+                    if (percentage != lastMonitorValue) {
+                        monitor.setProgress(percentage);
+                        monitor.setNote("Completed " + percentage + "%");
+                        lastMonitorValue = percentage;
+                    }
+
+                    if (monitor.isCanceled()) {
+                        Log.print("awaitTermination: Cancelled by user");
+                        executor.shutdownNow();
+                        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                        return false;
+                    }
+                }
+            }
+            return true;
+
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the name of the primary algorithm that was used for making the checksums.
      *
      * @return the name of the algorithm
      * @see CRC#getSupportedAlgorithms()
      */
     public String getAlgorithm() {
-        return this.usedAlgorithm;
+        if (this.usedAlgorithms == null) {
+            return null;
+        } else {
+            return this.usedAlgorithms[0];
+        }
+    }
+
+    /**
+     * Returns the names of all the algorithms that were used for making the checksums.
+     *
+     * @return the names of the algorithms, the primary algorithm first
+     * @see #createChecksumFile(File, long, String[])
+     */
+    public String[] getAlgorithms() {
+        if (this.usedAlgorithms == null) {
+            return new String[0];
+        } else {
+            return this.usedAlgorithms.clone();
+        }
+    }
+
+    /**
+     * Returns whether checksums were made with the given algorithm.
+     *
+     * @param algorithm the name of the algorithm
+     * @return true if this has the checksums of the algorithm, otherwise false
+     */
+    public boolean hasAlgorithm(String algorithm) {
+        return indexOfAlgorithm(algorithm) >= 0;
+    }
+
+    /**
+     * Returns the index of the checksum column of the given algorithm.
+     *
+     * @param algorithm the name of the algorithm, or null for the primary algorithm
+     * @return the index, or -1 if the algorithm was not used
+     */
+    private int indexOfAlgorithm(String algorithm) {
+        if (this.usedAlgorithms == null) {
+            return -1;
+        }
+        if (algorithm == null) {
+            return 0;
+        }
+        for (int i = 0; i < this.usedAlgorithms.length; i++) {
+            if (this.usedAlgorithms[i].equals(algorithm)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
 
@@ -277,22 +931,170 @@ public class ChecksumFile implements Serializable {
         if (this.checksums == null) {
             return -1;
         } else {
-            return this.checksums.length;
+            return this.checksums[0].getParts();
         }
     }
 
     /**
-     * Returns the checksum of the requested part.
+     * Returns the checksum of the requested part, made with the primary algorithm. The HEX format is meant for showing
+     * to the user. Use {@link #hasSameChecksum(int, ChecksumFile)} for comparing the checksums.
      *
      * @param part the index of the part
      * @return the checksum in HEX format, or null if parameter invalid
+     * @see CRC#getHexValue()
      */
     public String getChecksum(int part) {
-        if (this.checksums == null || part < 0 || part >= this.checksums.length) {
+        return getChecksum(part, null);
+    }
+
+    /**
+     * Returns the checksum of the requested part, made with the given algorithm.
+     *
+     * @param part      the index of the part
+     * @param algorithm the name of the algorithm, or null for the primary algorithm
+     * @return the checksum in HEX format, or null if parameter invalid or the algorithm was not used
+     * @see #getAlgorithms()
+     */
+    public String getChecksum(int part, String algorithm) {
+        int column = indexOfAlgorithm(algorithm);
+        if (column < 0 || part < 0 || part >= this.getParts()) {
             return null;
         } else {
-            return this.checksums[part];
+            return this.checksums[column].getHexValue(part);
+        }
+    }
+
+    /**
+     * Returns whether the requested part has the same checksum as the same part in another <code>ChecksumFile</code>,
+     * using the primary algorithm of this file. Unlike comparing the results of {@link #getChecksum(int)}, this does
+     * not create any objects.
+     *
+     * @param part  the index of the part
+     * @param other the <code>ChecksumFile</code> to compare with
+     * @return true if both files have the part and its checksums are equal, otherwise false
+     */
+    public boolean hasSameChecksum(int part, ChecksumFile other) {
+        return hasSameChecksum(part, other, this.getAlgorithm());
+    }
+
+    /**
+     * Returns whether the requested part has the same checksum as the same part in another <code>ChecksumFile</code>,
+     * using the given algorithm.
+     *
+     * @param part      the index of the part
+     * @param other     the <code>ChecksumFile</code> to compare with
+     * @param algorithm the name of the algorithm, or null for the primary algorithm of this file
+     * @return true if both files have the part and the checksums of the algorithm and they are equal, otherwise false
+     */
+    public boolean hasSameChecksum(int part, ChecksumFile other, String algorithm) {
+        if (algorithm == null) {
+            algorithm = this.getAlgorithm();
+        }
+        int column = this.indexOfAlgorithm(algorithm);
+        int otherColumn = other.indexOfAlgorithm(algorithm);
+        if (column < 0 || otherColumn < 0 || part < 0 || part >= this.getParts() || part >= other.getParts()) {
+            return false;
+        } else {
+            return this.checksums[column].equals(part, other.checksums[otherColumn], part);
+        }
+    }
+
+    /**
+     * Returns a fingerprint of all the checksums made with the given algorithm. Files with the same checksums in all
+     * parts have the same fingerprint.
+     *
+     * @param algorithm the name of the algorithm, or null for the primary algorithm
+     * @return a 64-bit hash of the checksums, or 0 if the algorithm was not used
+     * @see #hasSameChecksums(ChecksumFile, String)
+     */
+    public long getFingerprint(String algorithm) {
+        int column = indexOfAlgorithm(algorithm);
+        if (column < 0) {
+            return 0;
+        } else {
+            return this.checksums[column].getFingerprint() ^ this.sourceFileLength;
+        }
+    }
+
+    /**
+     * Returns whether all the parts have the same checksums as in another <code>ChecksumFile</code>, which means that
+     * the files are identical, as far as the checksums can tell.
+     *
+     * @param other     the <code>ChecksumFile</code> to compare with
+     * @param algorithm the name of the algorithm, or null for the primary algorithm of this file
+     * @return true if the files have the same length and the same checksums, otherwise false
+     */
+    public boolean hasSameChecksums(ChecksumFile other, String algorithm) {
+        if (algorithm == null) {
+            algorithm = this.getAlgorithm();
+        }
+        if (this.getParts() != other.getParts() || this.sourceFileLength != other.sourceFileLength) {
+            return false;
+        }
+        for (int part = 0; part < this.getParts(); part++) {
+            if (!this.hasSameChecksum(part, other, algorithm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code of the checksum of the requested part, made with the primary algorithm. Parts with the
+     * {@link #hasSameChecksum(int, ChecksumFile) same checksum} have the same hash code.
+     *
+     * @param part the index of the part
+     * @return a hash code of the checksum, or 0 if parameter invalid
+     */
+    public int getChecksumHashCode(int part) {
+        return getChecksumHashCode(part, null);
+    }
+
+    /**
+     * Returns a hash code of the checksum of the requested part, made with the given algorithm. Parts with the {@link
+     * #hasSameChecksum(int, ChecksumFile, String) same checksum} have the same hash code.
+     *
+     * @param part      the index of the part
+     * @param algorithm the name of the algorithm, or null for the primary algorithm
+     * @return a hash code of the checksum, or 0 if parameter invalid or the algorithm was not used
+     */
+    public int getChecksumHashCode(int part, String algorithm) {
+        int column = indexOfAlgorithm(algorithm);
+        if (column < 0 || part < 0 || part >= this.getParts()) {
+            return 0;
+        } else {
+            return this.checksums[column].hashCode(part);
+        }
+    }
+
+    /**
+     * Appends the CRC-32 of a range of bytes to a CRC-32 of data before it, using the CRC-32 checksums of the parts
+     * instead of reading the source file. The range must begin at the beginning of a part, and end at the end of a
+     * part or of the file. Like when reading the file, the range ends at the end of the file if it is longer.
+     *
+     * @param crc   the CRC-32 of the data before the range
+     * @param start the index of the first byte
+     * @param end   the index of the last byte
+     * @return true if successful, false if there are no CRC-32 checksums, the range does not begin and end at parts or
+     *         if the source file has changed
+     */
+    boolean updateCrc32(Crc32Combine crc, long start, long end) {
+        int column = indexOfAlgorithm("CRC-32");
+        if (column < 0 || start < 0 || start > end || start % this.partLength != 0
+                || this.sourceFile.length() != this.sourceFileLength) {
+            return false;
+        }
+        if (end >= this.sourceFileLength) {
+            end = this.sourceFileLength - 1;
+        } else if ((end + 1) % this.partLength != 0) {
+            return false;
+        }
+        if (start > end) {
+            return true;
         }
+        int firstPart = (int) (start / this.partLength);
+        int endPart = (int) (end / this.partLength) + 1;
+        return this.checksums[column].appendCrc32(crc, firstPart, endPart, this.partLength, this.sourceFileLength);
     }
 
     /**
@@ -302,7 +1104,7 @@ public class ChecksumFile implements Serializable {
      * @return index of the part's first byte, or -1 if parameter invalid
      */
     public long getStartOffset(int part) {
-        if (this.checksums == null || part < 0 || part >= this.checksums.length) {
+        if (this.checksums == null || part < 0 || part >= this.getParts()) {
             return -1;
         } else {
             return this.partLength * part;
@@ -316,7 +1118,7 @@ public class ChecksumFile implements Serializable {
      * @return index of the part's last byte, or -1 if parameter invalid
      */
     public long getEndOffset(int part) {
-        if (this.checksums == null || part < 0 || part >= this.checksums.length) {
+        if (this.checksums == null || part < 0 || part >= this.getParts()) {
             return -1;
         } else {
             long offset = (this.partLength * (part + 1)) - 1;
@@ -424,7 +1226,7 @@ public class ChecksumFile implements Serializable {
                 + this.getSourceFileLength() + " bytes) \n"
                 + this.getParts() + " parts ("
                 + this.getPartLength() + " bytes) "
-                + "using " + this.getAlgorithm());
+                + "using " + Arrays.toString(this.usedAlgorithms));
 
         return sb.toString();
     }
@@ -0,0 +1,454 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches the combinations of a <code>Comparison</code> for the one whose checksum is the known checksum of the good
+ * file. The combinations are the same as those of {@link Comparison#createPossibleCombinations()}, except that the
+ * files which have the same checksum in a difference are tried only once.
+ * <p/>
+ * The combinations are gone through as a tree, one difference at a time, so that they are never all in memory at once.
+ * The data before a difference is counted into the checksum only once, and the checksum is copied for each file that
+ * is tried in the difference, if the algorithm makes it possible (see {@link CRC#copy()}). Otherwise the checksum of
+ * each combination is counted from the beginning. The branches of the tree are searched in parallel, and the search
+ * stops when the first matching combination is found.
+ *
+ * @author Esko Luontola
+ * @see Comparison#getPossibleCombinations()
+ */
+public class CombinationSearch {
+
+    /**
+     * The number of bytes that are read from a file at a time.
+     */
+    public static final int BUFFER_LENGTH = 64 * 1024;
+
+    /**
+     * The number of branches per thread into which the tree is divided, so that the threads which finish their
+     * branches early have more branches to search.
+     */
+    private static final int BRANCHES_PER_THREAD = 4;
+
+    private final String algorithm;
+    private final String checksum;
+    private final ChecksumFile[] files;
+    private final File[] sources;
+    private final long[] lengths;
+    private final int base;
+
+    /**
+     * The files that are tried in each difference.
+     */
+    private final int[][] options;
+    private final long[] starts;
+    private final long[] ends;
+    private final long combinations;
+
+    private final AtomicLong tested = new AtomicLong(0);
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a search for the combinations of a comparison. The files that are marked good are the only ones tried in
+     * their differences, and the files that are marked bad are not tried.
+     *
+     * @param comparison the comparison; if it needs updating, there will be no combinations
+     * @param algorithm  the algorithm of the known checksum
+     * @param checksum   the known checksum of the good file in HEX format
+     * @see CRC#getSupportedAlgorithms()
+     */
+    public CombinationSearch(Comparison comparison, String algorithm, String checksum) {
+        this.algorithm = algorithm;
+        this.checksum = checksum.trim();
+
+        int files = comparison.getFiles();
+        this.files = new ChecksumFile[files];
+        this.sources = new File[files];
+        this.lengths = new long[files];
+        int longest = 0;
+        for (int i = 0; i < files; i++) {
+            this.files[i] = comparison.getFile(i);
+            this.sources[i] = comparison.getFile(i).getSourceFile();
+            this.lengths[i] = comparison.getFile(i).getSourceFileLength();
+            if (this.lengths[i] > this.lengths[longest]) {
+                longest = i;
+            }
+        }
+        this.base = longest;
+
+        int differences = Math.max(0, comparison.getDifferences());
+        long partLength = comparison.getPartLength();
+        this.options = new int[differences][];
+        this.starts = new long[differences];
+        this.ends = new long[differences];
+        long count = (files == 0 || comparison.getDifferences() < 0) ? 0 : 1;
+        for (int row = 0; row < differences; row++) {
+            this.options[row] = findOptions(comparison, row);
+            this.starts[row] = partLength * comparison.getPart(row);
+            this.ends[row] = partLength * (comparison.getPart(row) + 1L) - 1;
+            count = multiply(count, this.options[row].length);
+        }
+        this.combinations = count;
+    }
+
+    /**
+     * Finds the files that are tried in a difference, only one of the files that have the same checksum.
+     */
+    private static int[] findOptions(Comparison comparison, int row) {
+        int files = comparison.getFiles();
+        for (int file = 0; file < files; file++) {
+            if (comparison.getMark(row, file) == Comparison.MARK_IS_GOOD
+                    && comparison.getChecksumClass(row, file) != PartClassifier.MISSING) {
+                return new int[]{file};
+            }
+        }
+        int[] result = new int[files];
+        boolean[] tried = new boolean[files];
+        int count = 0;
+        for (int file = 0; file < files; file++) {
+            int crcClass = comparison.getChecksumClass(row, file);
+            if (crcClass == PartClassifier.MISSING || tried[crcClass]
+                    || comparison.getMark(row, file) == Comparison.MARK_IS_BAD) {
+                continue;
+            }
+            tried[crcClass] = true;
+            result[count] = file;
+            count++;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+
+    /**
+     * Returns the number of combinations that will be tried.
+     *
+     * @return the number of combinations, or <code>Long.MAX_VALUE</code> if there are more
+     */
+    public long getCombinations() {
+        return combinations;
+    }
+
+    /**
+     * Returns the number of combinations that have been tried so far.
+     */
+    public long getTested() {
+        return tested.get();
+    }
+
+    /**
+     * Returns the number of differences.
+     */
+    int getRows() {
+        return options.length;
+    }
+
+    /**
+     * Returns the indexes of the files that are tried in a difference.
+     */
+    int[] getOptions(int row) {
+        return options[row].clone();
+    }
+
+    /**
+     * Returns the checksums of a file.
+     */
+    ChecksumFile getFile(int file) {
+        return files[file];
+    }
+
+    /**
+     * Returns the index of the first byte of a difference.
+     */
+    long getStart(int row) {
+        return starts[row];
+    }
+
+    /**
+     * Returns the index of the last byte of a difference, which is after the end of the files that are too short.
+     */
+    long getEnd(int row) {
+        return ends[row];
+    }
+
+    /**
+     * Returns the length of the combinations, which is the length of the longest file.
+     */
+    long getLength() {
+        return lengths[base];
+    }
+
+    /**
+     * Stops the search. The search returns soon after this has been called.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Searches for the combination whose checksum is the known checksum. The operation can take a long time, depending
+     * on the number of combinations and the size of the files. A ProgressMonitor is used if available, and the search
+     * can be cancelled from it.
+     *
+     * @return the matching combination, or null if none of the combinations match or if the search was stopped or
+     *         failed
+     * @see Settings#setProgressMonitor(ProgressMonitor)
+     */
+    public FileCombination search() {
+        Log.print("CombinationSearch: Start, " + combinations + " combinations, using " + algorithm);
+        if (combinations == 0) {
+            Log.print("CombinationSearch: Aborted, no combinations");
+            return null;
+        }
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+        if (monitor != null) {
+            monitor.setMinimum(0);
+            monitor.setMaximum(100);
+        }
+
+        RandomAccessFile[] inputs = new RandomAccessFile[sources.length];
+        FileChannel[] channels = new FileChannel[sources.length];
+        int[] match = null;
+        try {
+            for (int i = 0; i < sources.length; i++) {
+                inputs[i] = new RandomAccessFile(sources[i], "r");
+                channels[i] = inputs[i].getChannel();
+            }
+
+            // the beginning of the tree is gone through in this thread, and its branches in parallel
+            List<Branch> branches = new ArrayList<Branch>();
+            int threads = Settings.getWorkerThreads();
+            int depth = 0;
+            long width = 1;
+            while (depth < options.length && width < (long) threads * BRANCHES_PER_THREAD) {
+                width *= options[depth].length;
+                depth++;
+            }
+            Branch root = new Branch(channels, 0, new int[options.length], new CRC(algorithm));
+            root.collectBranches(depth, branches);
+            match = searchAll(branches, monitor);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.println("CombinationSearch: Aborted, " + e);
+            stopped = true;
+        } finally {
+            for (RandomAccessFile input : inputs) {
+                try {
+                    if (input != null) {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (monitor != null) {
+                monitor.setProgress(monitor.getMaximum());
+            }
+        }
+
+        if (match == null) {
+            Log.println("CombinationSearch: Done, no match in " + tested.get() + " combinations");
+            return null;
+        }
+        Log.println("CombinationSearch: Done, match found after " + tested.get() + " combinations");
+        return createCombination(match);
+    }
+
+    private int[] searchAll(List<Branch> branches, ProgressMonitor monitor) throws Exception {
+        ExecutorService executor = Workers.newExecutor(branches.size());
+        CompletionService<int[]> completed = new ExecutorCompletionService<int[]>(executor);
+        for (Branch branch : branches) {
+            completed.submit(branch);
+        }
+        executor.shutdown();
+
+        // the branches are waited for in the order they finish, so that a match in any branch ends the search
+        int[] match = null;
+        try {
+            for (int finished = 0; finished < branches.size() && match == null; ) {
+                Future<int[]> future = completed.poll(200, TimeUnit.MILLISECONDS);
+                if (future != null) {
+                    match = future.get();
+                    finished++;
+                } else if (monitor != null) {
+                    int percentage = (int) (tested.get() * 100.0 / combinations);
+                    monitor.setProgress(percentage);
+                    monitor.setNote("Tested " + tested.get() + " of " + combinations);
+                    if (monitor.isCanceled()) {
+                        stopped = true;
+                    }
+                }
+            }
+        } finally {
+            stopped = true;
+            executor.shutdownNow();
+        }
+        return match;
+    }
+
+    /**
+     * Creates the combination which reads each difference from the given file, and the rest from the longest file.
+     *
+     * @param choice the index of the file of each difference
+     */
+    FileCombination createCombination(int[] choice) {
+        FileCombination fc = new FileCombination();
+        long pos = 0;
+        for (int row = 0; row < choice.length; row++) {
+            if (pos < starts[row]) {
+                fc.addItem(files[base], pos, starts[row] - 1);
+            }
+            fc.addItem(files[choice[row]], starts[row], Math.min(ends[row], lengths[choice[row]] - 1));
+            pos = ends[row] + 1;
+        }
+        if (pos < lengths[base]) {
+            fc.addItem(files[base], pos, lengths[base]);
+        }
+        return fc;
+    }
+
+    /**
+     * A branch of the tree of combinations, which begins after the given differences have been chosen.
+     */
+    private class Branch implements Callable<int[]> {
+
+        private final FileChannel[] channels;
+        private ByteBuffer buffer;
+        private final int depth;
+        private final int[] choice;
+
+        /**
+         * The checksum of the data before the difference at <code>depth</code>, or null if the checksum can not be
+         * copied and is counted from the beginning for each combination.
+         */
+        private final CRC crc;
+
+        public Branch(FileChannel[] channels, int depth, int[] choice, CRC crc) {
+            this.channels = channels;
+            this.depth = depth;
+            this.choice = choice;
+            this.crc = crc.canCopy() ? crc : null;
+        }
+
+        /**
+         * Goes through the tree up to the given depth and collects the branches that begin there.
+         */
+        public void collectBranches(int endDepth, List<Branch> result) throws IOException {
+            if (depth == endDepth) {
+                result.add(this);
+                return;
+            }
+            if (crc != null) {
+                updateGap(crc, depth);
+            }
+            for (int file : options[depth]) {
+                int[] next = choice.clone();
+                next[depth] = file;
+                CRC nextCrc = new CRC(algorithm);
+                if (crc != null) {
+                    nextCrc = crc.copy();
+                    updateDifference(nextCrc, depth, file);
+                }
+                new Branch(channels, depth + 1, next, nextCrc).collectBranches(endDepth, result);
+            }
+        }
+
+        public int[] call() throws IOException {
+            if (search(depth, crc)) {
+                stopped = true;         // the other branches need not be searched any further
+                return choice;
+            }
+            return null;
+        }
+
+        private boolean search(int row, CRC current) throws IOException {
+            if (stopped) {
+                return false;
+            }
+            if (row == options.length) {
+                if (current == null) {
+                    current = new CRC(algorithm);
+                    for (int i = 0; i < options.length; i++) {
+                        updateGap(current, i);
+                        updateDifference(current, i, choice[i]);
+                    }
+                }
+                updateGap(current, options.length);
+                tested.incrementAndGet();
+                return matches(current);
+            }
+            if (current != null) {
+                // the data before the difference is the same for all its options, so it is hashed only once
+                updateGap(current, row);
+            }
+            for (int i = 0; i < options[row].length; i++) {
+                CRC next = current;
+                if (current != null && i < options[row].length - 1) {
+                    next = current.copy();
+                }
+                choice[row] = options[row][i];
+                if (next != null) {
+                    updateDifference(next, row, choice[row]);
+                }
+                if (search(row + 1, next)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Updates the checksum with the data of the base file before a difference. After the last difference, updates
+         * it with the rest of the file.
+         */
+        private void updateGap(CRC crc, int row) throws IOException {
+            long pos = (row == 0) ? 0 : ends[row - 1] + 1;
+            long end = (row == options.length) ? lengths[base] - 1 : starts[row] - 1;
+            read(crc, base, pos, end);
+        }
+
+        /**
+         * Updates the checksum with a difference read from the given file.
+         */
+        private void updateDifference(CRC crc, int row, int file) throws IOException {
+            read(crc, file, starts[row], Math.min(ends[row], lengths[file] - 1));
+        }
+
+        private void read(CRC crc, int file, long start, long end) throws IOException {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+            }
+            for (long pos = start; pos <= end; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_LENGTH, end - pos + 1));
+                while (buffer.hasRemaining()) {
+                    if (channels[file].read(buffer, pos + buffer.position()) < 0) {
+                        throw new EOFException("Unexpected end of " + sources[file]);
+                    }
+                }
+                crc.update(buffer.array(), 0, buffer.limit());
+                pos += buffer.limit();
+            }
+        }
+    }
+
+    private boolean matches(CRC crc) {
+        String value = crc.getHexValue();
+        return value.equalsIgnoreCase(checksum);
+    }
+}
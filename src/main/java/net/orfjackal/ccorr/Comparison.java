@@ -4,6 +4,7 @@
 
 package net.orfjackal.ccorr;
 
+import javax.swing.*;
 import java.io.*;
 import java.util.*;
 
@@ -13,7 +14,8 @@ import java.util.*;
  * create <code>FileCombination</code> objects. The files to be compared need to be first added to the
  * <code>Comparison</code>, after which they are compared with the <code>doCompare</code> method. <code>doCompare</code>
  * needs to be run after adding or removing files, because otherwise the data is not up to date and most of the methods
- * will refuse to work.
+ * will refuse to work. When the data is up to date, adding or removing a file updates the data incrementally, after
+ * which <code>doCompare</code> has nothing to do.
  *
  * @author Esko Luontola
  */
@@ -21,6 +23,13 @@ public class Comparison implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The version of the serialized form. Version 1 did not write a version number nor the algorithm. Version 2 did not
+     * write the checksum classes. Versions 1-3 wrote a <code>ComparisonItem</code> object for every cell instead of
+     * the columns.
+     */
+    private static final int SERIAL_VERSION = 5;
+
     public static final int NEXT_MARK = -1;
 
     public static final int MARK_IS_UNDEFINED = 0;
@@ -28,6 +37,21 @@ public class Comparison implements Serializable {
     public static final int MARK_IS_BAD = 2;
     public static final int MARK_IS_UNSURE = 3;
 
+    /**
+     * The number of different files up to which the similarity of each pair of files is calculated exactly. With more
+     * files the similarity is estimated with a {@link SimilaritySketch}, because counting the differences of each pair
+     * would take time proportional to the square of the number of files.
+     */
+    public static final int MAX_FILES_FOR_EXACT_SIMILARITY = 32;
+
+    /**
+     * The maximum number of checksum classes (the number of differences times the number of files) that are stored.
+     * If there are more, the classes are found out on demand.
+     *
+     * @see #isPaged()
+     */
+    public static final long MAX_STORED_CLASSES = 16 * 1024 * 1024;
+
     /**
      * The file extension used by CCorr Comparison Project.
      */
@@ -49,9 +73,59 @@ public class Comparison implements Serializable {
     private ChecksumFile[] files;
 
     /**
-     * Used to store the mark information.
+     * The name of the algorithm whose checksums are compared, or null if there are no files.
      */
-    private ComparisonItem[][] items;
+    private String algorithm;
+
+    /**
+     * The index of the part of each difference.
+     */
+    private int[] parts;
+
+    /**
+     * Used to store the checksum classes, marks and captions, one column per file. In each difference the files with
+     * the same checksum have the same class. When the data is up to date, the columns are in the same order as the
+     * files.
+     *
+     * @see PartClassifier
+     */
+    private ComparisonColumn[] columns;
+
+    /**
+     * The index of the first difference of each block, and the number of differences as the last element, or null if
+     * the blocks have not been found out after the differences changed.
+     *
+     * @see #getBlocks()
+     */
+    private transient int[] blockStarts;
+
+    /**
+     * The index of the first file that has the same checksums as each file, or null if they have not been found out
+     * after the files changed.
+     *
+     * @see #getRepresentative(int)
+     */
+    private transient int[] representatives;
+
+    /**
+     * The confidence of the consensus in each difference, or null if they have not been found out after the differences
+     * changed.
+     *
+     * @see #getConfidence(int)
+     */
+    private transient float[] confidences;
+
+    /**
+     * The checksum classes of the differences, if they are found out on demand, otherwise null.
+     *
+     * @see #isPaged()
+     */
+    private transient PagedClasses pages;
+
+    /**
+     * Whether the checksum classes are always found out on demand, even if there are only a few differences.
+     */
+    private boolean alwaysPaged;
 
     /**
      * Used to store the similarity between the compared files.
@@ -81,137 +155,238 @@ public class Comparison implements Serializable {
     public Comparison() {
         this.name = "";
         this.files = new ChecksumFile[0];
-        this.items = new ComparisonItem[0][0];
+        this.parts = new int[0];
+        this.columns = new ComparisonColumn[0];
         this.similarity = new double[0][0];
         this.needsUpdating = false;
         this.comments = "";
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
-        // TODO: write as the first object an Integer which tells the version of the file, so that importing old versions would be possible
+        out.writeObject(SERIAL_VERSION);
         out.writeObject(name);
         out.writeObject(files);
-        out.writeObject(items);
+        out.writeObject(parts);
+        out.writeObject(columns);
         out.writeObject(similarity);
         out.writeBoolean(needsUpdating);
         out.writeObject(comments);
         out.writeObject(savedAsFile);
+        out.writeObject(algorithm);
+        out.writeBoolean(alwaysPaged);
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        name = (String) in.readObject();
+        Object first = in.readObject();
+        int version = 1;
+        if (first instanceof Integer) {
+            version = (Integer) first;
+            if (version > SERIAL_VERSION) {
+                throw new InvalidObjectException("Unsupported version " + version);
+            }
+            first = in.readObject();
+        }
+        name = (String) first;
         files = (ChecksumFile[]) in.readObject();
-        items = (ComparisonItem[][]) in.readObject();
+        ComparisonItem[][] items = null;
+        if (version >= 4) {
+            parts = (int[]) in.readObject();
+            columns = (ComparisonColumn[]) in.readObject();
+        } else {
+            items = (ComparisonItem[][]) in.readObject();
+        }
         similarity = (double[][]) in.readObject();
         needsUpdating = in.readBoolean();
         comments = (String) in.readObject();
         savedAsFile = (File) in.readObject();
+        if (version >= 2) {
+            algorithm = (String) in.readObject();
+        } else if (files.length > 0) {
+            algorithm = files[0].getAlgorithm();
+        }
+        if (version == 3) {
+            readItems(items, (int[][]) in.readObject());
+        } else if (version < 3) {
+            readItems(items, null);
+        }
+        if (version >= 5) {
+            alwaysPaged = in.readBoolean();
+        }
+
+        // the pages of paged columns are not saved
+        for (int file = 0; file < columns.length; file++) {
+            if (columns[file].isPaged()) {
+                if (pages == null) {
+                    pages = new PagedClasses(files, algorithm, parts);
+                }
+                columns[file].setPages(pages, file);
+            }
+        }
+    }
+
+    /**
+     * Converts the items of a project saved by an older version to columns. If the checksum classes were not saved,
+     * they are found out again.
+     *
+     * @param items      the items, one row per difference
+     * @param rowClasses the checksum classes of the items, or null if they were not saved
+     */
+    private void readItems(ComparisonItem[][] items, int[][] rowClasses) {
+        int columnCount = (items.length > 0) ? items[0].length : files.length;
+        PartClassifier classifier = new PartClassifier(files, algorithm);
+        int[] partClasses = new int[files.length];
+        int[][] classesByFile = new int[columnCount][items.length];
+
+        parts = new int[items.length];
+        for (int row = 0; row < items.length; row++) {
+            parts[row] = items[row][0].getPart();
+            int[] rowClass = null;
+            if (rowClasses != null && rowClasses[row].length == columnCount) {
+                rowClass = rowClasses[row];
+            } else if (columnCount == files.length) {
+                classifier.classify(parts[row], partClasses);
+                rowClass = partClasses;
+            }
+            for (int col = 0; col < columnCount; col++) {
+                if (rowClass != null) {
+                    classesByFile[col][row] = rowClass[col];
+                } else {
+                    classesByFile[col][row] = items[row][col].exists() ? 0 : PartClassifier.MISSING;
+                }
+            }
+        }
+
+        columns = new ComparisonColumn[columnCount];
+        for (int col = 0; col < columnCount; col++) {
+            ChecksumFile file = (items.length > 0) ? items[0][col].getFile() : files[col];
+            columns[col] = new ComparisonColumn(file, classesByFile[col]);
+            for (int row = 0; row < items.length; row++) {
+                columns[col].setMark(row, items[row][col].getMark());
+                columns[col].setCaption(row, items[row][col].getCaptionOrNull());
+            }
+        }
     }
 
     /**
-     * Compares the <code>ChecksumFile</code> objects and updates all the comparison data.
+     * Compares the <code>ChecksumFile</code> objects and updates all the comparison data. Does nothing if the data is
+     * already up to date.
      */
     public void doCompare() {
-        Vector<Integer> partsThatDiffer = new Vector<Integer>();
-        int[][] numberOfDifferences = new int[files.length][files.length];
+        if (!needsUpdating && similarity.length == files.length) {
+            Log.print("doCompare: Already up to date");
+            return;
+        }
         Vector<Integer> filesToBeMirrored = new Vector<Integer>();
+        representatives = null;
 
         if (files.length > 1) {
 
-            // compare all files to eachother to find similar files
-            for (int i = 0; i < (files.length - 1); i++) {
-                for (int j = (i + 1); j < files.length; j++) {
-
-                    // one file being shorter does not necessarily make it different
-                    int shortest = files[i].getParts();
-                    if (files[j].getParts() < shortest) {
-                        shortest = files[j].getParts();
-                    }
-
-                    for (int part = 0; part < shortest; part++) {
-                        if (files[i].getChecksum(part) != null && files[j].getChecksum(part) != null    // takes short files in account
-                                && !files[i].getChecksum(part).equals(files[j].getChecksum(part))) {
-
-                            // difference found between files i and j (i is always lower index than j)
-                            numberOfDifferences[i][j]++;
-
-                            // update our part list
-                            if (!partsThatDiffer.contains(part)) {
-                                partsThatDiffer.add((Integer) part);
-                            }
-                        }
-                    }
+            // duplicate files have the same classes, so only one file of each group of duplicates is compared
+            int[] uniqueIndex = new int[files.length];
+            ChecksumFile[] unique = findUniqueFiles(uniqueIndex);
+            boolean exact = unique.length <= MAX_FILES_FOR_EXACT_SIMILARITY;
+            int[][] numberOfDifferences = exact ? new int[unique.length][unique.length] : null;
+
+            // divide the files into classes by their checksums, one part at a time, many ranges of parts in parallel
+            PartRangeComparison[] ranges =
+                    PartRangeComparison.split(unique, algorithm, PartRangeComparison.RANGE_LENGTH, exact);
+            PartRangeComparison.compareAll(ranges);
+
+            // merge the results of the ranges in order, so that the differing parts stay sorted
+            int differences = 0;
+            for (PartRangeComparison range : ranges) {
+                differences += range.getDifferences();
+            }
+            // too many classes to be stored are found out again on demand
+            boolean paged = alwaysPaged || (long) differences * files.length > MAX_STORED_CLASSES;
+            int[] partsThatDiffer2 = new int[differences];
+            int[][] uniqueClasses = new int[unique.length][paged ? 0 : differences];
+            int offset = 0;
+            for (PartRangeComparison range : ranges) {
+                range.copyPartsThatDiffer(partsThatDiffer2, offset);
+                if (!paged) {
+                    range.copyClasses(uniqueClasses, offset);
                 }
+                range.addNumberOfDifferences(numberOfDifferences);
+                offset += range.getDifferences();
             }
-
-            // clean up the differing parts information gathered earlier
-            int[] partsThatDiffer2 = new int[partsThatDiffer.size()];
-            for (int i = 0; i < partsThatDiffer2.length; i++) {
-                partsThatDiffer2[i] = partsThatDiffer.get(i);
+            int[][] newClasses = new int[files.length][];
+            for (int i = 0; i < files.length; i++) {
+                newClasses[i] = uniqueClasses[uniqueIndex[i]];
             }
-            Arrays.sort(partsThatDiffer2);
-
-            // store gathered comparison data to new arrays
-            ComparisonItem[][] newItems = new ComparisonItem[partsThatDiffer2.length][files.length];
-            for (int i = 0; i < newItems.length; i++) {
-                for (int j = 0; j < newItems[i].length; j++) {
-                    newItems[i][j] = new ComparisonItem(partsThatDiffer2[i], files[j]);
+            PagedClasses newPages = paged ? new PagedClasses(files, algorithm, partsThatDiffer2) : null;
+
+            // find the same parts from the old rows; both are sorted by the parts, so they can be walked through
+            // side by side
+            int[] oldRows = new int[differences];
+            int j = 0;
+            for (int i = 0; i < oldRows.length; i++) {
+                while (j < parts.length && parts[j] < partsThatDiffer2[i]) {
+                    j++;
                 }
+                oldRows[i] = (j < parts.length && parts[j] == partsThatDiffer2[i]) ? j : -1;
             }
 
-            if (items.length > 0 && newItems.length > 0) {
-
-                // copy old markers to new items
-                for (int newFile = 0; newFile < newItems[0].length; newFile++) {
-                    for (int oldFile = 0; oldFile < items[0].length; oldFile++) {
-
-                        // find the same old files from the new array
-                        if (newItems[0][newFile].getFile() == items[0][oldFile].getFile()) {
-                            int jStartIndex = 0;
-                            filesToBeMirrored.add(newFile);
-
-                            // proceed with moving markers if the files, parts and checksums are the same
-                            for (ComparisonItem[] newItem : newItems) {
-                                for (int j = jStartIndex; j < items.length; j++) {
-
-                                    if (newItem[newFile].getFile() == items[j][oldFile].getFile()
-                                            && newItem[newFile].getPart() == items[j][oldFile].getPart()
-                                            && newItem[newFile].getChecksum().equals(items[j][oldFile].getChecksum())) {
-                                        newItem[newFile].setMark(items[j][oldFile].getMark());
-
-                                        // we don't need to go through all the indexes again
-                                        jStartIndex = j + 1;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
+            // store gathered comparison data to new columns, and copy old markers to them from the same old files
+            ComparisonColumn[] newColumns = new ComparisonColumn[files.length];
+            for (int newFile = 0; newFile < newColumns.length; newFile++) {
+                for (ComparisonColumn oldColumn : columns) {
+                    if (oldColumn.getFile() == files[newFile]) {
+                        newColumns[newFile] = paged
+                                ? oldColumn.rearrange(oldRows, newPages, newFile)
+                                : oldColumn.rearrange(oldRows, newClasses[newFile]);
+                        filesToBeMirrored.add(newFile);
+                        break;
                     }
                 }
+                if (newColumns[newFile] == null) {
+                    newColumns[newFile] = paged
+                            ? new ComparisonColumn(files[newFile], newPages, newFile)
+                            : new ComparisonColumn(files[newFile], newClasses[newFile]);
+                }
             }
-            items = newItems;
+            parts = partsThatDiffer2;
+            columns = newColumns;
+            pages = newPages;
+            blockStarts = null;
+            confidences = null;
 
             // process and save data for similarity
+            SimilaritySketch[] sketches = new SimilaritySketch[unique.length];
+            for (int i = 0; !exact && i < unique.length; i++) {
+                sketches[i] = new SimilaritySketch(unique[i], algorithm);
+            }
             similarity = new double[files.length][files.length];
-            for (int i = 0; i < numberOfDifferences.length; i++) {          // each file is also compared to itself
-                for (int j = i; j < numberOfDifferences[i].length; j++) {
-                    int shortest = files[i].getParts();
-                    if (files[j].getParts() < shortest) {
-                        shortest = files[j].getParts();
+            for (int i = 0; i < files.length; i++) {          // each file is also compared to itself
+                for (j = i; j < files.length; j++) {
+                    int a = Math.min(uniqueIndex[i], uniqueIndex[j]);
+                    int b = Math.max(uniqueIndex[i], uniqueIndex[j]);
+                    double d;
+                    if (a == b) {
+                        d = similarity(0, i, j);
+                    } else if (exact) {
+                        d = similarity(numberOfDifferences[a][b], i, j);
+                    } else {
+                        d = sketches[a].estimateSimilarity(sketches[b]);
                     }
-                    double d = 1.0 - ((1.0 * numberOfDifferences[i][j]) / shortest);
                     similarity[i][j] = d;
                     similarity[j][i] = d;
                 }
             }
 
-        } else if (files.length == 1) {
-            items = new ComparisonItem[0][0];
-            similarity = new double[1][1];
-            similarity[0][0] = 1.0;
-        } else if (files.length == 0) {
-            items = new ComparisonItem[0][0];
-            similarity = new double[0][0];
+        } else {
+            parts = new int[0];
+            columns = new ComparisonColumn[files.length];
+            pages = null;
+            blockStarts = null;
+            confidences = null;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = new ComparisonColumn(files[i], new int[0]);
+            }
+            similarity = new double[files.length][files.length];
+            if (files.length == 1) {
+                similarity[0][0] = 1.0;
+            }
         }
 
         needsUpdating = false;
@@ -220,7 +395,7 @@ public class Comparison implements Serializable {
         if (Settings.isMarkMirroringEnabled()) {
             for (int i = 0; i < filesToBeMirrored.size(); i++) {
                 int file = filesToBeMirrored.elementAt(i);
-                for (int j = 0; j < this.items.length; j++) {
+                for (int j = 0; j < this.parts.length; j++) {
                     this.mirrorMark(j, file);
                 }
             }
@@ -233,6 +408,78 @@ public class Comparison implements Serializable {
         }
     }
 
+    /**
+     * Finds out which files are exact duplicates of each other.
+     *
+     * @param uniqueIndex the array into which the index of each file in the result is written; duplicates get the
+     *                    index of the first file that they are a duplicate of
+     * @return the files that are not duplicates of an earlier file
+     */
+    private ChecksumFile[] findUniqueFiles(int[] uniqueIndex) {
+        representatives = findRepresentatives();
+        Vector<ChecksumFile> unique = new Vector<ChecksumFile>();
+        for (int i = 0; i < files.length; i++) {
+            if (representatives[i] == i) {
+                uniqueIndex[i] = unique.size();
+                unique.add(files[i]);
+            } else {
+                uniqueIndex[i] = uniqueIndex[representatives[i]];
+            }
+        }
+        if (unique.size() < files.length) {
+            Log.print("Comparison.findUniqueFiles: " + (files.length - unique.size()) + " duplicate files");
+        }
+        return unique.toArray(new ChecksumFile[unique.size()]);
+    }
+
+    /**
+     * Finds for each file the first file that has the same checksums. The files are first grouped by their
+     * fingerprints, so only the files whose fingerprints are equal need to be compared.
+     *
+     * @return the index of the first file with the same checksums, which is the file itself if it is not a duplicate
+     */
+    private int[] findRepresentatives() {
+        int[] result = new int[files.length];
+        Map<Long, Vector<Integer>> byFingerprint = new HashMap<Long, Vector<Integer>>();
+        for (int i = 0; i < files.length; i++) {
+            result[i] = i;
+            Long fingerprint = files[i].getFingerprint(algorithm);
+            Vector<Integer> candidates = byFingerprint.get(fingerprint);
+            if (candidates == null) {
+                candidates = new Vector<Integer>();
+                byFingerprint.put(fingerprint, candidates);
+            }
+            for (int candidate : candidates) {
+                if (files[candidate].hasSameChecksums(files[i], algorithm)) {
+                    result[i] = candidate;
+                    break;
+                }
+            }
+            if (result[i] == i) {
+                candidates.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first file that has the same checksums as the given file. Such duplicates have the same checksum
+     * classes in all the differences, and they are compared only once.
+     *
+     * @param file the index of the file
+     * @return the index of the first file with the same checksums, which is the file itself if it is not a duplicate
+     *         of an earlier file, or -1 if parameter invalid
+     */
+    public int getRepresentative(int file) {
+        if (file < 0 || file >= this.files.length) {
+            return -1;
+        }
+        if (this.representatives == null) {
+            this.representatives = this.findRepresentatives();
+        }
+        return this.representatives[file];
+    }
+
     /**
      * Returns the number of parts the have differences between the compared files.
      *
@@ -242,7 +489,7 @@ public class Comparison implements Serializable {
         if (needsUpdating) {
             return -1;
         } else {
-            return this.items.length;
+            return this.parts.length;
         }
     }
 
@@ -262,16 +509,17 @@ public class Comparison implements Serializable {
      * @return the index of the part, or -1 if parameter invalid
      */
     public int getPart(int difference) {
-        if (difference < 0 || difference >= this.items.length) {
+        if (difference < 0 || difference >= this.parts.length) {
             return -1;
         } else {
-            return this.items[difference][0].getPart();
+            return this.parts[difference];
         }
     }
 
     /**
      * Returns the similarity between two compared files. Similarity is indicated by a double between 0.0 and 1.0; the
-     * greater the more similar.
+     * greater the more similar. If there are more than {@link #MAX_FILES_FOR_EXACT_SIMILARITY} different files, the
+     * similarity is an estimate.
      *
      * @param file1 the index of the first file
      * @param file2 the index of the second file
@@ -299,26 +547,43 @@ public class Comparison implements Serializable {
     private boolean isGoodIndex(int difference, int file) {
         return !(this.needsUpdating
                 || difference < 0
-                || difference >= this.items.length
+                || difference >= this.parts.length
                 || file < 0
-                || file >= this.items[difference].length);
+                || file >= this.columns.length);
     }
 
     /**
-     * Returns the <code>ComparisonItem</code> in the given index.
+     * Returns the <code>ComparisonItem</code> in the given index. The item is a view to the data of this
+     * <code>Comparison</code>, and a new item is created on every call.
      *
      * @param difference the index of the difference
      * @param file       the index of the file
-     * @return reference to the item
+     * @return the item, or null if the requested item does not exist
      */
     public ComparisonItem getItem(int difference, int file) {
         if (this.isGoodIndex(difference, file)) {
-            return this.items[difference][file];
+            return new ComparisonItem(this, difference, file);
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the checksum class in the given index. In each difference the files that have the same checksum have the
+     * same class. The classes are numbered from 0 in the order of the files.
+     *
+     * @param difference the index of the difference
+     * @param file       the index of the file
+     * @return the class, or -1 if the file does not have the part or the requested item does not exist
+     */
+    public int getChecksumClass(int difference, int file) {
+        if (this.isGoodIndex(difference, file)) {
+            return this.columns[file].getChecksumClass(difference);
+        } else {
+            return PartClassifier.MISSING;
+        }
+    }
+
     /**
      * Returns the checksum in the given index.
      *
@@ -328,7 +593,8 @@ public class Comparison implements Serializable {
      */
     public String getChecksum(int difference, int file) {
         if (this.isGoodIndex(difference, file)) {
-            return this.items[difference][file].getChecksum();
+            String crc = this.files[file].getChecksum(this.parts[difference], this.algorithm);
+            return (crc == null) ? "" : crc;
         } else {
             return "";
         }
@@ -344,9 +610,7 @@ public class Comparison implements Serializable {
         if (this.isGoodIndex(difference, 0)) {
             long offset = -1;
             for (int i = 0; i < this.getFiles(); i++) {
-                if (this.items[difference][i].getStartOffset() > offset) {
-                    offset = this.items[difference][i].getStartOffset();
-                }
+                offset = Math.max(offset, this.files[i].getStartOffset(this.parts[difference]));
             }
             return offset;
         } else {
@@ -364,9 +628,7 @@ public class Comparison implements Serializable {
         if (this.isGoodIndex(difference, 0)) {
             long offset = -1;
             for (int i = 0; i < this.getFiles(); i++) {
-                if (this.items[difference][i].getEndOffset() > offset) {
-                    offset = this.items[difference][i].getEndOffset();
-                }
+                offset = Math.max(offset, this.files[i].getEndOffset(this.parts[difference]));
             }
             return offset;
         } else {
@@ -380,13 +642,13 @@ public class Comparison implements Serializable {
      *
      * @param difference the index of the difference
      * @param file       the index of the file
-     * @param mark       the mark, which can be MARK_IS_UNDEFINED, MARK_IS_GOOD, MARK_IS_BAD, MARK_IS_UNSURE, or any
-     *                   integer
+     * @param mark       the mark, which can be MARK_IS_UNDEFINED, MARK_IS_GOOD, MARK_IS_BAD, MARK_IS_UNSURE or
+     *                   NEXT_MARK
      * @see #mirrorMark(int, int)
      */
     public void setMark(int difference, int file, int mark) {
         if (this.isGoodIndex(difference, file)) {
-            this.items[difference][file].setMark(mark);
+            this.columns[file].setMark(difference, mark);
             if (Settings.isMarkMirroringEnabled()) {
                 this.mirrorMark(difference, file);
             }
@@ -402,7 +664,7 @@ public class Comparison implements Serializable {
      */
     public int getMark(int difference, int file) {
         if (this.isGoodIndex(difference, file)) {
-            return this.items[difference][file].getMark();
+            return this.columns[file].getMark(difference);
         } else {
             return -1;
         }
@@ -418,7 +680,7 @@ public class Comparison implements Serializable {
      */
     public int nextMark(int difference, int file) {
         if (this.isGoodIndex(difference, file)) {
-            int result = this.items[difference][file].nextMark();
+            int result = this.columns[file].setMark(difference, NEXT_MARK);
             if (Settings.isMarkMirroringEnabled()) {
                 this.mirrorMark(difference, file);
             }
@@ -428,6 +690,67 @@ public class Comparison implements Serializable {
         }
     }
 
+    /**
+     * Sets the mark of many files in a range of differences. If {@link Settings#isMarkMirroringEnabled()
+     * isMarkMirroringEnabled} returns true, the marks are mirrored. This is the same as calling {@link #setMark(int,
+     * int, int)} for each of the items, but the marks are set and mirrored in one pass over the differences.
+     *
+     * @param start the index of the first difference
+     * @param end   the index of the last difference
+     * @param files the indexes of the files
+     * @param mark  the mark, which can be MARK_IS_UNDEFINED, MARK_IS_GOOD, MARK_IS_BAD, MARK_IS_UNSURE or NEXT_MARK,
+     *              in which case each file gets in all the differences the mark that follows its mark in the first
+     *              difference
+     * @return true if successful, false if invalid range or file was given
+     */
+    public boolean setMarks(int start, int end, int[] files, int mark) {
+        if (!this.isGoodIndex(start, 0) || !this.isGoodIndex(end, 0) || start > end) {
+            return false;
+        }
+        for (int file : files) {
+            if (!this.isGoodIndex(start, file)) {
+                return false;
+            }
+        }
+
+        int[] marks = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            marks[i] = this.columns[files[i]].setMark(start, mark);
+        }
+        boolean mirror = Settings.isMarkMirroringEnabled();
+        int[] classMarks = new int[this.columns.length];
+        for (int difference = start; difference <= end; difference++) {
+            for (int i = 0; i < files.length; i++) {
+                this.columns[files[i]].setMark(difference, marks[i]);
+            }
+            if (!mirror) {
+                continue;
+            }
+
+            // the mark of each class is the mark of the last given file in it, as if they were marked one at a time,
+            // so all the files of the class get it in one pass over the files
+            Arrays.fill(classMarks, -1);
+            boolean mirrored = false;
+            for (int i = 0; i < files.length; i++) {
+                int crcClass = this.columns[files[i]].getChecksumClass(difference);
+                if (crcClass != PartClassifier.MISSING) {
+                    classMarks[crcClass] = marks[i];
+                    mirrored = true;
+                }
+            }
+            if (!mirrored) {
+                continue;
+            }
+            for (ComparisonColumn column : this.columns) {
+                int crcClass = column.getChecksumClass(difference);
+                if (crcClass != PartClassifier.MISSING && classMarks[crcClass] >= 0) {
+                    column.setMark(difference, classMarks[crcClass]);
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Mirrors the mark in the given index. All items that have the same checksum and part as the given index, will get
      * the same mark.
@@ -439,16 +762,229 @@ public class Comparison implements Serializable {
      */
     public void mirrorMark(int difference, int file) {
         if (this.isGoodIndex(difference, file)) {
-            String crc = this.items[difference][file].getChecksum();
-            int mark = this.items[difference][file].getMark();
-            for (int i = 0; i < this.items[difference].length; i++) {
-                if (crc.equals(this.items[difference][i].getChecksum())) {
-                    this.items[difference][i].setMark(mark);
+            int crcClass = this.columns[file].getChecksumClass(difference);
+            int mark = this.columns[file].getMark(difference);
+            for (ComparisonColumn column : this.columns) {
+                if (column.getChecksumClass(difference) == crcClass) {
+                    column.setMark(difference, mark);
                 }
             }
         }
     }
 
+    /**
+     * Sets the mark of one <code>ComparisonItem</code>, without mirroring it.
+     *
+     * @param difference the index of the difference
+     * @param file       the index of the file
+     * @param mark       the mark, or NEXT_MARK
+     * @see ComparisonItem#setMark(int)
+     */
+    void setItemMark(int difference, int file, int mark) {
+        if (this.isGoodIndex(difference, file)) {
+            this.columns[file].setMark(difference, mark);
+        }
+    }
+
+    /**
+     * Returns the caption in the given index.
+     *
+     * @param difference the index of the difference
+     * @param file       the index of the file
+     * @return the caption, or null if it has not been set or the requested item does not exist
+     * @see ComparisonItem#getCaption()
+     */
+    String getCaption(int difference, int file) {
+        if (this.isGoodIndex(difference, file)) {
+            return this.columns[file].getCaption(difference);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the caption in the given index.
+     *
+     * @param difference the index of the difference
+     * @param file       the index of the file
+     * @param caption    the caption, or null to clear it
+     * @see ComparisonItem#setCaption(String)
+     */
+    void setCaption(int difference, int file, String caption) {
+        if (this.isGoodIndex(difference, file)) {
+            this.columns[file].setCaption(difference, caption);
+        }
+    }
+
+    /**
+     * Returns the number of blocks. A block is a run of differences in consecutive parts, in which the same files have
+     * the same checksums, so that the parts in a block are usually all corrupted by the same cause. Each difference
+     * belongs to exactly one block.
+     *
+     * @return the number of blocks, or -1 if needs updating
+     * @see #getBlockStart(int)
+     * @see #getBlockEnd(int)
+     */
+    public int getBlocks() {
+        if (this.needsUpdating) {
+            return -1;
+        } else {
+            return this.getBlockStarts().length - 1;
+        }
+    }
+
+    private int[] getBlockStarts() {
+        if (this.blockStarts == null) {
+            int[] starts = new int[this.parts.length + 1];
+            int blocks = 0;
+            for (int difference = 0; difference < this.parts.length; difference++) {
+                if (difference == 0 || !this.continuesBlock(difference)) {
+                    starts[blocks] = difference;
+                    blocks++;
+                }
+            }
+            starts[blocks] = this.parts.length;
+            this.blockStarts = Arrays.copyOf(starts, blocks + 1);
+        }
+        return this.blockStarts;
+    }
+
+    /**
+     * Returns whether the given difference belongs to the same block as the previous difference.
+     */
+    private boolean continuesBlock(int difference) {
+        if (this.parts[difference] != this.parts[difference - 1] + 1) {
+            return false;
+        }
+        for (ComparisonColumn column : this.columns) {
+            if (column.getChecksumClass(difference) != column.getChecksumClass(difference - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isGoodBlock(int block) {
+        return !this.needsUpdating && block >= 0 && block < this.getBlocks();
+    }
+
+    /**
+     * Returns the first difference of the given block.
+     *
+     * @param block the index of the block
+     * @return the index of the difference, or -1 if parameter invalid
+     */
+    public int getBlockStart(int block) {
+        if (this.isGoodBlock(block)) {
+            return this.getBlockStarts()[block];
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the last difference of the given block.
+     *
+     * @param block the index of the block
+     * @return the index of the difference, or -1 if parameter invalid
+     */
+    public int getBlockEnd(int block) {
+        if (this.isGoodBlock(block)) {
+            return this.getBlockStarts()[block + 1] - 1;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the block to which the given difference belongs.
+     *
+     * @param difference the index of the difference
+     * @return the index of the block, or -1 if parameter invalid
+     */
+    public int getBlock(int difference) {
+        if (!this.isGoodIndex(difference, 0)) {
+            return -1;
+        }
+        int block = Arrays.binarySearch(this.getBlockStarts(), difference);
+        if (block < 0) {
+            // the difference is not the first of its block
+            block = -block - 2;
+        }
+        return block;
+    }
+
+    /**
+     * Sets the mark of a file in all the differences of the given block. If {@link Settings#isMarkMirroringEnabled()
+     * isMarkMirroringEnabled} returns true, the mark is mirrored.
+     *
+     * @param block the index of the block
+     * @param file  the index of the file
+     * @param mark  the mark, which can be MARK_IS_UNDEFINED, MARK_IS_GOOD, MARK_IS_BAD, MARK_IS_UNSURE or NEXT_MARK,
+     *              in which case all the differences get the mark that follows the mark of the first difference
+     * @see #setMark(int, int, int)
+     */
+    public void setBlockMark(int block, int file, int mark) {
+        if (this.isGoodBlock(block)) {
+            this.setMarks(this.getBlockStart(block), this.getBlockEnd(block), new int[]{file}, mark);
+        }
+    }
+
+    /**
+     * Returns the mark of a file in the given block.
+     *
+     * @param block the index of the block
+     * @param file  the index of the file
+     * @return the mark that all the differences of the block have, or -1 if the marks are different or the requested
+     *         block does not exist
+     */
+    public int getBlockMark(int block, int file) {
+        if (!this.isGoodBlock(block) || !this.isGoodIndex(this.getBlockStart(block), file)) {
+            return -1;
+        }
+        int mark = this.columns[file].getMark(this.getBlockStart(block));
+        for (int difference = this.getBlockStart(block) + 1; difference <= this.getBlockEnd(block); difference++) {
+            if (this.columns[file].getMark(difference) != mark) {
+                return -1;
+            }
+        }
+        return mark;
+    }
+
+    /**
+     * Returns whether the checksum classes of the differences are found out on demand instead of being stored. The
+     * classes are found out on demand if there are more than {@link #MAX_STORED_CLASSES} of them, or if {@link
+     * #setAlwaysPaged(boolean)} has been set, so that even a comparison of millions of differing parts fits in memory.
+     * Then only the indexes of the differing parts and the marks are stored.
+     *
+     * @return true if the classes are found out on demand, otherwise false
+     */
+    public boolean isPaged() {
+        return this.pages != null;
+    }
+
+    /**
+     * Sets whether the checksum classes are found out on demand even if there are only a few differences. The change
+     * takes effect when {@link #doCompare()} is run the next time.
+     *
+     * @param alwaysPaged true to always find out the classes on demand, false to store them when there are not too
+     *                    many of them
+     * @see #isPaged()
+     */
+    public void setAlwaysPaged(boolean alwaysPaged) {
+        if (this.alwaysPaged != alwaysPaged) {
+            this.alwaysPaged = alwaysPaged;
+            this.needsUpdating = true;
+        }
+    }
+
+    /**
+     * Returns whether the checksum classes are found out on demand even if there are only a few differences.
+     */
+    public boolean isAlwaysPaged() {
+        return this.alwaysPaged;
+    }
+
     /**
      * Returns the name of the comparison.
      *
@@ -491,17 +1027,63 @@ public class Comparison implements Serializable {
     }
 
     /**
-     * Returns the name of the algorithm that was used for making the checksums.
+     * Returns the name of the algorithm whose checksums are compared. By default it is the primary algorithm of the
+     * first file that was added.
      *
-     * @return the name of the algorithm
+     * @return the name of the algorithm, or null if there are no files
      * @see CRC#getSupportedAlgorithms()
      */
     public String getAlgorithm() {
         if (files.length == 0) {
-            return null;
-        } else {
-            return files[0].getAlgorithm();
+            return null;
+        } else {
+            return this.algorithm;
+        }
+    }
+
+    /**
+     * Changes the algorithm whose checksums are compared. All the files must have checksums made with the algorithm.
+     * After changing the algorithm {@link #doCompare() doCompare} must be run. The marks of the parts that differ also
+     * with the new algorithm are kept.
+     *
+     * @param algorithm the name of the algorithm
+     * @return true if the algorithm was changed, false if some of the files do not have its checksums
+     * @see #getCommonAlgorithms()
+     */
+    public boolean setAlgorithm(String algorithm) {
+        if (files.length == 0 || !Arrays.asList(getCommonAlgorithms()).contains(algorithm)) {
+            return false;
+        }
+        if (!algorithm.equals(this.algorithm)) {
+            this.algorithm = algorithm;
+            this.representatives = null;
+            this.needsUpdating = true;      // somebody should run doCompare()
+            Log.print("Comparison.setAlgorithm: Set algorithm to " + algorithm);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the algorithms that all the files have checksums of, and which can thus be used for comparing them.
+     *
+     * @return the names of the algorithms, in the order of the first file
+     * @see #setAlgorithm(String)
+     */
+    public String[] getCommonAlgorithms() {
+        if (files.length == 0) {
+            return new String[0];
+        }
+        Vector<String> result = new Vector<String>();
+        for (String candidate : files[0].getAlgorithms()) {
+            boolean common = true;
+            for (ChecksumFile file : files) {
+                common &= file.hasAlgorithm(candidate);
+            }
+            if (common) {
+                result.add(candidate);
+            }
         }
+        return result.toArray(new String[result.size()]);
     }
 
     /**
@@ -517,6 +1099,105 @@ public class Comparison implements Serializable {
         }
     }
 
+    /**
+     * Divides the differing parts into smaller parts, so that a part which is damaged in every file can be combined
+     * from the undamaged smaller parts. Only the differing parts are read again from the source files, all files in
+     * parallel. Each differing part is halved, and the halves that still differ are halved again, until the parts
+     * would become shorter than <code>minPartLength</code>. Then the files of this comparison are replaced with the
+     * refined files, whose part length is the length of the smallest parts, and each differing part is replaced with
+     * its differing smaller parts.
+     * <p/>
+     * The files that have been marked good in a part stay good in its smaller parts. The other marks are cleared,
+     * because a part that is bad is not necessarily bad in all its smaller parts. {@link #coarsen(long) Coarsening}
+     * the files for adding a file with a longer part length undoes the refining.
+     *
+     * @param minPartLength the shortest part length; at least {@link ChecksumFile#MIN_PART_SIZE} is used
+     * @return true if the parts were refined, false if the comparison needs updating, the parts can not be halved or
+     *         the source files can not be read
+     * @see ChecksumFile#createHalvedChecksumFile(int[])
+     */
+    public boolean refine(long minPartLength) {
+        if (this.needsUpdating || this.files.length < 2) {
+            return false;
+        }
+        minPartLength = Math.max(minPartLength, ChecksumFile.MIN_PART_SIZE);
+
+        ChecksumFile[] refined = this.files;
+        int[] differing = this.parts;
+        long partLength = this.getPartLength();
+        int factor = 1;
+
+        // setup progress monitor, which is advanced by one for each file on each level of halving
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+        if (monitor != null) {
+            int levels = 0;
+            for (long length = partLength; length % 2 == 0 && length / 2 >= minPartLength; length /= 2) {
+                levels++;
+            }
+            monitor.setMinimum(0);
+            monitor.setMaximum(levels * refined.length);
+        }
+        int level = 0;
+
+        while (differing.length > 0 && partLength % 2 == 0 && partLength / 2 >= minPartLength) {
+            ChecksumFile[] halved = ChecksumFile.createHalvedChecksumFiles(refined, differing,
+                    monitor, level * refined.length);
+            level++;
+            if (halved == null) {
+                if (monitor != null) {
+                    monitor.setProgress(monitor.getMaximum());
+                }
+                return false;
+            }
+
+            // only the halves that still differ need to be halved again
+            PartClassifier classifier = new PartClassifier(halved, this.algorithm);
+            int[] partClasses = new int[halved.length];
+            int[] halves = new int[differing.length * 2];
+            int count = 0;
+            for (int part : differing) {
+                for (int half = part * 2; half < part * 2 + 2; half++) {
+                    if (classifier.classify(half, partClasses) >= 2) {
+                        halves[count] = half;
+                        count++;
+                    }
+                }
+            }
+            refined = halved;
+            differing = Arrays.copyOf(halves, count);
+            partLength /= 2;
+            factor *= 2;
+        }
+        if (monitor != null) {
+            monitor.setProgress(monitor.getMaximum());
+        }
+        if (factor == 1) {
+            return false;
+        }
+        Log.print("Comparison.refine: Part length " + partLength + ", " + differing.length + " differences");
+
+        int[] oldParts = this.parts;
+        ComparisonColumn[] oldColumns = this.columns;
+        this.files = refined;
+        this.representatives = null;
+        this.needsUpdating = true;
+        this.doCompare();
+
+        // the files that were good in a part are good in all its smaller parts
+        for (int row = 0; row < this.parts.length; row++) {
+            int oldRow = Arrays.binarySearch(oldParts, this.parts[row] / factor);
+            if (oldRow < 0) {
+                continue;
+            }
+            for (int file = 0; file < this.columns.length; file++) {
+                if (oldColumns[file].getMark(oldRow) == MARK_IS_GOOD) {
+                    this.columns[file].setMark(row, MARK_IS_GOOD);
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the <code>ChecksumFile</code> in the given index.
      *
@@ -533,18 +1214,23 @@ public class Comparison implements Serializable {
 
     /**
      * Adds a <code>ChecksumFile</code> the this <code>Comparison</code>. The <code>ChecksumFile</code> given as
-     * parameter must have the same part size and algorithm as all the other <code>ChecksumFile</code>s that are part of
-     * this <code>Comparison</code>, and the same object is not accepted twise. If the requirements are not met, nothing
-     * is done. After adding files {@link #doCompare() doCompare} must be run.
+     * parameter must have checksums made with the {@link #getAlgorithm() compared algorithm}, and the same object is
+     * not accepted twise. It should have the same part size as all the other <code>ChecksumFile</code>s that are part
+     * of this <code>Comparison</code>. If the compared algorithm is CRC-32, a file whose part size divides the part
+     * size of this <code>Comparison</code> is normalised to it by combining its checksums, without reading the file; a
+     * file with a longer part size can be added only after {@link #coarsen(long) coarsening} the files. After {@link
+     * #refine(long) refining}, a CRC-32 file that was not refined is given the same refined parts as the other files,
+     * with the checksums of the bigger parts combined from its checksums, and other files that were not refined are
+     * not accepted. If the requirements are not met, nothing is done. If the comparison data is up to date, it is
+     * updated incrementally, otherwise after adding files {@link #doCompare() doCompare} must be run.
      *
      * @param file the <code>ChecksumFile</code> to be added
      */
     public void addFile(ChecksumFile file) {
         if (file != null) {
 
-            // must have same part size and algorithm
-            if ((getPartLength() > 0 && file.getPartLength() != getPartLength())
-                    || (getAlgorithm() != null && !file.getAlgorithm().equals(getAlgorithm()))) {
+            // must have the algorithm
+            if (getAlgorithm() != null && !file.hasAlgorithm(getAlgorithm())) {
                 return;
             }
 
@@ -555,19 +1241,323 @@ public class Comparison implements Serializable {
                 }
             }
 
+            // must have same part size
+            if (getPartLength() > 0 && file.getPartLength() != getPartLength()) {
+                file = normalizePartLength(file);
+                if (file == null) {
+                    return;
+                }
+            }
+
+            // must have the same refined parts
+            if (this.files.length > 0 && this.files[0].hasCoarseParts() && !file.hasCoarseParts()) {
+                file = refineLikeFiles(file);
+                if (file == null) {
+                    return;
+                }
+            }
+
             // resize files array to fit the new file
             ChecksumFile[] newArray = new ChecksumFile[this.files.length + 1];
             System.arraycopy(this.files, 0, newArray, 0, this.files.length);
             newArray[newArray.length - 1] = file;
             this.files = newArray;
-            this.needsUpdating = true;      // somebody should run doCompare()
+            this.representatives = null;
+            if (this.files.length == 1) {
+                this.algorithm = file.getAlgorithm();
+            }
+            if (this.pages != null) {
+                this.needsUpdating = true;          // paged classes can not be updated one file at a time
+            } else if (!this.needsUpdating) {
+                this.compareAddedFile();
+            }
+        }
+    }
+
+    /**
+     * Derives a view of a file with the part length of this comparison from its CRC-32 checksums, so that a file whose
+     * checksums were made with a shorter part length can be compared without reading it again. The files of this
+     * comparison are not changed, so a file with a longer part length is not accepted.
+     *
+     * @param file the file to be added
+     * @return the view of the file with the part length of this comparison, or null if the compared algorithm is not
+     *         CRC-32 or the part length of this comparison is not a multiple of the part length of the file
+     * @see #getCommonPartLength(ChecksumFile)
+     * @see ChecksumFile#createCoarserChecksumFile(long)
+     */
+    private ChecksumFile normalizePartLength(ChecksumFile file) {
+        if (!"CRC-32".equals(getAlgorithm()) || getPartLength() % file.getPartLength() != 0) {
+            return null;
+        }
+        return file.createCoarserChecksumFile(getPartLength());
+    }
+
+    /**
+     * Returns the part length at which a file can be compared with the files of this comparison, when the compared
+     * algorithm is CRC-32 and the file was hashed with a different part length. It is the least common multiple of
+     * the part lengths. If it is longer than the part length of this comparison, the files must be {@link
+     * #coarsen(long) coarsened} to it before the file can be added.
+     *
+     * @param file the file to be added
+     * @return the common part length, or -1 if the file can not be compared with the files of this comparison
+     */
+    public long getCommonPartLength(ChecksumFile file) {
+        if (getPartLength() <= 0 || file.getPartLength() == getPartLength()) {
+            return file.getPartLength();
+        }
+        if (!"CRC-32".equals(getAlgorithm()) || !file.hasAlgorithm("CRC-32")) {
+            return -1;
+        }
+        long a = getPartLength();
+        long b = file.getPartLength();
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        long partLength = getPartLength() / a * file.getPartLength();
+        return (partLength > ChecksumFile.MAX_PART_SIZE) ? -1 : partLength;
+    }
+
+    /**
+     * Replaces the files of this comparison with views that have a longer part length, derived from their CRC-32
+     * checksums without reading the files, so that files hashed with that part length can be added. The views have
+     * only the CRC-32 checksums, so the checksums of the other algorithms can no more be compared, and refining is
+     * undone. A file that has the same mark in all the differing parts that a longer part contains keeps that mark in
+     * the longer part.
+     *
+     * @param partLength the new part length, a multiple of the part length of this comparison
+     * @return true if the files were coarsened, false if the compared algorithm is not CRC-32 or some view can not be
+     *         derived
+     * @see ChecksumFile#createCoarserChecksumFile(long)
+     */
+    public boolean coarsen(long partLength) {
+        if (!"CRC-32".equals(getAlgorithm()) || partLength <= getPartLength()
+                || partLength % getPartLength() != 0 || partLength > ChecksumFile.MAX_PART_SIZE) {
+            return false;
+        }
+        ChecksumFile[] coarser = new ChecksumFile[this.files.length];
+        for (int i = 0; i < coarser.length; i++) {
+            coarser[i] = this.files[i].createCoarserChecksumFile(partLength);
+            if (coarser[i] == null) {
+                return false;
+            }
+        }
+        if (this.needsUpdating) {
+            this.doCompare();
+        }
+        long factor = partLength / getPartLength();
+        Log.print("Comparison.coarsen: Part length " + getPartLength() + " -> " + partLength);
+
+        int[] oldParts = this.parts;
+        ComparisonColumn[] oldColumns = this.columns;
+        this.files = coarser;
+        this.representatives = null;
+        this.needsUpdating = true;
+        this.doCompare();
+
+        // a file keeps its mark in a longer part if it had the same mark in all the differing parts in it
+        int oldRow = 0;
+        for (int row = 0; row < this.parts.length; row++) {
+            while (oldRow < oldParts.length && oldParts[oldRow] / factor < this.parts[row]) {
+                oldRow++;
+            }
+            int endRow = oldRow;
+            while (endRow < oldParts.length && oldParts[endRow] / factor == this.parts[row]) {
+                endRow++;
+            }
+            if (endRow == oldRow) {
+                continue;
+            }
+            for (int file = 0; file < this.columns.length; file++) {
+                int mark = oldColumns[file].getMark(oldRow);
+                for (int i = oldRow + 1; i < endRow && mark != MARK_IS_UNDEFINED; i++) {
+                    if (oldColumns[file].getMark(i) != mark) {
+                        mark = MARK_IS_UNDEFINED;
+                    }
+                }
+                if (mark != MARK_IS_UNDEFINED) {
+                    this.columns[file].setMark(row, mark);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives a view of a file with the same refined parts as the files of this comparison, from its CRC-32 checksums.
+     * After refining, the parts that were not hashed again have the checksums of the bigger parts that contain them,
+     * so the checksums of a file that was hashed with the refined part length can not be compared with them directly.
+     *
+     * @param file the file to be added, with the part length of this comparison
+     * @return the view of the file, or null if the compared algorithm is not CRC-32 or the view can not be derived
+     * @see ChecksumFile#createRefinedChecksumFile(ChecksumFile)
+     */
+    private ChecksumFile refineLikeFiles(ChecksumFile file) {
+        if (!"CRC-32".equals(getAlgorithm())) {
+            return null;
+        }
+        // the longest file has all the refined parts, because the parts after the end of a file are left out
+        ChecksumFile layout = this.files[0];
+        for (ChecksumFile f : this.files) {
+            if (f.getParts() > layout.getParts()) {
+                layout = f;
+            }
+        }
+        return file.createRefinedChecksumFile(layout);
+    }
+
+    /**
+     * Updates the comparison data after a file has been added as the last file, without comparing the other files
+     * again. Only the checksums of the new file are read. Outside the differing parts all the old files have the same
+     * checksum, so there the new file is compared with the longest old file, and in the differing parts with one file
+     * of each checksum class.
+     */
+    private void compareAddedFile() {
+        int added = this.files.length - 1;
+        ChecksumFile file = this.files[added];
+        int[] numberOfDifferences = new int[added];
+
+        int longest = -1;
+        for (int i = 0; i < added; i++) {
+            if (longest < 0 || this.files[i].getParts() > this.files[longest].getParts()) {
+                longest = i;
+            }
+        }
+        int oldParts = (longest < 0) ? 0 : this.files[longest].getParts();
+
+        // find the differing parts and the class of the new file in them
+        int[] newParts = new int[this.parts.length + 16];
+        int[] oldRows = new int[newParts.length];
+        int[] addedClasses = new int[newParts.length];
+        int rows = 0;
+        int row = 0;
+        for (int part = 0; part < Math.max(oldParts, file.getParts()); part++) {
+            int oldRow;
+            int addedClass;
+
+            if (row < this.parts.length && this.parts[row] == part) {
+                // an old difference, find out to which class the new file belongs
+                oldRow = row;
+                addedClass = classifyAddedFile(part, row);
+                row++;
+
+            } else if (part < oldParts && part < file.getParts()
+                    && !file.hasSameChecksum(part, this.files[longest], this.algorithm)) {
+                // a new difference, where all the old files are in the same class
+                oldRow = -1;
+                addedClass = 1;
+
+            } else {
+                continue;
+            }
+
+            if (rows == newParts.length) {
+                newParts = Arrays.copyOf(newParts, rows * 2);
+                oldRows = Arrays.copyOf(oldRows, rows * 2);
+                addedClasses = Arrays.copyOf(addedClasses, rows * 2);
+            }
+            newParts[rows] = part;
+            oldRows[rows] = oldRow;
+            addedClasses[rows] = addedClass;
+            rows++;
+        }
+        newParts = Arrays.copyOf(newParts, rows);
+        oldRows = Arrays.copyOf(oldRows, rows);
+        addedClasses = Arrays.copyOf(addedClasses, rows);
+
+        // move the old files to the new rows and count how many parts differ from the new file
+        ComparisonColumn[] newColumns = new ComparisonColumn[this.files.length];
+        for (int i = 0; i < added; i++) {
+            int[] classes = new int[rows];
+            for (int r = 0; r < rows; r++) {
+                if (oldRows[r] >= 0) {
+                    classes[r] = this.columns[i].getChecksumClass(oldRows[r]);
+                } else {
+                    classes[r] = (newParts[r] < this.files[i].getParts()) ? 0 : PartClassifier.MISSING;
+                }
+                if (classes[r] != PartClassifier.MISSING && addedClasses[r] != PartClassifier.MISSING
+                        && classes[r] != addedClasses[r]) {
+                    numberOfDifferences[i]++;
+                }
+            }
+            newColumns[i] = this.columns[i].rearrange(oldRows, classes);
+        }
+        newColumns[added] = new ComparisonColumn(file, addedClasses);
+
+        // give the new file the same mark as the old files with the same checksum
+        if (Settings.isMarkMirroringEnabled()) {
+            for (int r = 0; r < rows; r++) {
+                for (int i = 0; i < added; i++) {
+                    if (newColumns[i].getChecksumClass(r) == addedClasses[r] && newColumns[added].exists(r)) {
+                        newColumns[added].setMark(r, newColumns[i].getMark(r));
+                        break;
+                    }
+                }
+            }
+        }
+        this.parts = newParts;
+        this.columns = newColumns;
+        this.blockStarts = null;
+        this.confidences = null;
+
+        // the similarity between the old files does not change
+        double[][] newSimilarity = new double[this.files.length][this.files.length];
+        for (int i = 0; i < added; i++) {
+            System.arraycopy(this.similarity[i], 0, newSimilarity[i], 0, added);
+            double d = similarity(numberOfDifferences[i], i, added);
+            newSimilarity[i][added] = d;
+            newSimilarity[added][i] = d;
+        }
+        newSimilarity[added][added] = similarity(0, added, added);
+        this.similarity = newSimilarity;
+
+        Log.print("Comparison.compareAddedFile: " + this.parts.length + " differences");
+    }
+
+    /**
+     * Finds out to which checksum class the last file belongs in a differing part.
+     *
+     * @param part the index of the part
+     * @param row  the index of the difference in the old columns
+     * @return the class of an old file with the same checksum, or a new class, or {@link PartClassifier#MISSING}
+     */
+    private int classifyAddedFile(int part, int row) {
+        int added = this.files.length - 1;
+        if (part >= this.files[added].getParts()) {
+            return PartClassifier.MISSING;
+        }
+
+        // the classes are numbered in the order of the files, so the first file of each class is found in order
+        int nextClass = 0;
+        for (int i = 0; i < added; i++) {
+            if (this.columns[i].getChecksumClass(row) == nextClass) {
+                if (this.files[i].hasSameChecksum(part, this.files[added], this.algorithm)) {
+                    return nextClass;
+                }
+                nextClass++;
+            }
         }
+        return nextClass;
+    }
+
+    /**
+     * Calculates the similarity of two files.
+     *
+     * @param differences the number of parts that differ between the files
+     * @param file1       the index of the first file
+     * @param file2       the index of the second file
+     * @return the similarity between 0.0 and 1.0
+     */
+    private double similarity(int differences, int file1, int file2) {
+        int shortest = Math.min(this.files[file1].getParts(), this.files[file2].getParts());
+        return 1.0 - ((1.0 * differences) / shortest);
     }
 
     /**
-     * Removes the <code>ChecksumFile</code> in the given index from this <code>Comparison</code>. After removing files
-     * {@link #doCompare() doCompare} must be run or most of this <code>Comparison</code>'s methods will refuse to
-     * work.
+     * Removes the <code>ChecksumFile</code> in the given index from this <code>Comparison</code>. If the comparison
+     * data is up to date, it is updated incrementally, otherwise after removing files {@link #doCompare() doCompare}
+     * must be run or most of this <code>Comparison</code>'s methods will refuse to work.
      *
      * @param file the index of the file
      */
@@ -578,8 +1568,9 @@ public class Comparison implements Serializable {
     }
 
     /**
-     * Removes the given <code>ChecksumFile</code> object from this <code>Comparison</code>. After removing files {@link
-     * #doCompare() doCompare} must be run or most of this <code>Comparison</code>'s methods will refuse to work.
+     * Removes the given <code>ChecksumFile</code> object from this <code>Comparison</code>. If the comparison data is
+     * up to date, it is updated incrementally, otherwise after removing files {@link #doCompare() doCompare} must be
+     * run or most of this <code>Comparison</code>'s methods will refuse to work.
      *
      * @param file a reference to the file
      */
@@ -602,12 +1593,90 @@ public class Comparison implements Serializable {
             }
             System.arraycopy(this.files, 0, newArray, 0, newArray.length);
             this.files = newArray;
-            this.needsUpdating = true;      // somebody should run doCompare()
+            this.representatives = null;
+            if (this.pages != null) {
+                this.needsUpdating = true;
+            } else if (!this.needsUpdating) {
+                this.compareRemovedFile(removeFromIndex);
+            }
 
             Log.print("Comparison.removeFile: File #" + (removeFromIndex + 1) + " removed.");
         }
     }
 
+    /**
+     * Updates the comparison data after a file has been removed, without comparing the other files again. The column
+     * of the file is removed, and also the rows that do not differ anymore.
+     *
+     * @param removed the index which the removed file had
+     */
+    private void compareRemovedFile(int removed) {
+        ComparisonColumn[] oldColumns = new ComparisonColumn[this.files.length];
+        for (int oldFile = 0, newFile = 0; oldFile < this.columns.length; oldFile++) {
+            if (oldFile != removed) {
+                oldColumns[newFile] = this.columns[oldFile];
+                newFile++;
+            }
+        }
+
+        int[][] newClasses = new int[this.files.length][this.parts.length];
+        int[] oldRows = new int[this.parts.length];
+        int rows = 0;
+        int[] renumbered = new int[this.files.length + 1];
+
+        for (int row = 0; row < this.parts.length; row++) {
+
+            // renumber the classes, so that they are again in the order of the files
+            Arrays.fill(renumbered, PartClassifier.MISSING);
+            int count = 0;
+            for (int file = 0; file < oldColumns.length; file++) {
+                int oldClass = oldColumns[file].getChecksumClass(row);
+                if (oldClass != PartClassifier.MISSING && renumbered[oldClass] == PartClassifier.MISSING) {
+                    renumbered[oldClass] = count;
+                    count++;
+                }
+                newClasses[file][rows] = (oldClass == PartClassifier.MISSING) ? oldClass : renumbered[oldClass];
+            }
+
+            // keep only the rows that still differ
+            if (count >= 2) {
+                oldRows[rows] = row;
+                rows++;
+            }
+        }
+
+        int[] newParts = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            newParts[r] = this.parts[oldRows[r]];
+        }
+        oldRows = Arrays.copyOf(oldRows, rows);
+        ComparisonColumn[] newColumns = new ComparisonColumn[this.files.length];
+        for (int file = 0; file < newColumns.length; file++) {
+            newColumns[file] = oldColumns[file].rearrange(oldRows, Arrays.copyOf(newClasses[file], rows));
+        }
+        this.parts = newParts;
+        this.columns = newColumns;
+        this.blockStarts = null;
+        this.confidences = null;
+
+        // the similarity between the other files does not change
+        double[][] newSimilarity = new double[this.files.length][this.files.length];
+        for (int oldFile = 0, newFile = 0; oldFile < this.similarity.length; oldFile++) {
+            if (oldFile == removed) {
+                continue;
+            }
+            for (int oldOther = 0, newOther = 0; oldOther < this.similarity.length; oldOther++) {
+                if (oldOther == removed) {
+                    continue;
+                }
+                newSimilarity[newFile][newOther] = this.similarity[oldFile][oldOther];
+                newOther++;
+            }
+            newFile++;
+        }
+        this.similarity = newSimilarity;
+    }
+
     /**
      * Creates a <code>FileCombination</code> from the parts marked as good. If in one difference index there is no item
      * with MARK_IS_GOOD as the marker, a good combination will not be possible.
@@ -620,7 +1689,7 @@ public class Comparison implements Serializable {
             Log.print("createGoodCombination: Aborted, needsUpdating == true");
             return null;
         }
-        if (this.items.length == 0) {
+        if (this.parts.length == 0) {
             Log.print("createGoodCombination: Aborted, no parts available");
             return null;
         }
@@ -629,29 +1698,27 @@ public class Comparison implements Serializable {
         FileCombination fc = new FileCombination();
         long nextStart = 0;
 
-        item:
-        for (int i = 0; i < this.items.length; i++) {
-            for (int j = 0; j < this.files.length; j++) {
-                if (this.items[i][j].getMark() == MARK_IS_GOOD) {
-                    File file = this.items[i][j].getFile().getSourceFile();
-                    long start = nextStart;
-                    long end;
-
-                    if (i == (this.items.length - 1)) {
-                        // last part
-                        end = this.items[i][j].getFile().getSourceFileLength();
-                    } else {
-                        end = this.items[i][j].getEndOffset();
-                        nextStart = this.items[i][j].getEndOffset() + 1;
-                    }
+        block:
+        for (int block = 0; block < this.getBlocks(); block++) {
+            int start = this.getBlockStart(block);
+            int end = this.getBlockEnd(block);
 
-                    fc.addItem(file, start, end);
-                    continue item;
-                } else if (j == (this.files.length - 1)) {
+            // the whole block can be read at once, if one file is good in all of it
+            int file = this.findGoodFile(start, end);
+            if (file >= 0) {
+                nextStart = this.addGoodItem(fc, file, end, nextStart);
+                continue;
+            }
+
+            // otherwise the parts are read one at a time from where they are good
+            for (int i = start; i <= end; i++) {
+                file = this.findGoodFile(i, i);
+                if (file < 0) {
                     // no good parts found, abort
                     fc = null;
-                    break item;
+                    break block;
                 }
+                nextStart = this.addGoodItem(fc, file, i, nextStart);
             }
         }
 
@@ -659,19 +1726,194 @@ public class Comparison implements Serializable {
         return fc;
     }
 
+    /**
+     * Finds a file that is marked as good in all the given differences.
+     *
+     * @param start the index of the first difference
+     * @param end   the index of the last difference
+     * @return the index of the first such file, or -1 if there is none
+     */
+    private int findGoodFile(int start, int end) {
+        file:
+        for (int j = 0; j < this.files.length; j++) {
+            for (int i = start; i <= end; i++) {
+                if (this.columns[j].getMark(i) != MARK_IS_GOOD) {
+                    continue file;
+                }
+            }
+            return j;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds to a <code>FileCombination</code> the bytes of a file up to the end of the given difference.
+     *
+     * @param fc         the combination
+     * @param file       the index of the file
+     * @param difference the index of the difference
+     * @param start      the index of the first byte to add
+     * @return the index of the first byte after the added bytes
+     */
+    private long addGoodItem(FileCombination fc, int file, int difference, long start) {
+        long end;
+        if (difference == (this.parts.length - 1)) {
+            // last part
+            end = this.files[file].getSourceFileLength();
+        } else {
+            end = this.files[file].getEndOffset(this.parts[difference]);
+        }
+        fc.addItem(this.files[file], start, end);
+        return end + 1;
+    }
+
+    /**
+     * Finds out the exact bytes in which the files differ. Only the differing parts are read, and the consecutive
+     * differing parts are read as one region.
+     *
+     * @return the differing bytes, or null if updating is needed, there are no files or the files can not be read
+     * @see #createByteCombination(CorruptionMap)
+     */
+    public CorruptionMap createCorruptionMap() {
+        if (this.needsUpdating || this.files.length == 0) {
+            return null;
+        }
+        long partLength = this.getPartLength();
+        long length = 0;
+        for (ChecksumFile file : this.files) {
+            length = Math.max(length, file.getSourceFileLength());
+        }
+
+        long[] regionStarts = new long[this.parts.length];
+        long[] regionEnds = new long[this.parts.length];
+        int regions = 0;
+        for (int i = 0; i < this.parts.length; i++) {
+            if (i == 0 || this.parts[i] != this.parts[i - 1] + 1) {
+                regionStarts[regions] = partLength * this.parts[i];
+                regions++;
+            }
+            regionEnds[regions - 1] = Math.min(length, partLength * (this.parts[i] + 1L)) - 1;
+        }
+        return CorruptionMap.analyze(this.files,
+                Arrays.copyOf(regionStarts, regions), Arrays.copyOf(regionEnds, regions));
+    }
+
+    /**
+     * Creates a <code>FileCombination</code> which combines the files one range of differing bytes at a time, so that
+     * a part which is damaged in every file can be combined from the undamaged bytes. In each range the bytes are read
+     * from the file that is marked good in the part, or if no file is marked good, from the class of files that most of
+     * the files which are not marked bad belong to. The rest of the bytes are the same in all files, and they are read
+     * from the longest file.
+     *
+     * @param map the differing bytes of the files of this comparison
+     * @return the combination, or null if updating is needed, the map is not of this comparison or if two classes are
+     *         as common in some range
+     * @see #createCorruptionMap()
+     */
+    public FileCombination createByteCombination(CorruptionMap map) {
+        Log.print("createByteCombination: Start");
+        if (this.needsUpdating || this.files.length == 0 || map == null || map.getFiles() != this.files.length) {
+            Log.print("createByteCombination: Aborted, needsUpdating or invalid map");
+            return null;
+        }
+        long partLength = this.getPartLength();
+        int longest = 0;
+        for (int i = 1; i < this.files.length; i++) {
+            if (this.files[i].getSourceFileLength() > this.files[longest].getSourceFileLength()) {
+                longest = i;
+            }
+        }
+
+        // an item is continued for as long as its file is chosen, because the bytes between the ranges are the same
+        // in all files; when the file changes, the bytes after the last range are read from the longest file
+        FileCombination fc = new FileCombination();
+        int itemFile = longest;
+        long itemStart = 0;
+        long lastEnd = -1;
+        int[] votes = new int[this.files.length];
+        for (int range = 0; range < map.getRanges(); range++) {
+            int row = Arrays.binarySearch(this.parts, (int) (map.getStart(range) / partLength));
+            int file = (row < 0) ? -1 : this.findByteSource(map, range, row, votes);
+            if (file < 0) {
+                Log.print("createByteCombination: Aborted, no good bytes at " + map.getStart(range));
+                return null;
+            }
+            if (map.getByteClass(range, file) == map.getByteClass(range, longest)) {
+                file = longest;
+            }
+            if (file != itemFile && itemFile != longest) {
+                fc.addItem(this.files[itemFile], itemStart, lastEnd);
+                itemFile = longest;
+                itemStart = lastEnd + 1;
+            }
+            if (file != itemFile) {
+                if (itemStart < map.getStart(range)) {
+                    fc.addItem(this.files[itemFile], itemStart, map.getStart(range) - 1);
+                }
+                itemFile = file;
+                itemStart = map.getStart(range);
+            }
+            lastEnd = map.getEnd(range);
+        }
+        if (itemFile != longest) {
+            fc.addItem(this.files[itemFile], itemStart, lastEnd);
+            itemFile = longest;
+            itemStart = lastEnd + 1;
+        }
+        fc.addItem(this.files[itemFile], itemStart, this.files[longest].getSourceFileLength());
+
+        Log.print("createByteCombination: Done");
+        return fc;
+    }
+
+    /**
+     * Chooses the file from which a range of differing bytes is read.
+     *
+     * @return the index of the file, or -1 if two classes are as common
+     */
+    private int findByteSource(CorruptionMap map, int range, int row, int[] votes) {
+        for (int file = 0; file < this.files.length; file++) {
+            if (this.columns[file].getMark(row) == MARK_IS_GOOD
+                    && map.getByteClass(range, file) != PartClassifier.MISSING) {
+                return file;
+            }
+        }
+        Arrays.fill(votes, 0);
+        int max = 0;
+        int maxFile = -1;
+        boolean isTie = false;
+        for (int file = 0; file < this.files.length; file++) {
+            int byteClass = map.getByteClass(range, file);
+            if (byteClass == PartClassifier.MISSING || this.columns[file].getMark(row) == MARK_IS_BAD) {
+                continue;
+            }
+            int count = ++votes[byteClass];
+            if (count > max) {
+                max = count;
+                maxFile = file;
+                isTie = false;
+            } else if (count == max) {
+                isTie = true;
+            }
+        }
+        return isTie ? -1 : maxFile;
+    }
+
     /**
      * Returns the number of all <code>FileCombination</code>s that are not marked as bad. If in one difference index
      * there is no item with MARK_IS_GOOD as the marker, marks MARK_IS_UNDEFINED and MARK_IS_UNSURE will be looked for.
      * If in one difference index all items are marked as MARK_IS_BAD, no combinations are possible.
      *
-     * @return the number of the combinations, or -1 if updating is needed or if there are no files
+     * @return the number of the combinations, or -1 if updating is needed or if there are no files, or
+     *         <code>Integer.MAX_VALUE</code> if there are at least that many combinations
+     * @see CombinationSearch
      */
     public int getPossibleCombinations() {
         if (this.needsUpdating) {
             Log.print("getPossibleCombinations = -1 (needsUpdating == true)");
             return -1;
         }
-        if (this.items.length == 0) {
+        if (this.parts.length == 0) {
             Log.print("getPossibleCombinations = -1 (no parts available)");
             return -1;
         }
@@ -679,22 +1921,23 @@ public class Comparison implements Serializable {
         int result = 1;
 
         item:
-        for (int item = 0; item < this.items.length; item++) {
+        for (int item = 0; item < this.parts.length; item++) {
             int inThisItem = 0;
             boolean isPossible = false;
 
             for (int i = 0; i < this.files.length; i++) {
-                if (this.items[item][i].getMark() == MARK_IS_GOOD) {
+                int mark = this.columns[i].getMark(item);
+                if (mark == MARK_IS_GOOD) {
                     continue item;
-                } else if (this.items[item][i].getMark() == MARK_IS_UNSURE
-                        || this.items[item][i].getMark() == MARK_IS_UNDEFINED) {
+                } else if (mark == MARK_IS_UNSURE || mark == MARK_IS_UNDEFINED) {
                     inThisItem++;
                     isPossible = true;
                 }
             }
 
             if (isPossible) {
-                result = result * inThisItem;
+                // there are too many combinations to create them all, but they can still be searched
+                result = (int) Math.min(Integer.MAX_VALUE, (long) result * inThisItem);
             } else {
                 Log.print("getPossibleCombinations = 0 (item " + item + " is impossible)");
                 return 0;
@@ -709,11 +1952,12 @@ public class Comparison implements Serializable {
      * Returns all <code>FileCombination</code>s that are not marked as bad. The number of combinations is that returned
      * by {@link #getPossibleCombinations() getPossibleCombinations}.
      *
-     * @return an array containing the combinations, or null if updating is needed or if there are no files
+     * @return an array containing the combinations, or null if updating is needed, if there are no files or if there
+     *         are too many combinations
+     * @see CombinationSearch
+     * @see FileCombination#writeFiles(FileCombination[], File[])
      */
     public FileCombination[] createPossibleCombinations() {
-        // TODO: optimize with countChecksums in mind, i.e. read as much as possible from the same file
-
         Log.print("createPossibleCombinations: Start");
         if (this.needsUpdating) {
             Log.print("createPossibleCombinations: Aborted, needsUpdating == true");
@@ -725,6 +1969,10 @@ public class Comparison implements Serializable {
             Log.print("createPossibleCombinations: Aborted, no possibilities");
             return new FileCombination[0];
         }
+        if (possibleCombinations == Integer.MAX_VALUE) {
+            Log.print("createPossibleCombinations: Aborted, too many possibilities");
+            return null;
+        }
 
         FileCombination[] fc = new FileCombination[possibleCombinations];
         for (int i = 0; i < fc.length; i++) {
@@ -735,15 +1983,15 @@ public class Comparison implements Serializable {
         int combinationsDone = 1;
         long start = 0;
 
-        for (int item = 0; item < this.items.length; item++) {
+        for (int item = 0; item < this.parts.length; item++) {
             possibleFiles.removeAllElements();
             goodFile = -1;
 
             for (int i = 0; i < this.files.length; i++) {
-                if (this.items[item][i].getMark() == MARK_IS_GOOD) {
+                int mark = this.columns[i].getMark(item);
+                if (mark == MARK_IS_GOOD) {
                     goodFile = i;
-                } else if (this.items[item][i].getMark() == MARK_IS_UNSURE
-                        || this.items[item][i].getMark() == MARK_IS_UNDEFINED) {
+                } else if (mark == MARK_IS_UNSURE || mark == MARK_IS_UNDEFINED) {
                     possibleFiles.add(i);
                 }
             }
@@ -761,19 +2009,19 @@ public class Comparison implements Serializable {
 
             for (FileCombination aFc : fc) {
                 int inTurn = counter.getNext();
-                File file = this.items[item][inTurn].getFile().getSourceFile();
+                ChecksumFile file = this.files[inTurn];
 
                 long end;
-                if (item == (this.items.length - 1)) {
+                if (item == (this.parts.length - 1)) {
                     // last part
-                    end = this.items[item][inTurn].getFile().getSourceFileLength();
+                    end = this.files[inTurn].getSourceFileLength();
                 } else {
-                    end = this.items[item][inTurn].getEndOffset();
+                    end = this.files[inTurn].getEndOffset(this.parts[item]);
                 }
 
                 aFc.addItem(file, start, end);
             }
-            start = this.items[item][0].getEndOffset() + 1;
+            start = this.files[0].getEndOffset(this.parts[item]) + 1;
         }
 
         Log.print("createPossibleCombinations: Done");
@@ -950,104 +2198,72 @@ public class Comparison implements Serializable {
     }
 
     /**
-     * Finds and marks the parts in a row according to the number of occurence.
+     * Finds and marks the parts in a row according to the number of occurence. In each row the checksum that most
+     * files have is marked good, or unsure if two checksums are equally common. The rows that already have marks set
+     * are not changed. The rows are marked in parallel, so that even a big comparison is marked quickly.
      *
      * @param start the index of the starting row
      * @param end   the index of the ending row
      * @return true if successful, false if invalid range was given
+     * @see #getConfidence(int)
      */
     public boolean markGoodParts(int start, int end) {
-        /*
-         * good, unsure and undefined count the number of parts (increased once per row)
-         */
-        int good = 0;
-        int unsure = 0;
-        int undefined = 0;
-
         /*
         * Check for valid range. Abort if invalid range is given.
         */
-        if (start < 0 || end >= this.items.length || start > end) {
+        if (this.needsUpdating || start < 0 || end >= this.parts.length || start > end) {
             Log.print("Comparison.markGoodParts: Invalid range, aborting.");
             return false;
         }
 
-        /*
-        * ht           a hashtable to store the number of occurrences for each checksum
-        * max          the maximum number of occurrences
-        * maxIndex     the index of the checksum with the maximum occurrence
-        * isUnsure     decides whether MARK_IS_GOOD or MARK_IS_UNSURE should be set
-        */
-        for (int row = start; row <= end; row++) {
-            Hashtable<String, Integer> ht = new Hashtable<String, Integer>();
-            int max = 1;
-            int maxIndex = -1;
-            boolean isUnsure = false;
-
-            /*
-             * Increase the counter for existing checksums or
-             * create a new entry in the hashtable.
-             */
-            for (int col = 0; col < this.items[row].length; col++) {
-                if (this.isGoodIndex(row, col)) {
-                    // Skip column if past the end of file
-                    if (this.items[row][col].getChecksum().length() == 0) {
-                        continue;
-                    }
-
-                    // Do not change rows that already have markers set
-                    if (this.items[row][col].getMark() != MARK_IS_UNDEFINED) {
-                        maxIndex = -1;
-                        break;
-                    }
-
-                    String crc = this.items[row][col].getChecksum();
-
-                    if (ht.containsKey(crc)) {
-                        Integer counter = ht.get(crc);
-                        ht.remove(crc);
-                        ht.put(crc, counter + 1);
-
-                        /*
-                        * Remember index of checksum with maximum count
-                        */
-                        if (counter + 1 > max) {
-                            max = counter + 1;
-                            maxIndex = col;
-                            isUnsure = false;
-                        } else {
-                            if (counter + 1 == max) {
-                                isUnsure = true;
-                            }
-                        }
-                    } else {
-                        ht.put(crc, 1);
-                    }
-                }
-            }
-
-            /*
-            * Now mark all checksums with the maximum count in the row.
-            */
-            if (maxIndex >= 0) {
-                if (isUnsure) {
-                    setMark(row, maxIndex, MARK_IS_UNSURE);
-                    unsure++;
-                } else {
-                    setMark(row, maxIndex, MARK_IS_GOOD);
-                    good++;
-                }
-                mirrorMark(row, maxIndex);
-            } else {
-                undefined++;
-            }
+        // the confidences of the other rows are found out at the same time, if they are not yet known
+        ConsensusMarker[] ranges;
+        if (this.confidences == null) {
+            this.confidences = new float[this.parts.length];
+            ranges = ConsensusMarker.split(this.columns, 0, this.parts.length, start, end + 1, this.confidences);
+        } else {
+            ranges = ConsensusMarker.split(this.columns, start, end + 1, start, end + 1, this.confidences);
         }
+        ConsensusMarker.markAll(ranges);
 
+        /*
+         * good, unsure and undefined count the number of parts (increased once per row)
+         */
+        int good = 0;
+        int unsure = 0;
+        int undefined = 0;
+        for (ConsensusMarker range : ranges) {
+            good += range.getGood();
+            unsure += range.getUnsure();
+            undefined += range.getUnchanged();
+        }
         Log.print("Comparison.markGoodParts: " + good + " good, "
                 + unsure + " unsure and " + undefined + " row(s) unchanged.");
         return true;
     }
 
+    /**
+     * Returns how clearly the files agree on which checksum is good in the given difference. The confidence is the
+     * difference between the number of files that have the most common checksum and the number of files that have the
+     * second most common checksum, divided by the number of files that have the part. It is 0.0 when no checksum is
+     * more common than the others, and near 1.0 when only one file differs from the others.
+     *
+     * @param difference the index of the difference
+     * @return the confidence between 0.0 and 1.0, or -1.0 if the requested difference does not exist
+     * @see #markGoodParts(int, int)
+     */
+    public double getConfidence(int difference) {
+        if (!this.isGoodIndex(difference, 0)) {
+            return -1.0;
+        }
+        if (this.confidences == null) {
+            float[] result = new float[this.parts.length];
+            ConsensusMarker.markAll(ConsensusMarker.split(this.columns, 0, this.parts.length, 0, 0, result));
+            this.confidences = result;
+        }
+        return this.confidences[difference];
+    }
+
     /**
      * Set MARK_IS_UNDEFINED for all parts in the specified rows.
      *
@@ -1059,18 +2275,16 @@ public class Comparison implements Serializable {
         /*
          * Check for valid range. Abort if invalid range is given.
          */
-        if (start < 0 || end >= this.items.length || start > end) {
+        if (start < 0 || end >= this.parts.length || start > end) {
             Log.print("Comparison.markRowUndefined: Invalid range, aborting.");
             return false;
         }
 
-        for (int row = start; row <= end; row++) {
-            for (int col = 0; col < this.items[row].length; col++) {
-                if (this.isGoodIndex(row, col)) {
-                    setMark(row, col, MARK_IS_UNDEFINED);
-                }
-            }
+        int[] allFiles = new int[this.columns.length];
+        for (int file = 0; file < allFiles.length; file++) {
+            allFiles[file] = file;
         }
+        this.setMarks(start, end, allFiles, MARK_IS_UNDEFINED);
 
         Log.print("Comparison.markRowUndefined: MARK_IS_UNDEFINED set.");
         return true;
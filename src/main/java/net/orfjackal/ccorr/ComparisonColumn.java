@@ -0,0 +1,280 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * Stores the data of one file in the differing parts of a <code>Comparison</code>: the checksum class, the mark and the
+ * caption of each row. The classes are stored in an <code>int</code> array and the marks are packed four to a
+ * <code>byte</code>, so a row takes only a few bytes. Captions are rare, so they are stored only for the rows that have
+ * one.
+ * <p/>
+ * In a paged column the classes are not stored, but found out on demand with {@link PagedClasses}, so a row takes
+ * less than a byte.
+ *
+ * @author Esko Luontola
+ * @see ComparisonItem
+ */
+class ComparisonColumn implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS_PER_MARK = 2;
+    private static final int MARKS_PER_BYTE = 8 / BITS_PER_MARK;
+    private static final int MARK_MASK = (1 << BITS_PER_MARK) - 1;
+
+    /**
+     * The file whose data this is.
+     */
+    private final ChecksumFile file;
+
+    /**
+     * The checksum class of each row, or {@link PartClassifier#MISSING} if the file does not have the part. Null if
+     * the column is paged.
+     */
+    private final int[] classes;
+
+    /**
+     * The classes of a paged column, and the index of the file in them. The pages are not saved, so they must be set
+     * again after loading a paged column.
+     */
+    private transient PagedClasses pages;
+    private transient int index;
+
+    /**
+     * The mark of each row, {@link #MARKS_PER_BYTE} marks in one byte.
+     */
+    private final byte[] marks;
+
+    /**
+     * The captions by row, or null if no row has a caption.
+     */
+    private HashMap<Integer, String> captions;
+
+    /**
+     * Creates a column with the given checksum classes. The parts that the file does not have are marked as bad and
+     * the others are undefined.
+     *
+     * @param file    the file whose data this is
+     * @param classes the checksum class of each row
+     */
+    public ComparisonColumn(ChecksumFile file, int[] classes) {
+        this(file, classes, null, 0, classes.length);
+    }
+
+    /**
+     * Creates a paged column, whose checksum classes are found out on demand. The parts that the file does not have
+     * are marked as bad and the others are undefined.
+     *
+     * @param file  the file whose data this is
+     * @param pages the classes of all files
+     * @param index the index of the file in the pages
+     */
+    public ComparisonColumn(ChecksumFile file, PagedClasses pages, int index) {
+        this(file, null, pages, index, pages.getRows());
+    }
+
+    private ComparisonColumn(ChecksumFile file, int[] classes, PagedClasses pages, int index, int rows) {
+        this.file = file;
+        this.classes = classes;
+        this.pages = pages;
+        this.index = index;
+        this.marks = new byte[(rows + MARKS_PER_BYTE - 1) / MARKS_PER_BYTE];
+        for (int row = 0; row < rows; row++) {
+            if (!exists(row)) {
+                putMark(row, Comparison.MARK_IS_BAD);
+            }
+        }
+    }
+
+    /**
+     * Creates a column for the same file with new rows. The marks and captions of the rows that existed before are
+     * copied to the new column.
+     *
+     * @param oldRows the index of each new row in this column, or -1 if the row is new
+     * @param classes the checksum class of each new row
+     * @return the new column
+     */
+    public ComparisonColumn rearrange(int[] oldRows, int[] classes) {
+        return copyTo(new ComparisonColumn(this.file, classes), oldRows);
+    }
+
+    /**
+     * Creates a paged column for the same file with new rows. The marks and captions of the rows that existed before
+     * are copied to the new column.
+     *
+     * @param oldRows the index of each new row in this column, or -1 if the row is new
+     * @param pages   the classes of all files in the new rows
+     * @param index   the index of the file in the pages
+     * @return the new column
+     */
+    public ComparisonColumn rearrange(int[] oldRows, PagedClasses pages, int index) {
+        return copyTo(new ComparisonColumn(this.file, pages, index), oldRows);
+    }
+
+    private ComparisonColumn copyTo(ComparisonColumn result, int[] oldRows) {
+        for (int row = 0; row < oldRows.length; row++) {
+            int oldRow = oldRows[row];
+            if (oldRow < 0) {
+                continue;
+            }
+            result.setMark(row, this.getMark(oldRow));
+            if (this.captions != null) {
+                result.setCaption(row, this.captions.get(oldRow));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the classes of this column are found out on demand.
+     */
+    public boolean isPaged() {
+        return classes == null;
+    }
+
+    /**
+     * Sets the classes of a paged column after it has been loaded.
+     *
+     * @param pages the classes of all files
+     * @param index the index of the file in the pages
+     */
+    public void setPages(PagedClasses pages, int index) {
+        this.pages = pages;
+        this.index = index;
+    }
+
+    /**
+     * Returns the file whose data this is.
+     */
+    public ChecksumFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int getRows() {
+        return (classes == null) ? pages.getRows() : classes.length;
+    }
+
+    /**
+     * Returns the checksum class of a row.
+     *
+     * @param row the index of the row
+     * @return the class, or {@link PartClassifier#MISSING} if the file does not have the part
+     */
+    public int getChecksumClass(int row) {
+        if (classes == null) {
+            return pages.getChecksumClass(row, index);
+        }
+        return classes[row];
+    }
+
+    /**
+     * Returns whether the file has the part of a row.
+     *
+     * @param row the index of the row
+     * @return true if the file is long enough to have the part, otherwise false
+     */
+    public boolean exists(int row) {
+        if (classes == null) {
+            return pages.exists(row, index);
+        }
+        return classes[row] != PartClassifier.MISSING;
+    }
+
+    /**
+     * Returns the mark of a row.
+     *
+     * @param row the index of the row
+     * @return the mark
+     */
+    public int getMark(int row) {
+        int shift = (row % MARKS_PER_BYTE) * BITS_PER_MARK;
+        return (marks[row / MARKS_PER_BYTE] >> shift) & MARK_MASK;
+    }
+
+    /**
+     * Sets the mark of a row. Nothing is done if the file does not have the part or the mark is not one of the marks
+     * defined in <code>Comparison</code>.
+     *
+     * @param row  the index of the row
+     * @param mark the new mark, or {@link Comparison#NEXT_MARK NEXT_MARK} to change to the next mark
+     * @return the mark that the row has after the change
+     */
+    public int setMark(int row, int mark) {
+        if (exists(row)) {
+            if (mark == Comparison.NEXT_MARK) {
+                putMark(row, nextMark(getMark(row)));
+            } else if (mark >= Comparison.MARK_IS_UNDEFINED && mark <= Comparison.MARK_IS_UNSURE) {
+                putMark(row, mark);
+            }
+        }
+        return getMark(row);
+    }
+
+    private void putMark(int row, int mark) {
+        int shift = (row % MARKS_PER_BYTE) * BITS_PER_MARK;
+        int i = row / MARKS_PER_BYTE;
+        marks[i] = (byte) ((marks[i] & ~(MARK_MASK << shift)) | (mark << shift));
+    }
+
+    /**
+     * Returns the mark that follows the given mark. The order is {@link Comparison#MARK_IS_UNDEFINED
+     * MARK_IS_UNDEFINED}, {@link Comparison#MARK_IS_GOOD MARK_IS_GOOD}, {@link Comparison#MARK_IS_BAD MARK_IS_BAD},
+     * {@link Comparison#MARK_IS_UNSURE MARK_IS_UNSURE}, {@link Comparison#MARK_IS_UNDEFINED MARK_IS_UNDEFINED}.
+     */
+    private static int nextMark(int mark) {
+        switch (mark) {
+            case Comparison.MARK_IS_UNDEFINED:
+                return Comparison.MARK_IS_GOOD;
+
+            case Comparison.MARK_IS_GOOD:
+                return Comparison.MARK_IS_BAD;
+
+            case Comparison.MARK_IS_BAD:
+                return Comparison.MARK_IS_UNSURE;
+
+            case Comparison.MARK_IS_UNSURE:
+            default:
+                return Comparison.MARK_IS_UNDEFINED;
+        }
+    }
+
+    /**
+     * Returns the caption of a row.
+     *
+     * @param row the index of the row
+     * @return the caption, or null if the row does not have a caption
+     */
+    public String getCaption(int row) {
+        if (captions == null) {
+            return null;
+        }
+        return captions.get(row);
+    }
+
+    /**
+     * Sets the caption of a row.
+     *
+     * @param row     the index of the row
+     * @param caption the caption, or null to clear it
+     */
+    public void setCaption(int row, String caption) {
+        if (caption == null) {
+            if (captions != null) {
+                captions.remove(row);
+            }
+        } else {
+            if (captions == null) {
+                captions = new HashMap<Integer, String>();
+            }
+            captions.put(row, caption);
+        }
+    }
+}
@@ -7,15 +7,41 @@ package net.orfjackal.ccorr;
 import java.io.*;
 
 /**
- * A class used to represent a differing part in a <code>Comparison</code>. <code>ComparisonItem</code> stores the
- * marker set to it, which is used to indicate whether the related part is corrupt or not.
+ * A class used to represent a differing part in a <code>Comparison</code>. <code>ComparisonItem</code> is a view to
+ * one cell of the comparison: the marker, which is used to indicate whether the related part is corrupt or not, and the
+ * caption are stored in the <code>Comparison</code>, and the items are created only when they are needed, for example
+ * for showing them in the GUI.
+ * <p/>
+ * Projects saved by older versions of CCorr contain serialized items, which store their marker and caption themselves.
+ * Such items are not connected to a <code>Comparison</code>, and their marker and caption can not be changed.
  *
  * @author Esko Luontola
+ * @see Comparison#getItem(int, int)
  */
 public class ComparisonItem implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The version of the serialized form. Version 1 did not write a version number nor the algorithm.
+     */
+    private static final int SERIAL_VERSION = 2;
+
+    /**
+     * The <code>Comparison</code> that stores the marker and caption, or null if this item was deserialized.
+     */
+    private transient Comparison comparison;
+
+    /**
+     * The index of the difference in the <code>Comparison</code>.
+     */
+    private transient int difference;
+
+    /**
+     * The index of the file in the <code>Comparison</code>.
+     */
+    private transient int column;
+
     /**
      * The <code>ChecksumFile</code> that this <code>ComparisonItem</code> is related to.
      */
@@ -27,64 +53,72 @@ public class ComparisonItem implements Serializable {
     private int part;
 
     /**
-     * The mark of this <code>ComparisonItem</code>.
+     * The algorithm whose checksums are compared, or null for the primary algorithm of the file.
+     */
+    private String algorithm;
+
+    /**
+     * The mark of a deserialized <code>ComparisonItem</code>.
      */
     private int mark;
 
     /**
-     * A caption for this <code>ComparisonItem</code> that can be showed in place of the checksum.
+     * The caption of a deserialized <code>ComparisonItem</code>.
      */
     private String caption;
 
     /**
-     * Creates a <code>ComparisonItem</code> that represents the given part in the give <code>ChecksumFile</code>.
+     * Creates a <code>ComparisonItem</code> that represents the given cell of a <code>Comparison</code>.
      *
-     * @param part the index of the part
-     * @param file the <code>ChecksumFile</code>
-     */
-    public ComparisonItem(int part, ChecksumFile file) {
-        /*
-         * I placed the parameters to this oder (part, file) because everywhere
-         * else rows are before colums, and I wanted to avoid confusing myself.
-         * It might be have been more logical if this consructor's parameters
-         * had been in the other order. Whatever. ;)
-         */
-        this.file = file;
-        this.part = part;
-        this.mark = Comparison.MARK_IS_UNDEFINED;
-        this.caption = null;
-        if (this.getChecksum().length() == 0) {     // if the file isn't this long
-            this.mark = Comparison.MARK_IS_BAD;
-        }
+     * @param comparison the <code>Comparison</code>
+     * @param difference the index of the difference
+     * @param file       the index of the file
+     */
+    ComparisonItem(Comparison comparison, int difference, int file) {
+        this.comparison = comparison;
+        this.difference = difference;
+        this.column = file;
+        this.file = comparison.getFile(file);
+        this.part = comparison.getPart(difference);
+        this.algorithm = comparison.getAlgorithm();
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
-        // TODO: write as the first object an Integer which tells the version of the file, so that importing old versions would be possible
+        out.writeObject(SERIAL_VERSION);
         out.writeObject(file);
         out.writeInt(part);
-        out.writeInt(mark);
-        out.writeObject(caption);
+        out.writeInt(getMark());
+        out.writeObject(getCaptionOrNull());
+        out.writeObject(algorithm);
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        file = (ChecksumFile) in.readObject();
+        Object first = in.readObject();
+        int version = 1;
+        if (first instanceof Integer) {
+            version = (Integer) first;
+            if (version > SERIAL_VERSION) {
+                throw new InvalidObjectException("Unsupported version " + version);
+            }
+            first = in.readObject();
+        }
+        file = (ChecksumFile) first;
         part = in.readInt();
         mark = in.readInt();
         caption = (String) in.readObject();
+        if (version >= 2) {
+            algorithm = (String) in.readObject();
+        }
     }
 
     /**
-     * Sets the mark.
+     * Sets the mark. The mark is not mirrored to the other items.
      *
-     * @param mark the new mark
+     * @param mark the new mark, or {@link Comparison#NEXT_MARK NEXT_MARK}
      */
     public void setMark(int mark) {
-        if (this.getChecksum().length() != 0) {     // if the file is long enough
-            if (mark == Comparison.NEXT_MARK) {
-                nextMark();
-            } else {
-                this.mark = mark;
-            }
+        if (this.comparison != null) {
+            this.comparison.setItemMark(this.difference, this.column, mark);
         }
     }
 
@@ -94,7 +128,11 @@ public class ComparisonItem implements Serializable {
      * @return the current mark
      */
     public int getMark() {
-        return this.mark;
+        if (this.comparison == null) {
+            return this.mark;
+        } else {
+            return this.comparison.getMark(this.difference, this.column);
+        }
     }
 
     /**
@@ -105,25 +143,8 @@ public class ComparisonItem implements Serializable {
      * @return the new mark that was set
      */
     public int nextMark() {
-        switch (this.mark) {
-            case Comparison.MARK_IS_UNDEFINED:
-                this.mark = Comparison.MARK_IS_GOOD;
-                break;
-
-            case Comparison.MARK_IS_GOOD:
-                this.mark = Comparison.MARK_IS_BAD;
-                break;
-
-            case Comparison.MARK_IS_BAD:
-                this.mark = Comparison.MARK_IS_UNSURE;
-                break;
-
-            case Comparison.MARK_IS_UNSURE:
-            default:
-                this.mark = Comparison.MARK_IS_UNDEFINED;
-                break;
-        }
-        return this.mark;
+        this.setMark(Comparison.NEXT_MARK);
+        return this.getMark();
     }
 
     /**
@@ -162,13 +183,50 @@ public class ComparisonItem implements Serializable {
         return this.file.getEndOffset(this.part);
     }
 
+    /**
+     * Returns whether the related part exists, i.e. whether the file is long enough to have the part.
+     *
+     * @return true if the part exists, otherwise false
+     */
+    public boolean exists() {
+        return this.part < this.file.getParts();
+    }
+
+    /**
+     * Returns whether the related part has the same checksum as the part of another <code>ComparisonItem</code>. Two
+     * parts that do not exist are considered to have the same checksum.
+     *
+     * @param other the <code>ComparisonItem</code> to compare with
+     * @return true if the checksums are equal, otherwise false
+     * @see ChecksumFile#hasSameChecksum(int, ChecksumFile)
+     */
+    public boolean hasSameChecksum(ComparisonItem other) {
+        if (!this.exists() || !other.exists()) {
+            return !this.exists() && !other.exists();
+        }
+        return this.part == other.part && this.file.hasSameChecksum(this.part, other.file, this.algorithm);
+    }
+
+    /**
+     * Returns the name of the algorithm whose checksums are compared.
+     *
+     * @return the name of the algorithm
+     */
+    public String getAlgorithm() {
+        if (this.algorithm == null) {
+            return this.file.getAlgorithm();
+        } else {
+            return this.algorithm;
+        }
+    }
+
     /**
      * Returns the checksum of the related part.
      *
      * @return the checksum, or "" if the part does not exist
      */
     public String getChecksum() {
-        String crc = this.file.getChecksum(this.part);
+        String crc = this.file.getChecksum(this.part, this.algorithm);
         if (crc == null) {
             crc = "";
         }
@@ -181,7 +239,9 @@ public class ComparisonItem implements Serializable {
      * @param caption the caption, or null to clear it
      */
     public void setCaption(String caption) {
-        this.caption = caption;
+        if (this.comparison != null) {
+            this.comparison.setCaption(this.difference, this.column, caption);
+        }
     }
 
     /**
@@ -190,12 +250,23 @@ public class ComparisonItem implements Serializable {
      * @return the caption, or the checksum if the caption does not exist
      */
     public String getCaption() {
-        String result;
-        if (this.caption == null) {
+        String result = this.getCaptionOrNull();
+        if (result == null) {
             result = this.getChecksum();
-        } else {
-            result = this.caption;
         }
         return result;
     }
+
+    /**
+     * Returns the caption that has been set.
+     *
+     * @return the caption, or null if the caption does not exist
+     */
+    String getCaptionOrNull() {
+        if (this.comparison == null) {
+            return this.caption;
+        } else {
+            return this.comparison.getCaption(this.difference, this.column);
+        }
+    }
 }
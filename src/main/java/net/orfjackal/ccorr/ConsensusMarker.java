@@ -0,0 +1,220 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Guesses the good parts of a range of rows in a <code>Comparison</code> by a vote of the files: in each row the
+ * checksum class that most files have is marked good, or unsure if two classes have as many votes. Each row also gets a
+ * confidence, which is the margin between the two classes with the most votes.
+ * <p/>
+ * The votes are counted from the checksum classes in the columns, so no strings or objects are created for a row, and
+ * many ranges can be marked in parallel. The ranges begin at multiples of {@link #RANGE_LENGTH}, so two ranges never
+ * write to the same byte of marks in a <code>ComparisonColumn</code>.
+ *
+ * @author Esko Luontola
+ * @see Comparison#markGoodParts(int, int)
+ * @see Comparison#getConfidence(int)
+ */
+class ConsensusMarker implements Callable<ConsensusMarker> {
+
+    /**
+     * The number of rows in one range. Must be a multiple of the number of marks in one byte of a
+     * <code>ComparisonColumn</code>.
+     */
+    public static final int RANGE_LENGTH = 64 * 1024;
+
+    private final ComparisonColumn[] columns;
+    private final int firstRow;
+    private final int endRow;
+    private final int firstMarkedRow;
+    private final int endMarkedRow;
+    private final float[] confidences;
+
+    private int good = 0;
+    private int unsure = 0;
+    private int unchanged = 0;
+
+    /**
+     * Creates a marker for a range of rows.
+     *
+     * @param columns        the columns of the comparison
+     * @param firstRow       the index of the first row in the range
+     * @param endRow         the index of the row after the last row in the range
+     * @param firstMarkedRow the index of the first row to mark; the rows outside the marked rows get only a confidence
+     * @param endMarkedRow   the index of the row after the last row to mark
+     * @param confidences    the array into which the confidence of each row is written
+     */
+    public ConsensusMarker(ComparisonColumn[] columns, int firstRow, int endRow,
+                           int firstMarkedRow, int endMarkedRow, float[] confidences) {
+        this.columns = columns;
+        this.firstRow = firstRow;
+        this.endRow = endRow;
+        this.firstMarkedRow = firstMarkedRow;
+        this.endMarkedRow = endMarkedRow;
+        this.confidences = confidences;
+    }
+
+    /**
+     * Divides the rows into ranges.
+     *
+     * @param columns        the columns of the comparison
+     * @param firstRow       the index of the first row
+     * @param endRow         the index of the row after the last row
+     * @param firstMarkedRow the index of the first row to mark
+     * @param endMarkedRow   the index of the row after the last row to mark, or the same as <code>firstMarkedRow</code>
+     *                       to only find out the confidences
+     * @param confidences    the array into which the confidence of each row is written
+     * @return the ranges in order
+     */
+    public static ConsensusMarker[] split(ComparisonColumn[] columns, int firstRow, int endRow,
+                                          int firstMarkedRow, int endMarkedRow, float[] confidences) {
+        List<ConsensusMarker> ranges = new ArrayList<ConsensusMarker>();
+        int first = firstRow;
+        while (first < endRow) {
+            int end = (int) Math.min(endRow, (first / RANGE_LENGTH + 1L) * RANGE_LENGTH);
+            ranges.add(new ConsensusMarker(columns, first, end, firstMarkedRow, endMarkedRow, confidences));
+            first = end;
+        }
+        return ranges.toArray(new ConsensusMarker[ranges.size()]);
+    }
+
+    /**
+     * Marks all the given ranges. If there are many ranges, they are marked in parallel using at most {@link
+     * Settings#getWorkerThreads()} threads.
+     *
+     * @param ranges the ranges to mark
+     */
+    public static void markAll(ConsensusMarker[] ranges) {
+        if (ranges.length < 2 || Settings.getWorkerThreads() < 2) {
+            for (ConsensusMarker range : ranges) {
+                range.call();
+            }
+            return;
+        }
+
+        ExecutorService executor = Workers.newExecutor(ranges.length);
+        List<Future<ConsensusMarker>> futures = new ArrayList<Future<ConsensusMarker>>();
+        for (ConsensusMarker range : ranges) {
+            futures.add(executor.submit(range));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < ranges.length; i++) {
+            try {
+                futures.get(i).get();
+            } catch (Exception e) {
+                // mark the range again in this thread; a row that was already marked is left unchanged
+                e.printStackTrace();
+                futures.get(i).cancel(true);
+                ConsensusMarker r = ranges[i];
+                ranges[i] = new ConsensusMarker(r.columns, r.firstRow, r.endRow,
+                        r.firstMarkedRow, r.endMarkedRow, r.confidences).call();
+            }
+        }
+    }
+
+    /**
+     * Marks the rows in the range.
+     *
+     * @return this
+     */
+    public ConsensusMarker call() {
+        int[] votes = new int[columns.length];
+        for (int row = firstRow; row < endRow; row++) {
+            Arrays.fill(votes, 0);
+            int classes = 0;
+            int present = 0;
+            boolean hasMarks = false;
+
+            // the class that first gets the most votes wins; it is unsure if another class gets as many votes
+            int max = 1;
+            int maxColumn = -1;
+            boolean isUnsure = false;
+            for (int col = 0; col < columns.length; col++) {
+                int crcClass = columns[col].getChecksumClass(row);
+                if (crcClass == PartClassifier.MISSING) {
+                    continue;
+                }
+                if (columns[col].getMark(row) != Comparison.MARK_IS_UNDEFINED) {
+                    hasMarks = true;
+                }
+                present++;
+                classes = Math.max(classes, crcClass + 1);
+                int count = ++votes[crcClass];
+                if (count > max) {
+                    max = count;
+                    maxColumn = col;
+                    isUnsure = false;
+                } else if (count == max && count > 1) {
+                    isUnsure = true;
+                }
+            }
+            confidences[row] = confidence(votes, classes, present);
+
+            if (row < firstMarkedRow || row >= endMarkedRow) {
+                continue;
+            }
+            if (hasMarks || maxColumn < 0) {
+                // do not change rows that already have marks set, or where no two files agree
+                unchanged++;
+                continue;
+            }
+            int mark = isUnsure ? Comparison.MARK_IS_UNSURE : Comparison.MARK_IS_GOOD;
+            int winner = columns[maxColumn].getChecksumClass(row);
+            for (ComparisonColumn column : columns) {
+                if (column.getChecksumClass(row) == winner) {
+                    column.setMark(row, mark);
+                }
+            }
+            if (isUnsure) {
+                unsure++;
+            } else {
+                good++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the margin between the two classes with the most votes, as a share of the files that have the part.
+     */
+    private static float confidence(int[] votes, int classes, int present) {
+        int first = 0;
+        int second = 0;
+        for (int i = 0; i < classes; i++) {
+            if (votes[i] > first) {
+                second = first;
+                first = votes[i];
+            } else if (votes[i] > second) {
+                second = votes[i];
+            }
+        }
+        return present == 0 ? 0.0f : (float) (first - second) / present;
+    }
+
+    /**
+     * Returns the number of rows that were marked good.
+     */
+    public int getGood() {
+        return good;
+    }
+
+    /**
+     * Returns the number of rows that were marked unsure.
+     */
+    public int getUnsure() {
+        return unsure;
+    }
+
+    /**
+     * Returns the number of marked rows that were left unchanged.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+}
@@ -0,0 +1,277 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The exact bytes in which the files of a <code>Comparison</code> differ. The differing parts are read from all files
+ * in lockstep, and the bytes that are not the same in all files are collected into ranges. In each range the files are
+ * divided into classes by their bytes in the same way as {@link PartClassifier} divides them by their checksums: the
+ * files that have the same bytes belong to the same class, and a file that is too short belongs to class {@link
+ * PartClassifier#MISSING}. A range has the same classes in all its bytes, so the bytes of one class can be used in
+ * place of the bytes of another.
+ * <p/>
+ * The bytes are compared eight at a time, and only the words that differ are looked at one byte at a time, so that
+ * making the map takes about as long as reading the differing parts.
+ *
+ * @author Esko Luontola
+ * @see Comparison#createCorruptionMap()
+ * @see Comparison#createByteCombination(CorruptionMap)
+ */
+public class CorruptionMap {
+
+    /**
+     * The number of bytes that are read from each file at a time.
+     */
+    public static final int CHUNK_LENGTH = 64 * 1024;
+
+    private final int files;
+
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private int ranges = 0;
+
+    /**
+     * The classes of the files in each range, <code>files</code> classes per range.
+     */
+    private int[] classes;
+
+    private CorruptionMap(int files) {
+        this.files = files;
+        this.classes = new int[starts.length * files];
+    }
+
+    /**
+     * Compares the bytes of the files in the given regions.
+     *
+     * @param files        the files to compare
+     * @param regionStarts the index of the first byte of each region, in ascending order
+     * @param regionEnds   the index of the last byte of each region
+     * @return the differences in the regions, or null if a source file could not be read or it has changed
+     */
+    static CorruptionMap analyze(ChecksumFile[] files, long[] regionStarts, long[] regionEnds) {
+        Log.print("CorruptionMap.analyze: Start, " + regionStarts.length + " regions in " + files.length + " files");
+        CorruptionMap map = new CorruptionMap(files.length);
+        RandomAccessFile[] inputs = new RandomAccessFile[files.length];
+        try {
+            FileChannel[] channels = new FileChannel[files.length];
+            long[] lengths = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                File source = files[i].getSourceFile();
+                lengths[i] = files[i].getSourceFileLength();
+                if (source.length() != lengths[i]) {
+                    throw new IOException("The file has changed: " + source);
+                }
+                inputs[i] = new RandomAccessFile(source, "r");
+                channels[i] = inputs[i].getChannel();
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[files.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.allocate(CHUNK_LENGTH);
+            }
+            int[] chunkLengths = new int[files.length];
+            for (int region = 0; region < regionStarts.length; region++) {
+                for (long pos = regionStarts[region]; pos <= regionEnds[region]; pos += CHUNK_LENGTH) {
+                    long end = Math.min(regionEnds[region] + 1, pos + CHUNK_LENGTH);
+                    for (int i = 0; i < files.length; i++) {
+                        chunkLengths[i] = (int) Math.max(0, Math.min(end, lengths[i]) - pos);
+                        read(channels[i], buffers[i], pos, chunkLengths[i]);
+                    }
+                    map.compareChunk(pos, buffers, chunkLengths);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.println("CorruptionMap.analyze: Aborted, " + e);
+            return null;
+        } finally {
+            for (RandomAccessFile input : inputs) {
+                try {
+                    if (input != null) {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        Log.print("CorruptionMap.analyze: Done, " + map.ranges + " ranges, " + map.getDifferingBytes() + " bytes");
+        return map;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long pos, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (pos + buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * Compares one chunk of bytes that has been read from each file.
+     *
+     * @param pos     the index of the first byte of the chunk in the files
+     * @param buffers the bytes of each file
+     * @param lengths the number of bytes read from each file; less for the files that end in the chunk
+     */
+    private void compareChunk(long pos, ByteBuffer[] buffers, int[] lengths) {
+        int length = 0;
+        int common = Integer.MAX_VALUE;
+        int first = -1;
+        for (int i = 0; i < files; i++) {
+            if (lengths[i] > 0) {
+                length = Math.max(length, lengths[i]);
+                common = Math.min(common, lengths[i]);
+                first = (first < 0) ? i : first;
+            }
+        }
+
+        int[] valueClass = new int[256];
+        int[] pattern = new int[files];
+        int i = 0;
+        while (i < length) {
+            // skip the words that are the same in all files that have them
+            if (i + 8 <= common && isSameWord(buffers, lengths, first, i)) {
+                i += 8;
+                continue;
+            }
+            int end = (i + 8 <= common) ? i + 8 : i + 1;
+            for (; i < end; i++) {
+                if (classify(buffers, lengths, i, valueClass, pattern) >= 2) {
+                    addByte(pos + i, pattern);
+                }
+            }
+        }
+    }
+
+    private boolean isSameWord(ByteBuffer[] buffers, int[] lengths, int first, int index) {
+        long word = buffers[first].getLong(index);
+        for (int i = first + 1; i < files; i++) {
+            if (lengths[i] > 0 && buffers[i].getLong(index) != word) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Divides the files into classes by their byte at the given index.
+     *
+     * @return the number of classes, not counting {@link PartClassifier#MISSING}
+     */
+    private int classify(ByteBuffer[] buffers, int[] lengths, int index, int[] valueClass, int[] pattern) {
+        Arrays.fill(valueClass, -1);
+        int count = 0;
+        for (int i = 0; i < files; i++) {
+            if (index >= lengths[i]) {
+                pattern[i] = PartClassifier.MISSING;
+                continue;
+            }
+            int value = buffers[i].get(index) & 0xFF;
+            if (valueClass[value] < 0) {
+                valueClass[value] = count;
+                count++;
+            }
+            pattern[i] = valueClass[value];
+        }
+        return count;
+    }
+
+    /**
+     * Adds a differing byte to the last range, if it follows the last range and has the same classes, or else to a new
+     * range.
+     */
+    private void addByte(long offset, int[] pattern) {
+        if (ranges > 0 && ends[ranges - 1] == offset - 1 && hasClasses(ranges - 1, pattern)) {
+            ends[ranges - 1] = offset;
+            return;
+        }
+        if (ranges == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            ends = Arrays.copyOf(ends, starts.length);
+            classes = Arrays.copyOf(classes, starts.length * files);
+        }
+        starts[ranges] = offset;
+        ends[ranges] = offset;
+        System.arraycopy(pattern, 0, classes, ranges * files, files);
+        ranges++;
+    }
+
+    private boolean hasClasses(int range, int[] pattern) {
+        for (int i = 0; i < files; i++) {
+            if (classes[range * files + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isGoodIndex(int range, int file) {
+        return range >= 0 && range < ranges && file >= 0 && file < files;
+    }
+
+    /**
+     * Returns the number of files.
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the number of ranges of differing bytes.
+     */
+    public int getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Returns the index of the first byte of a range.
+     *
+     * @param range the index of the range
+     * @return the index of the byte, or -1 if parameter invalid
+     */
+    public long getStart(int range) {
+        return isGoodIndex(range, 0) ? starts[range] : -1;
+    }
+
+    /**
+     * Returns the index of the last byte of a range.
+     *
+     * @param range the index of the range
+     * @return the index of the byte, or -1 if parameter invalid
+     */
+    public long getEnd(int range) {
+        return isGoodIndex(range, 0) ? ends[range] : -1;
+    }
+
+    /**
+     * Returns the class of a file in a range. The files that have the same bytes in the range have the same class.
+     *
+     * @param range the index of the range
+     * @param file  the index of the file
+     * @return the class, or {@link PartClassifier#MISSING} if the file is too short or if parameters invalid
+     */
+    public int getByteClass(int range, int file) {
+        return isGoodIndex(range, file) ? classes[range * files + file] : PartClassifier.MISSING;
+    }
+
+    /**
+     * Returns the number of bytes in all ranges.
+     */
+    public long getDifferingBytes() {
+        long sum = 0;
+        for (int i = 0; i < ranges; i++) {
+            sum += ends[i] - starts[i] + 1;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,206 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.*;
+
+/**
+ * Counts the CRC-32 of data from the CRC-32 checksums and lengths of its pieces, without the data itself. Appending a
+ * piece of <i>n</i> bytes to data is the same as shifting the CRC of the data by <i>n</i> zero bytes and adding the CRC
+ * of the piece, and the shifting is a linear operator over GF(2), which is a 32 x 32 bit matrix (see
+ * <code>crc32_combine</code> in zlib). The operators of the lengths are remembered, so appending many pieces of the
+ * same lengths, such as the parts of a <code>ChecksumFile</code>, takes only one matrix multiplication per piece.
+ * <p/>
+ * The matrices are stored as arrays of 32 columns, where each column is an <code>int</code>.
+ *
+ * @author Esko Luontola
+ * @see ChecksumFile#updateCrc32(Crc32Combine, long, long)
+ */
+class Crc32Combine {
+
+    /**
+     * The CRC-32 polynomial in reversed bit order.
+     */
+    private static final int POLYNOMIAL = 0xEDB88320;
+
+    /**
+     * The value of {@link #uniformByte} when the data is empty.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The value of {@link #uniformByte} when the data has different bytes.
+     */
+    private static final int MIXED = -2;
+
+    private int value = 0;
+    private long length = 0;
+    private int uniformByte = EMPTY;
+
+    private final Map<Long, int[]> operators = new HashMap<Long, int[]>();
+
+    /**
+     * Appends a piece of data.
+     *
+     * @param crc         the CRC-32 of the piece
+     * @param length      the length of the piece in bytes
+     * @param uniformByte the byte that all of the piece consists of, or -1 if it has different bytes
+     */
+    public void append(int crc, long length, int uniformByte) {
+        if (length <= 0) {
+            return;
+        }
+        int[] operator = operators.get(length);
+        if (operator == null) {
+            operator = zeros(length);
+            operators.put(length, operator);
+        }
+        this.value = times(operator, this.value) ^ crc;
+        this.length += length;
+        if (uniformByte < 0 || (this.uniformByte != EMPTY && this.uniformByte != uniformByte)) {
+            this.uniformByte = MIXED;
+        } else {
+            this.uniformByte = uniformByte;
+        }
+    }
+
+    /**
+     * Clears the data, so that the next piece is appended to empty data. The remembered operators are kept.
+     */
+    public void reset() {
+        this.value = 0;
+        this.length = 0;
+        this.uniformByte = EMPTY;
+    }
+
+    /**
+     * Returns the CRC-32 of the data.
+     */
+    public int getIntValue() {
+        return value;
+    }
+
+    /**
+     * Returns the length of the data in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the byte that all of the data consists of.
+     *
+     * @return the byte, or -1 if the data has different bytes or is empty
+     */
+    public int getUniformByte() {
+        return (uniformByte >= 0) ? uniformByte : -1;
+    }
+
+    /**
+     * Returns the CRC-32 of the data in the same format as {@link CRC#getHexValue()}.
+     *
+     * @return the checksum, or "0x??" if all bytes are ??
+     */
+    public String getHexValue() {
+        String hex;
+        if (uniformByte >= 0) {
+            hex = Integer.toHexString(uniformByte).toUpperCase();
+            return (hex.length() < 2) ? "0x0" + hex : "0x" + hex;
+        }
+        hex = Integer.toHexString(value).toUpperCase();
+        while (hex.length() < 8) {
+            hex = "0" + hex;
+        }
+        return hex;
+    }
+
+    /**
+     * Returns the CRC-32 of two pieces of data one after another.
+     *
+     * @param crc1   the CRC-32 of the first piece
+     * @param crc2   the CRC-32 of the second piece
+     * @param length the length of the second piece in bytes
+     * @return the CRC-32 of both pieces
+     */
+    public static int combine(int crc1, int crc2, long length) {
+        if (length <= 0) {
+            return crc1;
+        }
+        return times(zeros(length), crc1) ^ crc2;
+    }
+
+    /**
+     * Returns the operator which shifts a CRC-32 by the given number of zero bytes.
+     *
+     * @param length the number of bytes
+     * @return the operator as a matrix
+     */
+    public static int[] zeros(long length) {
+        // the operator for one zero bit, squared to get the operator for one zero byte
+        int[] op = new int[32];
+        op[0] = POLYNOMIAL;
+        for (int n = 1; n < 32; n++) {
+            op[n] = 1 << (n - 1);
+        }
+        op = multiply(op, op);
+        op = multiply(op, op);
+        op = multiply(op, op);
+
+        int[] result = identity();
+        while (length > 0) {
+            if ((length & 1) != 0) {
+                result = multiply(op, result);
+            }
+            length >>>= 1;
+            if (length > 0) {
+                op = multiply(op, op);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the identity matrix.
+     */
+    public static int[] identity() {
+        int[] result = new int[32];
+        for (int n = 0; n < 32; n++) {
+            result[n] = 1 << n;
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies a vector by a matrix.
+     *
+     * @param matrix the matrix
+     * @param vector the vector
+     * @return the product
+     */
+    public static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int n = 0; vector != 0; n++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[n];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Multiplies two matrices, so that the result is the same as applying <code>b</code> and then <code>a</code>.
+     *
+     * @param a the matrix that is applied second
+     * @param b the matrix that is applied first
+     * @return the product
+     */
+    public static int[] multiply(int[] a, int[] b) {
+        int[] result = new int[32];
+        for (int n = 0; n < 32; n++) {
+            result[n] = times(a, b[n]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,329 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.*;
+
+/**
+ * Finds the combinations of a <code>Comparison</code> whose CRC-32 is the known CRC-32 of the good file, such as one
+ * from an SFV file, without trying the combinations one at a time. Replacing a difference of one file with the same
+ * difference of another file changes the CRC-32 of the whole file by the difference of the CRC-32 checksums of the two
+ * parts, shifted by the length of the data after the part (see {@link Crc32Combine}). The changes of all differences
+ * add up with XOR, so finding the combinations with the right CRC-32 is solving a system of linear equations over
+ * GF(2), which is done with Gaussian elimination.
+ * <p/>
+ * The first file that is tried in each difference is the reference, and each other file is a variable that is 1 if
+ * the file is chosen. The system has 32 equations, one for each bit of the CRC-32, so with <i>n</i> variables there
+ * are usually 2<sup><i>n</i>-32</sup> solutions. The solutions where at most one file of each difference is chosen
+ * are the combinations whose CRC-32 matches. About one in 2<sup>32</sup> of all combinations matches by chance, so
+ * when there are more than about 2<sup>32</sup> combinations, the candidates should be verified with a stronger
+ * checksum.
+ * <p/>
+ * The checksums of the parts are taken from the <code>ChecksumFile</code> objects, so the files are read only for
+ * verifying the candidates.
+ *
+ * @author Esko Luontola
+ * @see CombinationSearch
+ */
+public class Crc32Solver {
+
+    /**
+     * The largest number of solutions that are gone through when looking for the candidates.
+     */
+    public static final int MAX_SOLUTIONS = 1 << 22;
+
+    private final CombinationSearch layout;
+    private final int[] reference;
+    private final int target;
+    private final boolean solvable;
+
+    /**
+     * The difference and the file of each variable.
+     */
+    private int[] varRow;
+    private int[] varFile;
+
+    /**
+     * The change in the CRC-32 of the whole file when each variable is 1.
+     */
+    private int[] delta;
+
+    /**
+     * The rank of the system, one solution of it, and the combinations of variables that do not change the CRC-32,
+     * which are found once when the solver is created.
+     */
+    private int rank = 0;
+    private BitSet solution;
+    private List<BitSet> nullSpace;
+
+    /**
+     * The files of each matching combination, which are found when the system is first solved.
+     */
+    private List<int[]> choices;
+
+    /**
+     * Creates a solver for the combinations of a comparison. The files that are marked good are the only ones tried in
+     * their differences, and the files that are marked bad are not tried, like in {@link CombinationSearch}.
+     *
+     * @param comparison the comparison
+     * @param crc32      the known CRC-32 of the good file in HEX format
+     */
+    public Crc32Solver(Comparison comparison, String crc32) {
+        this.layout = new CombinationSearch(comparison, "CRC-32", crc32);
+        this.reference = new int[layout.getRows()];
+        for (int row = 0; row < reference.length && layout.getCombinations() > 0; row++) {
+            reference[row] = layout.getOptions(row)[0];
+        }
+        int target = 0;
+        boolean solvable = layout.getCombinations() > 0;
+        try {
+            target = (int) Long.parseLong(crc32.trim(), 16);
+        } catch (NumberFormatException e) {
+            Log.println("Crc32Solver: Invalid CRC-32 " + crc32);
+            solvable = false;
+        }
+        if (solvable) {
+            // the reference combination is the first file of each difference
+            String crc = layout.createCombination(reference).countChecksum("CRC-32");
+            solvable = crc != null && !crc.startsWith("0x") && findDeltas();
+            if (solvable) {
+                target ^= (int) Long.parseLong(crc, 16);
+            }
+        }
+        this.target = target;
+        this.solvable = solvable;
+        if (solvable) {
+            eliminate();
+        }
+    }
+
+    /**
+     * Finds out the change of the CRC-32 of each variable from the checksums of the parts.
+     *
+     * @return true if successful, false if some part does not have a CRC-32 or the parts are not of the same length
+     */
+    private boolean findDeltas() {
+        int variables = 0;
+        for (int row = 0; row < layout.getRows(); row++) {
+            variables += layout.getOptions(row).length - 1;
+        }
+        varRow = new int[variables];
+        varFile = new int[variables];
+        delta = new int[variables];
+
+        int var = 0;
+        for (int row = 0; row < layout.getRows(); row++) {
+            int[] options = layout.getOptions(row);
+            Crc32Combine first = partCrc32(options[0], row);
+            if (first == null) {
+                return false;
+            }
+            long after = layout.getLength() - (layout.getStart(row) + first.getLength());
+            int[] shift = Crc32Combine.zeros(after);
+            for (int i = 1; i < options.length; i++) {
+                Crc32Combine crc = partCrc32(options[i], row);
+                if (crc == null || crc.getLength() != first.getLength()) {
+                    Log.println("Crc32Solver: Part " + row + " of file " + options[i] + " can not be used");
+                    return false;
+                }
+                varRow[var] = row;
+                varFile[var] = options[i];
+                delta[var] = Crc32Combine.times(shift, crc.getIntValue() ^ first.getIntValue());
+                var++;
+            }
+        }
+        return true;
+    }
+
+    private Crc32Combine partCrc32(int file, int row) {
+        Crc32Combine crc = new Crc32Combine();
+        if (!layout.getFile(file).updateCrc32(crc, layout.getStart(row), layout.getEnd(row))) {
+            return null;
+        }
+        return crc;
+    }
+
+    /**
+     * Returns whether the system can be solved, which needs the CRC-32 checksums of the parts, and the parts of each
+     * difference to be of the same length in all files.
+     */
+    public boolean isSolvable() {
+        return solvable;
+    }
+
+    /**
+     * Returns the number of combinations.
+     *
+     * @return the number of combinations, or <code>Long.MAX_VALUE</code> if there are more
+     */
+    public long getCombinations() {
+        return layout.getCombinations();
+    }
+
+    /**
+     * Returns the number of variables in the system.
+     */
+    public int getVariables() {
+        return solvable ? delta.length : 0;
+    }
+
+    /**
+     * Returns the rank of the system. The solutions are
+     * 2<sup>variables - rank</sup>, if there are any.
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * Finds the combinations whose CRC-32 is the known CRC-32.
+     *
+     * @return the combinations, or null if the system can not be solved or if it has more than {@link #MAX_SOLUTIONS}
+     *         solutions
+     */
+    public FileCombination[] solve() {
+        List<int[]> choices = solveChoices();
+        if (choices == null) {
+            return null;
+        }
+        FileCombination[] result = new FileCombination[choices.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = layout.createCombination(choices.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the combination whose CRC-32 is the known CRC-32, and whose checksum with a stronger algorithm is the
+     * given checksum. Only the combinations whose CRC-32 matches are read.
+     *
+     * @param algorithm the stronger algorithm, such as MD5 or SHA-1
+     * @param checksum  the checksum of the good file in HEX format
+     * @return the combination, or null if none was found or the system can not be solved
+     */
+    public FileCombination solve(String algorithm, String checksum) {
+        FileCombination[] candidates = solve();
+        if (candidates == null) {
+            return null;
+        }
+        for (FileCombination candidate : candidates) {
+            String value = candidate.countChecksum(algorithm);
+            if (value != null && value.equalsIgnoreCase(checksum.trim())) {
+                Log.print("Crc32Solver: Verified with " + algorithm);
+                return candidate;
+            }
+        }
+        Log.print("Crc32Solver: None of " + candidates.length + " candidates has the " + algorithm);
+        return null;
+    }
+
+    /**
+     * Reduces the changes of the variables to a basis with Gaussian elimination, and finds one solution and the null
+     * space of the system. A solution is null if the system has no solutions.
+     */
+    private void eliminate() {
+        int n = delta.length;
+
+        // the basis has at most one vector per bit, and the variables whose sum each vector is
+        int[] basis = new int[32];
+        BitSet[] basisVars = new BitSet[32];
+        nullSpace = new ArrayList<BitSet>();
+        for (int var = 0; var < n; var++) {
+            int v = delta[var];
+            BitSet vars = new BitSet(n);
+            vars.set(var);
+            for (int bit = 31; bit >= 0 && v != 0; bit--) {
+                if ((v >>> bit & 1) == 0) {
+                    continue;
+                }
+                if (basisVars[bit] == null) {
+                    basis[bit] = v;
+                    basisVars[bit] = vars;
+                    rank++;
+                    v = 0;
+                    vars = null;
+                    break;
+                }
+                v ^= basis[bit];
+                vars.xor(basisVars[bit]);
+            }
+            if (vars != null) {
+                // the variables add up to zero, so changing all of them does not change the CRC-32
+                nullSpace.add(vars);
+            }
+        }
+
+        // one solution, from which the others are found by adding the null space
+        solution = new BitSet(n);
+        int t = target;
+        for (int bit = 31; bit >= 0 && t != 0; bit--) {
+            if ((t >>> bit & 1) != 0 && basisVars[bit] != null) {
+                t ^= basis[bit];
+                solution.xor(basisVars[bit]);
+            }
+        }
+        if (t != 0) {
+            solution = null;
+        }
+        Log.print("Crc32Solver: " + n + " variables, rank " + rank);
+    }
+
+    /**
+     * Returns the files of each solution where at most one file of each difference is chosen. The solutions are
+     * gone through only the first time.
+     */
+    private List<int[]> solveChoices() {
+        if (!solvable) {
+            return null;
+        }
+        if (choices != null) {
+            return choices;
+        }
+        List<int[]> result = new ArrayList<int[]>();
+        if (solution == null) {
+            choices = result;
+            return choices;
+        }
+        if (nullSpace.size() >= 31 || (1 << nullSpace.size()) > MAX_SOLUTIONS) {
+            Log.println("Crc32Solver: Too many solutions, 2^" + nullSpace.size());
+            return null;
+        }
+
+        // go through the solutions in Gray code order, changing one null space vector at a time
+        BitSet current = (BitSet) solution.clone();
+        int solutions = 1 << nullSpace.size();
+        for (int i = 0; i < solutions; i++) {
+            if (i > 0) {
+                current.xor(nullSpace.get(Integer.numberOfTrailingZeros(i)));
+            }
+            int[] choice = toChoice(current);
+            if (choice != null) {
+                result.add(choice);
+            }
+        }
+        Log.print("Crc32Solver: " + result.size() + " matching combinations in " + solutions + " solutions");
+        choices = result;
+        return choices;
+    }
+
+    /**
+     * Converts a solution to the files of each difference.
+     *
+     * @return the files, or null if more than one file of some difference is chosen
+     */
+    private int[] toChoice(BitSet solution) {
+        int[] choice = reference.clone();
+        boolean[] chosen = new boolean[choice.length];
+        for (int var = solution.nextSetBit(0); var >= 0; var = solution.nextSetBit(var + 1)) {
+            int row = varRow[var];
+            if (chosen[row]) {
+                return null;
+            }
+            chosen[row] = true;
+            choice[row] = varFile[var];
+        }
+        return choice;
+    }
+}
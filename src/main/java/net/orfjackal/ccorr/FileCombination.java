@@ -6,7 +6,11 @@ package net.orfjackal.ccorr;
 
 import javax.swing.*;
 import java.io.*;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class for combining many files in to one. After creating a new instance of this class, the <code>addItem</code>
@@ -23,6 +27,29 @@ public class FileCombination {
      */
     public static final int BUFFER_LENGTH = 1024 * 1024;
 
+    /**
+     * The most bytes that are moved from a file to the output at once when writing, so that the progress can be shown
+     * and the writing cancelled between them.
+     */
+    private static final long TRANSFER_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Outputs that are at least this long are written in parallel, if more than one worker thread is allowed.
+     *
+     * @see Settings#getWorkerThreads()
+     */
+    public static final long PARALLEL_WRITING_MIN_LENGTH = 32 * 1024 * 1024;    // 32 MB
+
+    /**
+     * The longest range of the output that is written by one task when writing in parallel.
+     */
+    private static final long WRITE_WINDOW_LENGTH = 64 * 1024 * 1024;       // 64 MB
+
+    /**
+     * The first line of an undo journal of {@link #repairInPlace(File, File)}.
+     */
+    private static final String JOURNAL_HEADER = "CCorr Undo Journal";
+
     /**
      * The files of the items. The <code>Vector</code>'s all items are <code>instanceof File</code>.
      */
@@ -38,6 +65,11 @@ public class FileCombination {
      */
     private Vector<Long> endOffset;
 
+    /**
+     * The checksums of the files of the items, or null for the items that were added without them.
+     */
+    private Vector<ChecksumFile> checksumFile;
+
     /**
      * Creates a new <code>FileCombination</code> with no items.
      */
@@ -45,6 +77,7 @@ public class FileCombination {
         this.file = new Vector<File>();
         this.startOffset = new Vector<Long>();
         this.endOffset = new Vector<Long>();
+        this.checksumFile = new Vector<ChecksumFile>();
     }
 
     /**
@@ -55,11 +88,29 @@ public class FileCombination {
      * @param end   the last byte's index to be read
      */
     public void addItem(File file, long start, long end) {
-        if (file != null && start >= 0 && end > start) {
+        this.addItem(file, null, start, end);
+    }
+
+    /**
+     * Adds an item to this <code>FileCombination</code>. The checksums of the file make it possible to count the CRC-32
+     * of this combination without reading the files, if the items begin and end at parts.
+     *
+     * @param file  the checksums of the file from which to read the bytes
+     * @param start the first byte's index to be read
+     * @param end   the last byte's index to be read
+     * @see #countChecksum(String)
+     */
+    public void addItem(ChecksumFile file, long start, long end) {
+        this.addItem(file.getSourceFile(), file, start, end);
+    }
+
+    private void addItem(File file, ChecksumFile checksums, long start, long end) {
+        if (file != null && start >= 0 && end >= start) {
             Log.print("FileCombination.addItem:\t" + start + "-" + end + "\t(" + file + ")");
             this.file.add(file);
             this.startOffset.add(start);
             this.endOffset.add(end);
+            this.checksumFile.add(checksums);
         } else {
             Log.print("FAILED: FileCombination.addItem:\t" + start + "-" + end + "\t(" + file + ")");
         }
@@ -131,6 +182,11 @@ public class FileCombination {
     /**
      * Writes the output of this <code>FileCombination</code> to a file. The operation can take some minutes depending
      * on the size of the file to be processed. A ProgressMonitor is used if available.
+     * <p/>
+     * The items are moved from the files to the output with {@link FileChannel#transferTo}, so that the operating
+     * system can copy the data without moving it through the Java heap. Each file is opened once, and consecutive
+     * items that continue one another in the same file are moved at once. Long outputs are written in parallel, so that
+     * reading and writing different ranges of the output overlap.
      *
      * @param file the file which is written
      * @return true if successful, otherwise false
@@ -140,9 +196,6 @@ public class FileCombination {
         boolean successful;
         ProgressMonitor monitor = Settings.getProgressMonitor();
 
-        BufferedInputStream input;
-        BufferedOutputStream output;
-
         try {
             long written = 0;
             long fileLength = this.getLength();
@@ -154,30 +207,343 @@ public class FileCombination {
                 monitor.setMaximum(100);
             }
 
+            if (fileLength >= PARALLEL_WRITING_MIN_LENGTH && Settings.getWorkerThreads() > 1) {
+                writeInParallel(file, monitor);
+                successful = true;
+            } else {
+                ChannelCache inputs = new ChannelCache();
+                FileChannel output = new FileOutputStream(file, false).getChannel();
+                try {
+                    // start writing
+                    for (int item = 0; item < this.getItems(); item++) {
+                        int first = item;
+                        while (item + 1 < this.getItems() && this.getFile(item + 1).equals(this.getFile(first))
+                                && this.getStart(item + 1) == this.getEnd(item) + 1) {
+                            item++;
+                        }
+                        Log.print("writeFile: writing items " + first + "-" + item + " from file "
+                                + this.getFile(item));
+                        written += transferData(this.getStart(first), this.getEnd(item),
+                                inputs.getChannel(this.getFile(item)), output, monitor, written, fileLength);
+                    }
+                } finally {
+                    output.close();
+                    inputs.close();
+                }
+                successful = true;
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.print("writeFile: Error (" + e + ")");
+            successful = false;
+        }
+
+        // close progress monitor
+        if (monitor != null) {
+            monitor.setProgress(monitor.getMaximum());
+        }
+
+        if (successful) {
+            Log.println("writeFile: Done");
+        } else {
+            Log.println("writeFile: Failed");
+        }
 
-            output = new BufferedOutputStream(
-                    new FileOutputStream(file, false),
-                    Settings.getWriteBufferLength());
-            byte[] buffer = new byte[BUFFER_LENGTH];
+        return successful;
+    }
 
-            // start writing
-            for (int item = 0; item < this.getItems(); item++) {
-                Log.print("writeFile: writing item " + item + " from file " + this.getFile(item));
-                input = new BufferedInputStream(
-                        new FileInputStream(this.getFile(item)),
-                        Settings.getReadBufferLength()
-                );
-                written += copyData(this.getStart(item), this.getEnd(item), input, output, buffer,
-                        monitor, written, fileLength);
-                input.close();
+    /**
+     * Returns the position of each item in the output. Like when reading a stream, an item ends at the end of its file
+     * if its end offset is after it.
+     *
+     * @return the position of each item, and after them the length of the output
+     */
+    private long[] getOutputStarts() {
+        Map<File, Long> fileLengths = new HashMap<File, Long>();
+        long[] outputStarts = new long[this.getItems() + 1];
+        for (int item = 0; item < this.getItems(); item++) {
+            Long length = fileLengths.get(this.getFile(item));
+            if (length == null) {
+                length = this.getFile(item).length();
+                fileLengths.put(this.getFile(item), length);
             }
+            long end = Math.min(this.getEnd(item) + 1, length);
+            outputStarts[item + 1] = outputStarts[item] + Math.max(0, end - this.getStart(item));
+        }
+        return outputStarts;
+    }
 
-            output.close();
+    /**
+     * Writes the output of this <code>FileCombination</code> to a file, and verifies the data while writing it. The
+     * output is read and written one part at a time, and the checksum of each part is made with the given algorithm.
+     * If the part is at the same position in the file that it is read from and the checksums of that file were given
+     * when adding the item, the checksum is compared with the checksum that was made when the file was read the first
+     * time, and the writing fails if they differ. A ProgressMonitor is used if available.
+     * <p/>
+     * The checksums of the output are returned, so the output does not need to be read again for comparing it with
+     * other files.
+     *
+     * @param file       the file which is written
+     * @param partLength the part length used to make checksums
+     * @param algorithm  the name of the algorithm used for making the checksums
+     * @return the checksums of the output, or null if writing it failed or some part differs from when its file was
+     *         read, in which case the output is deleted
+     * @see #addItem(ChecksumFile, long, long)
+     * @see Settings#setProgressMonitor(ProgressMonitor)
+     */
+    public ChecksumFile writeVerifiedFile(File file, long partLength, String algorithm) {
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+        ChecksumFile result = null;
+        try {
+            long[] outputStarts = this.getOutputStarts();
+            long fileLength = outputStarts[this.getItems()];
+            Log.print("writeVerifiedFile: writing " + fileLength + " bytes to " + file);
+
+            // setup progress monitor
+            if (monitor != null) {
+                monitor.setMinimum(0);
+                monitor.setMaximum(100);
+            }
+
+            result = ChecksumFile.createForWriting(file, fileLength, partLength, algorithm);
+            CRC[] crcs = ChecksumFile.createCRCs(result.getAlgorithms());
+            byte[] buffer = new byte[(int) partLength];
+            int verified = 0;
+            int lastMonitorValue = -1;
+
+            ChannelCache inputs = new ChannelCache();
+            FileChannel output = new FileOutputStream(file, false).getChannel();
+            try {
+                int item = 0;
+                for (int part = 0; part < result.getParts(); part++) {
+                    long partStart = partLength * part;
+                    int len = (int) (Math.min(fileLength, partStart + partLength) - partStart);
+
+                    // read the part from the items, and find out whether it is the same part of one file
+                    ChecksumFile source = null;
+                    boolean samePart = true;
+                    for (int done = 0; done < len; ) {
+                        while (outputStarts[item + 1] <= partStart + done) {
+                            item++;
+                        }
+                        long pos = this.getStart(item) + (partStart + done - outputStarts[item]);
+                        int n = (int) Math.min(len - done, outputStarts[item + 1] - (partStart + done));
+                        if (inputs.read(this.getFile(item), ByteBuffer.wrap(buffer, done, n).slice(), pos, n) < n) {
+                            throw new EOFException("Unexpected end of " + this.getFile(item));
+                        }
+                        ChecksumFile checksums = this.checksumFile.elementAt(item);
+                        samePart &= checksums != null && (source == null || source == checksums)
+                                && pos == partStart + done;
+                        source = checksums;
+                        done += n;
+                    }
+                    result.updatePart(part, buffer, len, crcs);
+
+                    // verify the part against the checksums made when its file was read
+                    if (samePart && source.getPartLength() == partLength && source.isRefined(part)
+                            && Math.min(source.getSourceFileLength(), partStart + partLength) == partStart + len
+                            && source.hasAlgorithm(result.getAlgorithm())) {
+                        if (!result.hasSameChecksum(part, source)) {
+                            throw new IOException("Part " + part + " of " + source.getSourceFile()
+                                    + " has changed since its checksums were made");
+                        }
+                        verified++;
+                    }
+
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+                    while (data.hasRemaining()) {
+                        output.write(data);
+                    }
+
+                    // update progress monitor
+                    if (monitor != null) {
+                        int percentage = (int) ((partStart + len) * 100 / Math.max(1, fileLength));
+                        if (percentage != lastMonitorValue) {
+                            monitor.setProgress(percentage);
+                            monitor.setNote("Completed " + percentage + "%");
+                            lastMonitorValue = percentage;
+                        }
+                        if (monitor.isCanceled()) {
+                            throw new Exception("Cancelled by user");
+                        }
+                    }
+                }
+            } finally {
+                output.close();
+                inputs.close();
+            }
+            Log.println("writeVerifiedFile: Done, " + verified + " of " + result.getParts() + " parts verified");
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.println("writeVerifiedFile: Failed (" + e + ")");
+            file.delete();
+            result = null;
+        }
+
+        // close progress monitor
+        if (monitor != null) {
+            monitor.setProgress(monitor.getMaximum());
+        }
+        return result;
+    }
+
+    /**
+     * Finds the file that can be made into the output of this <code>FileCombination</code> by writing the least
+     * bytes over it. Usually it is the file that has the most good parts.
+     *
+     * @return the file, or null if none of the files can be repaired in place
+     * @see #repairInPlace(File, File)
+     */
+    public File findRepairBase() {
+        long[] outputStarts = this.getOutputStarts();
+        File best = null;
+        long bestLength = Long.MAX_VALUE;
+        Set<File> tried = new HashSet<File>();
+        for (int item = 0; item < this.getItems(); item++) {
+            File base = this.getFile(item);
+            if (!tried.add(base)) {
+                continue;
+            }
+            List<long[]> repairs = this.findRepairs(base, outputStarts);
+            if (repairs == null) {
+                continue;
+            }
+            long length = 0;
+            for (long[] repair : repairs) {
+                length += repair[2];
+            }
+            if (length < bestLength) {
+                best = base;
+                bestLength = length;
+            }
+        }
+        Log.print("findRepairBase: " + best + ", " + bestLength + " bytes to repair");
+        return best;
+    }
+
+    /**
+     * Finds the ranges of the output which have to be written over a file to make it into the output. The ranges that
+     * are read from the same place of the file itself are left out, and if the items were added with their checksums,
+     * also the parts whose checksums are the same in the file.
+     *
+     * @param base         the file to repair
+     * @param outputStarts the position of each item in the output
+     * @return the ranges as {item, position in the output, length}, or null if the file does not have the same length
+     *         as the output or if some item is read from another place of the file
+     */
+    private List<long[]> findRepairs(File base, long[] outputStarts) {
+        if (base.length() != outputStarts[this.getItems()]) {
+            return null;
+        }
+        ChecksumFile baseChecksums = null;
+        for (int item = 0; item < this.getItems(); item++) {
+            if (this.getFile(item).equals(base) && this.checksumFile.elementAt(item) != null) {
+                baseChecksums = this.checksumFile.elementAt(item);
+            }
+        }
+
+        List<long[]> repairs = new ArrayList<long[]>();
+        for (int item = 0; item < this.getItems(); item++) {
+            long from = outputStarts[item];
+            long to = outputStarts[item + 1];
+            if (this.getFile(item).equals(base)) {
+                if (from == to || this.getStart(item) == from) {
+                    continue;
+                }
+                return null;
+            }
+
+            // the parts that have the same checksum in the file do not need to be written
+            ChecksumFile checksums = this.checksumFile.elementAt(item);
+            boolean compare = checksums != null && baseChecksums != null && this.getStart(item) == from
+                    && checksums.getPartLength() == baseChecksums.getPartLength();
+            for (long pos = from; pos < to; ) {
+                long next = to;
+                boolean same = false;
+                if (compare) {
+                    long part = pos / checksums.getPartLength();
+                    next = Math.min(to, checksums.getPartLength() * (part + 1));
+                    same = baseChecksums.hasSameChecksum((int) part, checksums);
+                }
+                if (!same) {
+                    long[] last = repairs.isEmpty() ? null : repairs.get(repairs.size() - 1);
+                    if (last != null && last[0] == item && last[1] + last[2] == pos) {
+                        last[2] += next - pos;
+                    } else {
+                        repairs.add(new long[]{item, pos, next - pos});
+                    }
+                }
+                pos = next;
+            }
+        }
+        return repairs;
+    }
+
+    /**
+     * Makes a file into the output of this <code>FileCombination</code> by writing over it only the ranges where it
+     * differs from the output, instead of writing the whole output to a new file. The file must have the same length
+     * as the output, and it is usually found with {@link #findRepairBase()}. A ProgressMonitor is used if available.
+     * <p/>
+     * If a journal is given, the bytes that are written over are first saved to it, so that the file can be restored
+     * with {@link #undoRepair(File, File)}. An existing journal is not written over, because it may be the only way to
+     * undo an earlier repair.
+     *
+     * @param base    the file to repair
+     * @param journal the file to save the overwritten bytes to, which must not exist, or null to not save them
+     * @return true if successful, otherwise false
+     * @see Settings#setProgressMonitor(ProgressMonitor)
+     */
+    public boolean repairInPlace(File base, File journal) {
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+        boolean successful;
+        try {
+            long[] outputStarts = this.getOutputStarts();
+            if (journal != null && journal.exists()) {
+                throw new IOException("The undo journal already exists: " + journal);
+            }
+            List<long[]> repairs = this.findRepairs(base, outputStarts);
+            if (repairs == null) {
+                throw new IOException("The file can not be repaired in place: " + base);
+            }
+            long repairLength = 0;
+            for (long[] repair : repairs) {
+                repairLength += repair[2];
+            }
+            Log.print("repairInPlace: writing " + repairLength + " bytes in " + repairs.size() + " ranges to " + base);
+
+            // setup progress monitor
+            if (monitor != null) {
+                monitor.setMinimum(0);
+                monitor.setMaximum(100);
+            }
+
+            ChannelCache inputs = new ChannelCache();
+            RandomAccessFile output = new RandomAccessFile(base, "rw");
+            try {
+                FileChannel channel = output.getChannel();
+                if (journal != null) {
+                    writeJournal(journal, channel, repairs);
+                }
+                long written = 0;
+                for (long[] repair : repairs) {
+                    int item = (int) repair[0];
+                    long start = this.getStart(item) + (repair[1] - outputStarts[item]);
+                    channel.position(repair[1]);
+                    written += transferData(start, start + repair[2] - 1, inputs.getChannel(this.getFile(item)),
+                            channel, monitor, written, repairLength);
+                }
+                channel.force(false);
+            } finally {
+                output.close();
+                inputs.close();
+            }
             successful = true;
 
         } catch (Exception e) {
             e.printStackTrace();
-            Log.print("writeFile: Error (" + e + ")");
+            Log.print("repairInPlace: Error (" + e + ")");
             successful = false;
         }
 
@@ -187,55 +553,246 @@ public class FileCombination {
         }
 
         if (successful) {
-            Log.println("writeFile: Done");
+            Log.println("repairInPlace: Done");
         } else {
-            Log.println("writeFile: Failed");
+            Log.println("repairInPlace: Failed");
         }
+        return successful;
+    }
 
+    /**
+     * Saves the bytes of a file that will be written over, and makes sure that they are on the disk before the file is
+     * changed.
+     *
+     * @param journal the file to save the bytes to
+     * @param base    the file that will be repaired
+     * @param repairs the ranges that will be written over
+     * @throws IOException something went wrong
+     */
+    private static void writeJournal(File journal, FileChannel base, List<long[]> repairs) throws IOException {
+        FileOutputStream file = new FileOutputStream(journal, false);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_LENGTH));
+            out.writeUTF(JOURNAL_HEADER);
+            out.writeLong(base.size());
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+            for (long[] repair : repairs) {
+                out.writeLong(repair[1]);
+                out.writeLong(repair[2]);
+                for (long pos = repair[1]; pos < repair[1] + repair[2]; ) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), repair[1] + repair[2] - pos));
+                    int len = base.read(buffer, pos);
+                    if (len <= 0) {
+                        throw new EOFException("Unexpected end of file at " + pos);
+                    }
+                    out.write(buffer.array(), 0, len);
+                    pos += len;
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Restores a file that was repaired with {@link #repairInPlace(File, File)} to what it was before the repair, using
+     * the journal of the bytes that were written over.
+     *
+     * @param base    the file that was repaired
+     * @param journal the journal of the repair
+     * @return true if successful, false if the journal is not a journal of the file or restoring it failed
+     */
+    public static boolean undoRepair(File base, File journal) {
+        Log.print("undoRepair: restoring " + base + " from " + journal);
+        boolean successful;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal),
+                    BUFFER_LENGTH));
+            try {
+                if (!JOURNAL_HEADER.equals(in.readUTF()) || in.readLong() != base.length()) {
+                    throw new IOException("Not an undo journal of " + base + ": " + journal);
+                }
+                RandomAccessFile output = new RandomAccessFile(base, "rw");
+                try {
+                    byte[] buffer = new byte[BUFFER_LENGTH];
+                    while (in.available() > 0) {
+                        long pos = in.readLong();
+                        long length = in.readLong();
+                        output.seek(pos);
+                        while (length > 0) {
+                            int len = (int) Math.min(buffer.length, length);
+                            in.readFully(buffer, 0, len);
+                            output.write(buffer, 0, len);
+                            length -= len;
+                        }
+                    }
+                    output.getFD().sync();
+                } finally {
+                    output.close();
+                }
+            } finally {
+                in.close();
+            }
+            successful = true;
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.print("undoRepair: Error (" + e + ")");
+            successful = false;
+        }
+
+        if (successful) {
+            Log.println("undoRepair: Done");
+        } else {
+            Log.println("undoRepair: Failed");
+        }
         return successful;
     }
 
     /**
-     * Copies data from an <code>InputStream</code> to an <code>OutputStream</code>.
+     * Writes the output by dividing it into ranges, which are written in parallel. The output file is first given its
+     * full length, and then each range is written by its own task, which opens the output and the files of the items
+     * for itself and moves the items to their positions in the output.
+     *
+     * @param file    the file which is written
+     * @param monitor optional <code>ProgressMonitor</code>, can be null
+     * @throws Exception something went wrong or operation was cancelled by user
+     */
+    private void writeInParallel(final File file, ProgressMonitor monitor) throws Exception {
+        final long[] outputStarts = this.getOutputStarts();
+        final long outputLength = outputStarts[this.getItems()];
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(outputLength);
+        } finally {
+            output.close();
+        }
+
+        // a few windows per thread, so that the threads will not be left waiting for the slowest one
+        int threads = Settings.getWorkerThreads();
+        long windowLength = Math.min(WRITE_WINDOW_LENGTH, outputLength / (threads * 4));
+        windowLength = Math.max(TRANSFER_LENGTH, windowLength);
+        Log.print("writeFile: Writing in parallel, " + windowLength + " bytes per window");
+
+        final AtomicLong written = new AtomicLong(0);
+        ExecutorService executor = Workers.newExecutor(threads);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (long start = 0; start < outputLength; start += windowLength) {
+            final long windowStart = start;
+            final long windowEnd = Math.min(outputLength, start + windowLength);
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    writeWindow(file, outputStarts, windowStart, windowEnd, written);
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int lastMonitorValue = -1;
+        while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+            if (monitor != null) {
+                int percentage = (int) (written.get() * 100 / Math.max(1, outputLength));
+                if (percentage != lastMonitorValue) {
+                    monitor.setProgress(percentage);
+                    monitor.setNote("Completed " + percentage + "%");
+                    lastMonitorValue = percentage;
+                }
+
+                if (monitor.isCanceled()) {
+                    executor.shutdownNow();
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    throw new Exception("Cancelled by user");
+                }
+            }
+        }
+        for (Future<Object> future : futures) {
+            future.get();   // rethrows the exceptions of the tasks
+        }
+    }
+
+    /**
+     * Writes one range of the output when writing in parallel.
+     *
+     * @param file         the file which is written
+     * @param outputStarts the position of each item in the output, and the length of the output
+     * @param windowStart  the position of the first byte of the range
+     * @param windowEnd    the position after the last byte of the range
+     * @param written      the number of bytes written by all tasks
+     * @throws Exception something went wrong or the thread was interrupted
+     */
+    private void writeWindow(File file, long[] outputStarts, long windowStart, long windowEnd,
+                             AtomicLong written) throws Exception {
+        int item = Arrays.binarySearch(outputStarts, windowStart);
+        if (item < 0) {
+            item = -item - 2;
+        }
+        ChannelCache inputs = new ChannelCache();
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = output.getChannel();
+            for (; item < this.getItems() && outputStarts[item] < windowEnd; item++) {
+                long from = Math.max(windowStart, outputStarts[item]);
+                long to = Math.min(windowEnd, outputStarts[item + 1]);
+                long pos = this.getStart(item) + (from - outputStarts[item]);
+                FileChannel input = inputs.getChannel(this.getFile(item));
+                channel.position(from);
+                while (from < to) {
+                    long len = input.transferTo(pos, Math.min(TRANSFER_LENGTH, to - from), channel);
+                    if (len <= 0) {
+                        throw new EOFException("Unexpected end of " + this.getFile(item) + " at " + pos);
+                    }
+                    from += len;
+                    pos += len;
+                    written.addAndGet(len);
+
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+        } finally {
+            output.close();
+            inputs.close();
+        }
+    }
+
+    /**
+     * Moves data from a <code>FileChannel</code> to the current position of another <code>FileChannel</code>. The
+     * data is moved at most {@link #TRANSFER_LENGTH} bytes at a time. Like when reading a stream, the data ends at the
+     * end of the input if the end offset is after it.
      *
      * @param start         input's start offset
      * @param end           input's end offset
      * @param input         the input from which to read
      * @param output        the output in which to write
-     * @param buffer        buffer for transferring bytes from input to output
      * @param monitor       optional <code>ProgressMonitor</code>, can be null
      * @param progressValue for monitor, how much has been written to output
      * @param progressMax   for monitor, the full length of the output file
-     * @return how many bytes were copied
+     * @return how many bytes were moved
      * @throws Exception something went wrong or operation was cancelled by user
      */
-    private static long copyData(long start, long end,
-                                 InputStream input, OutputStream output,
-                                 byte[] buffer, ProgressMonitor monitor,
-                                 long progressValue, long progressMax) throws Exception {
-        long pos = start;
-        if (input.skip(pos) != pos) {
+    private static long transferData(long start, long end,
+                                     FileChannel input, FileChannel output,
+                                     ProgressMonitor monitor,
+                                     long progressValue, long progressMax) throws Exception {
+        long limit = Math.min(end + 1, input.size());
+        if (start > limit) {
             throw new Exception("unable to start reading from the right position");
         }
 
-        long written = 0;
+        long pos = start;
         int lastMonitorValue = -1;
-
-        boolean continueReading = true;
-        while (continueReading) {
-            int len = input.read(buffer);
-            if (len == -1) {
-                return written;
+        while (pos < limit) {
+            long len = input.transferTo(pos, Math.min(TRANSFER_LENGTH, limit - pos), output);
+            if (len <= 0) {
+                throw new EOFException("Unexpected end of input at " + pos);
             }
-
-            if (pos + len > end) {
-                len = (int) (end - pos + 1);
-                continueReading = false;
-            }
-
-            output.write(buffer, 0, len);
             pos += len;
-            written += len;
 
             // update progress monitor
             if (monitor != null) {
@@ -249,19 +806,38 @@ public class FileCombination {
                 }
 
                 if (monitor.isCanceled()) {
-                    input.close();
-                    output.close();
                     throw new Exception("Cancelled by user");
                 }
             }
         }
 
-        return written;
+        return pos - start;
+    }
+
+    /**
+     * Counts the CRC-32 of this <code>FileCombination</code>'s output from the CRC-32 checksums of the parts of the
+     * items, without reading the files.
+     *
+     * @return the checksum, or null if some item was added without checksums or does not begin and end at parts
+     * @see #addItem(ChecksumFile, long, long)
+     */
+    private String countCrc32FromParts() {
+        Crc32Combine crc = new Crc32Combine();
+        for (int item = 0; item < this.getItems(); item++) {
+            ChecksumFile checksums = this.checksumFile.elementAt(item);
+            if (checksums == null || !checksums.updateCrc32(crc, this.getStart(item), this.getEnd(item))) {
+                return null;
+            }
+        }
+        return crc.getHexValue();
     }
 
     /**
      * Counts the checksum of this <code>FileCombination</code>'s output. The operation can take some minutes depending
      * on the size of the file to be processed. A ProgressMonitor is used if available (TODO: NOT IMPLEMENTED).
+     * <p/>
+     * The CRC-32 is counted without reading the files, if all items were added with their checksums and begin and end
+     * at parts.
      *
      * @param algorithm the name of the algorithm to be used for making the checksum
      * @return the checksum, or null if operation failed
@@ -279,6 +855,208 @@ public class FileCombination {
         }
     }
 
+    /**
+     * Returns whether the <code>FileCombination</code>s have the same number of items with the same start and end
+     * offsets, so that they differ only in the files of the items.
+     */
+    private static boolean haveSameItems(FileCombination[] fc) {
+        for (int i = 1; i < fc.length; i++) {                   // 1. same number of items
+            if (fc[0].getItems() != fc[i].getItems()) {
+                return false;
+            }
+            for (int j = 0; j < fc[0].getItems(); j++) {        // 2. same start and end offsets
+                if (fc[0].getStart(j) != fc[i].getStart(j)
+                        || fc[0].getEnd(j) != fc[i].getEnd(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the outputs of an array of <code>FileCombination</code>s, such as those of {@link
+     * Comparison#createPossibleCombinations()}, reading the data that they have in common only once. The combinations
+     * must have the same items, which may be read from different files. Each range of an item is read once from one of
+     * the files, and written to all the outputs whose files have the same data in it. Files have the same data if
+     * they are the same file, or if the items were added with their checksums and the checksums of the part are the
+     * same, as far as the checksums can tell. A ProgressMonitor is used if available.
+     *
+     * @param fc    the <code>FileCombination</code>s which to write
+     * @param files the files to write, one for each combination
+     * @return the number of bytes that were read from the source files if successful, otherwise -1
+     * @see #addItem(ChecksumFile, long, long)
+     * @see Settings#setProgressMonitor(ProgressMonitor)
+     */
+    public static long writeFiles(FileCombination[] fc, File[] files) {
+        if (fc == null || files == null || fc.length == 0 || fc.length != files.length || !haveSameItems(fc)) {
+            return -1;
+        }
+        Log.print("writeFiles: Start, " + fc.length + " combinations");
+        ProgressMonitor monitor = Settings.getProgressMonitor();
+        if (monitor != null) {
+            monitor.setMinimum(0);
+            monitor.setMaximum(100);
+        }
+
+        boolean successful;
+        long read = 0;
+        ChannelCache inputs = new ChannelCache();
+        FileChannel[] outputs = new FileChannel[fc.length];
+        try {
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = new FileOutputStream(files[i], false).getChannel();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+            long fileLength = fc[0].getLength();
+            int lastMonitorValue = -1;
+
+            for (int item = 0; item < fc[0].getItems(); item++) {
+                long start = fc[0].getStart(item);
+                long end = fc[0].getEnd(item);
+                long partLength = getCommonPartLength(fc, item);
+
+                // consecutive parts whose files have the same data in the same outputs are written at once
+                long rangeStart = start;
+                int[] sources = null;
+                for (long pos = start; pos <= end; ) {
+                    int part = (partLength > 0) ? (int) (pos / partLength) : -1;
+                    int[] partSources = findSources(fc, item, part);
+                    if (sources != null && !Arrays.equals(sources, partSources)) {
+                        read += writeRange(fc, item, rangeStart, pos - 1, sources, inputs, outputs, buffer);
+                        rangeStart = pos;
+                    }
+                    sources = partSources;
+                    pos = (part >= 0) ? partLength * (part + 1) : end + 1;
+                }
+                read += writeRange(fc, item, rangeStart, end, sources, inputs, outputs, buffer);
+
+                // update progress monitor
+                if (monitor != null) {
+                    int percentage = (int) (outputs[0].position() * 100 / Math.max(1, fileLength));
+                    if (percentage != lastMonitorValue) {
+                        monitor.setProgress(percentage);
+                        monitor.setNote("Completed " + percentage + "%");
+                        lastMonitorValue = percentage;
+                    }
+                    if (monitor.isCanceled()) {
+                        throw new Exception("Cancelled by user");
+                    }
+                }
+            }
+            successful = true;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.print("writeFiles: Error (" + e + ")");
+            successful = false;
+
+        } finally {
+            for (FileChannel output : outputs) {
+                try {
+                    if (output != null) {
+                        output.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            inputs.close();
+        }
+
+        // close progress monitor
+        if (monitor != null) {
+            monitor.setProgress(monitor.getMaximum());
+        }
+
+        if (successful) {
+            Log.println("writeFiles: Done, read " + read + " bytes for " + fc.length + " outputs");
+            return read;
+        } else {
+            Log.println("writeFiles: Failed");
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the part length of the checksums of the files of an item, if all of them were added with checksums of
+     * the same part length.
+     *
+     * @return the part length, or -1 if the checksums can not be used for comparing the files
+     */
+    private static long getCommonPartLength(FileCombination[] fc, int item) {
+        long partLength = -1;
+        for (FileCombination combination : fc) {
+            ChecksumFile checksums = combination.checksumFile.elementAt(item);
+            if (checksums == null || (partLength > 0 && checksums.getPartLength() != partLength)) {
+                return -1;
+            }
+            partLength = checksums.getPartLength();
+        }
+        return partLength;
+    }
+
+    /**
+     * Finds out from which combination's file each output is read in a part of an item. The data is read from the
+     * first combination that has the same data.
+     *
+     * @param part the index of the part, or -1 to compare only the files
+     * @return the index of the combination from whose file each output is read
+     */
+    private static int[] findSources(FileCombination[] fc, int item, int part) {
+        int[] sources = new int[fc.length];
+        for (int i = 0; i < fc.length; i++) {
+            sources[i] = i;
+            ChecksumFile checksums = fc[i].checksumFile.elementAt(item);
+            for (int j = 0; j < i; j++) {
+                if (sources[j] != j) {
+                    continue;
+                }
+                ChecksumFile other = fc[j].checksumFile.elementAt(item);
+                if (fc[i].getFile(item).equals(fc[j].getFile(item))
+                        || (part >= 0 && checksums.hasSameChecksum(part, other))) {
+                    sources[i] = j;
+                    break;
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Writes a range of an item to all the outputs, reading it once for each different source.
+     *
+     * @return the number of bytes read
+     * @throws IOException something went wrong
+     */
+    private static long writeRange(FileCombination[] fc, int item, long start, long end, int[] sources,
+                                   ChannelCache inputs, FileChannel[] outputs, ByteBuffer buffer) throws IOException {
+        long read = 0;
+        for (int i = 0; i < fc.length; i++) {
+            if (sources[i] != i) {
+                continue;
+            }
+            for (long pos = start; pos <= end; ) {
+                int len = inputs.read(fc[i].getFile(item), buffer, pos, (int) Math.min(buffer.capacity(),
+                        end - pos + 1));
+                if (len == 0) {
+                    break;
+                }
+                for (int j = i; j < fc.length; j++) {
+                    if (sources[j] == i) {
+                        ByteBuffer data = buffer.duplicate();
+                        while (data.hasRemaining()) {
+                            outputs[j].write(data);
+                        }
+                    }
+                }
+                pos += len;
+                read += len;
+            }
+        }
+        return read;
+    }
+
     /**
      * Counts the checksums of an array of <code>FileCombination</code>s. The operation can take some minutes depending
      * on the size of the file to be processed. A ProgressMonitor is used if available (TODO: NOT IMPLEMENTED).
@@ -298,17 +1076,20 @@ public class FileCombination {
         }
         Log.print("countChecksums: Start, " + fc.length + " combinations, using " + algorithm);
 
-        // the parameters must meet the following requirements:
-        for (int i = 1; i < fc.length; i++) {                   // 1. same number of items
-            if (fc[0].getItems() != fc[i].getItems()) {
-                return null;
-            } else {
-                for (int j = 0; j < fc[0].getItems(); j++) {    // 2. same start and end offsets
-                    if (fc[0].getStart(i) != fc[i].getStart(i)
-                            || fc[0].getEnd(i) != fc[i].getEnd(i)) {
-                        return null;
-                    }
-                }
+        if (!haveSameItems(fc)) {
+            return null;
+        }
+
+        // the CRC-32 of whole parts is known without reading them
+        if ("CRC-32".equals(algorithm)) {
+            String[] result = new String[fc.length];
+            int counted = 0;
+            while (counted < fc.length && (result[counted] = fc[counted].countCrc32FromParts()) != null) {
+                counted++;
+            }
+            if (counted == fc.length) {
+                Log.print("countChecksums: Done, counted from the checksums of the parts");
+                return result;
             }
         }
 
@@ -318,6 +1099,8 @@ public class FileCombination {
             crc[i] = new CRC(algorithm);
         }
 
+        ChannelCache inputs = new ChannelCache();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
         for (int item = 0; item < fc[0].getItems(); item++) {
             Vector<File> readFiles = new Vector<File>();
             for (int i = 0; i < fc.length; i++) {
@@ -334,18 +1117,13 @@ public class FileCombination {
 
                     try {
                         Log.print("countChecksums: reading item " + item + " from file " + i);
-                        BufferedInputStream input =
-                                new BufferedInputStream(
-                                        new FileInputStream(fc[i].getFile(item)),
-                                        Settings.getReadBufferLength()
-                                );
-                        byte[] buffer = new byte[BUFFER_LENGTH];
-                        copyData(fc[i].getStart(item), fc[i].getEnd(item), input, output, buffer);
-                        input.close();
-
-                    } catch (Exception e) {
+                        readData(fc[i].getStart(item), fc[i].getEnd(item), fc[i].getFile(item), inputs, output,
+                                buffer);
+
+                    } catch (IOException e) {
                         e.printStackTrace();
                         Log.println("countChecksums: Aborted, " + e.toString());
+                        inputs.close();
                         return null;
                     }
                     readFiles.add(fc[i].getFile(item));
@@ -353,6 +1131,8 @@ public class FileCombination {
             }
         }
 
+        inputs.close();
+
         String[] result = new String[crc.length];
         for (int i = 0; i < result.length; i++) {
             result[i] = crc[i].getHexValue();
@@ -369,40 +1149,29 @@ public class FileCombination {
     }
 
     /**
-     * Updates all the <code>CRC</code>s in an array with the data from an <code>InputStream</code>.
+     * Updates all the <code>CRC</code>s in an array with the data of a file. Like when reading a stream, the data ends
+     * at the end of the file if the end offset is after it.
      *
-     * @param start  input's start offset
-     * @param end    input's end offset
-     * @param input  the input from which to read
+     * @param start  the file's start offset
+     * @param end    the file's end offset
+     * @param file   the file from which to read
+     * @param inputs the open files
      * @param output the <code>CRC</code>s to be updated
      * @param buffer buffer for transferring bytes from input to output
-     * @throws Exception something went wrong
+     * @throws IOException something went wrong
      */
-    private static void copyData(long start, long end,
-                                 InputStream input, CRC[] output,
-                                 byte[] buffer) throws Exception {
-        long pos = start;
-        if (input.skip(pos) != pos) {
-            throw new Exception("unable to start reading from the right position");
-        }
-
-        boolean continueReading = true;
-        while (continueReading) {
-            int len = input.read(buffer);
-            if (len == -1) {
+    private static void readData(long start, long end, File file, ChannelCache inputs,
+                                 CRC[] output, ByteBuffer buffer) throws IOException {
+        for (long pos = start; pos <= end; ) {
+            int len = inputs.read(file, buffer, pos, (int) Math.min(buffer.capacity(), end - pos + 1));
+            if (len == 0) {
                 return;
             }
-
-            if (pos + len > end) {
-                len = (int) (end - pos + 1);
-                continueReading = false;
-            }
-
             for (CRC out : output) {
-                out.update(buffer, 0, len);
+                out.update(buffer.array(), 0, len);
             }
             pos += len;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+/**
+ * Finds out the checksum classes of the differing parts of a <code>Comparison</code> on demand, instead of storing them
+ * for every part. The classes are found out one page of rows at a time from the checksums in the
+ * <code>ChecksumFile</code> objects, and each thread keeps the page it used last, so that going through the rows in
+ * order or looking at the rows near each other classifies each part only once.
+ * <p/>
+ * The memory used is proportional to the size of a page and the number of threads, and does not depend on the number
+ * of differing parts.
+ *
+ * @author Esko Luontola
+ * @see Comparison#setAlwaysPaged(boolean)
+ */
+class PagedClasses {
+
+    /**
+     * The number of rows in one page.
+     */
+    public static final int PAGE_ROWS = 1024;
+
+    private final ChecksumFile[] files;
+    private final String algorithm;
+    private final int[] parts;
+
+    /**
+     * The page that each thread used last. The pages are never changed after they are created, so they can be shared
+     * between threads without locking.
+     */
+    private final ThreadLocal<Page> lastPage = new ThreadLocal<Page>();
+
+    /**
+     * Creates the classes for the given rows.
+     *
+     * @param files     the files of the comparison
+     * @param algorithm the algorithm whose checksums are compared
+     * @param parts     the index of the part in each row, in ascending order
+     */
+    public PagedClasses(ChecksumFile[] files, String algorithm, int[] parts) {
+        this.files = files.clone();
+        this.algorithm = algorithm;
+        this.parts = parts;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int getRows() {
+        return parts.length;
+    }
+
+    /**
+     * Returns whether a file has the part of a row. This does not need the checksums, so it is faster than {@link
+     * #getChecksumClass(int, int)}.
+     *
+     * @param row  the index of the row
+     * @param file the index of the file
+     * @return true if the file is long enough to have the part, otherwise false
+     */
+    public boolean exists(int row, int file) {
+        return parts[row] < files[file].getParts();
+    }
+
+    /**
+     * Returns the checksum class of a file in a row.
+     *
+     * @param row  the index of the row
+     * @param file the index of the file
+     * @return the class, or {@link PartClassifier#MISSING} if the file does not have the part
+     */
+    public int getChecksumClass(int row, int file) {
+        int number = row / PAGE_ROWS;
+        Page page = lastPage.get();
+        if (page == null || page.number != number) {
+            page = new Page(number);
+            lastPage.set(page);
+        }
+        return page.classes[(row - page.firstRow) * files.length + file];
+    }
+
+    /**
+     * The classes of all files in one page of rows.
+     */
+    private class Page {
+
+        private final int number;
+        private final int firstRow;
+        private final int[] classes;
+
+        public Page(int number) {
+            this.number = number;
+            this.firstRow = number * PAGE_ROWS;
+            int rows = Math.min(PAGE_ROWS, parts.length - firstRow);
+
+            PartClassifier classifier = new PartClassifier(files, algorithm);
+            int[] partClasses = new int[files.length];
+            this.classes = new int[rows * files.length];
+            for (int i = 0; i < rows; i++) {
+                classifier.classify(parts[firstRow + i], partClasses);
+                System.arraycopy(partClasses, 0, classes, i * files.length, files.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Stores the part checksums of a <code>ChecksumFile</code> in binary format. Checksums that fit in an <code>int</code>,
+ * such as CRC-32, are stored in an <code>int</code> array, and longer checksums, such as MD5 and SHA-1, are stored one
+ * after another in one <code>byte</code> array. The checksums can be compared without creating any objects, and the
+ * HEX format is created only when it is needed for showing the checksum to the user.
+ * <p/>
+ * The checksums can also refine the checksums of bigger parts. Then only some of the parts have checksums of their own,
+ * and the other parts have the checksum of the bigger part that contains them, so that parts which are equal in all
+ * files stay equal without hashing them again.
+ *
+ * @author Esko Luontola
+ */
+class PartChecksums implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The number of parts.
+     */
+    private final int parts;
+
+    /**
+     * Length of one checksum in bytes.
+     */
+    private final int digestLength;
+
+    /**
+     * Length of one checksum in HEX format.
+     */
+    private final int hexLength;
+
+    /**
+     * The checksums of algorithms whose checksum fits in an <code>int</code>, otherwise null.
+     */
+    private final int[] intValues;
+
+    /**
+     * The checksums of other algorithms, <code>digestLength</code> bytes per part, otherwise null.
+     */
+    private final byte[] digests;
+
+    /**
+     * The parts whose data consists entirely of the same byte.
+     */
+    private final BitSet uniform;
+
+    /**
+     * The byte of each uniform part, or null if there are no uniform parts.
+     */
+    private byte[] uniformBytes;
+
+    /**
+     * The checksums of the bigger parts that these checksums refine, or null if all parts have checksums of their own.
+     */
+    private final PartChecksums coarse;
+
+    /**
+     * The number of parts in one bigger part.
+     */
+    private final int factor;
+
+    /**
+     * The parts that have checksums of their own in ascending order, or null if all parts have.
+     */
+    private final int[] refinedParts;
+
+    /**
+     * Creates storage for the checksums of the given number of parts.
+     *
+     * @param crc   a <code>CRC</code> that uses the same algorithm as will be used for making the checksums
+     * @param parts the number of parts
+     */
+    public PartChecksums(CRC crc, int parts) {
+        this(crc, parts, null, 1, null);
+    }
+
+    /**
+     * Creates storage for the checksums of smaller parts, which refine the given checksums. Only the refined parts
+     * have checksums of their own, and the other parts have the checksums of the bigger parts.
+     *
+     * @param crc          a <code>CRC</code> that uses the same algorithm as the coarse checksums
+     * @param parts        the number of smaller parts
+     * @param coarse       the checksums of the bigger parts
+     * @param factor       the number of smaller parts in one bigger part
+     * @param refinedParts the smaller parts whose checksums will be made, in ascending order
+     */
+    public PartChecksums(CRC crc, int parts, PartChecksums coarse, int factor, int[] refinedParts) {
+        this.parts = parts;
+        this.digestLength = crc.getDigestLength();
+        this.hexLength = crc.getHexLength();
+        this.coarse = coarse;
+        this.factor = factor;
+        this.refinedParts = refinedParts;
+        int slots = (refinedParts == null) ? parts : refinedParts.length;
+        if (crc.hasIntValue()) {
+            this.intValues = new int[slots];
+            this.digests = null;
+        } else {
+            this.intValues = null;
+            this.digests = new byte[slots * digestLength];
+        }
+        this.uniform = new BitSet();
+    }
+
+    /**
+     * Returns the index under which the checksum of a part is stored.
+     *
+     * @param part the index of the part
+     * @return the index, or -1 if the part has the checksum of the bigger part that contains it
+     */
+    private int slot(int part) {
+        if (refinedParts == null) {
+            return part;
+        }
+        int slot = Arrays.binarySearch(refinedParts, part);
+        return (slot < 0) ? -1 : slot;
+    }
+
+    /**
+     * Returns whether the part has a checksum of its own, instead of the checksum of a bigger part.
+     *
+     * @param part the index of the part
+     * @return true if the checksum was made of the data of the part
+     */
+    public boolean isRefined(int part) {
+        return slot(part) >= 0;
+    }
+
+    /**
+     * Creates storage from checksums in HEX format, as they were stored by older versions of CCorr. The data of the
+     * uniform parts is hashed again, because in HEX format only their byte is known.
+     *
+     * @param algorithm        the name of the algorithm that was used for making the checksums
+     * @param hexValues        the checksums in HEX format
+     * @param partLength       the length of the parts
+     * @param sourceFileLength the length of the file whose checksums these are
+     * @return the checksums in binary format
+     */
+    public static PartChecksums fromHexValues(String algorithm, String[] hexValues,
+                                              long partLength, long sourceFileLength) {
+        CRC crc = new CRC(algorithm);
+        PartChecksums result = new PartChecksums(crc, hexValues.length);
+
+        for (int part = 0; part < hexValues.length; part++) {
+            String hex = hexValues[part];
+            if (hex.startsWith("0x")) {
+                byte b = (byte) Integer.parseInt(hex.substring(2), 16);
+                long length = Math.min(partLength, sourceFileLength - partLength * part);
+                byte[] data = new byte[(int) length];
+                Arrays.fill(data, b);
+                crc.reset();
+                crc.update(data, 0, data.length);
+                result.set(part, crc);
+
+            } else if (result.intValues != null) {
+                result.intValues[part] = (int) Long.parseLong(hex, 16);
+
+            } else {
+                int offset = part * result.digestLength;
+                for (int i = 0; i < result.digestLength; i++) {
+                    result.digests[offset + i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the current value of a <code>CRC</code> as the checksum of a part.
+     *
+     * @param part the index of the part
+     * @param crc  a <code>CRC</code> that has been updated with the data of the part
+     */
+    public void set(int part, CRC crc) {
+        int slot = slot(part);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Part " + part + " is not refined");
+        }
+        if (intValues != null) {
+            intValues[slot] = crc.getIntValue();
+        } else {
+            System.arraycopy(crc.getByteArray(), 0, digests, slot * digestLength, digestLength);
+        }
+        if (crc.isUniform()) {
+            setUniform(slot, crc.getUniformByte());
+        }
+    }
+
+    private void setUniform(int slot, byte b) {
+        synchronized (uniform) {
+            if (uniformBytes == null) {
+                uniformBytes = new byte[(refinedParts == null) ? parts : refinedParts.length];
+            }
+            uniform.set(slot);
+            uniformBytes[slot] = b;
+        }
+    }
+
+    /**
+     * Returns the number of parts.
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * Returns whether the checksum of a part is equal to the checksum of a part in another <code>PartChecksums</code>.
+     *
+     * @param part      the index of the part in this
+     * @param other     the other checksums
+     * @param otherPart the index of the part in the other checksums
+     * @return true if the checksums are equal, false if they differ or were made with different algorithms
+     */
+    public boolean equals(int part, PartChecksums other, int otherPart) {
+        int slot = slot(part);
+        if (slot < 0) {
+            return coarse.equals(part / factor, other, otherPart);
+        }
+        int otherSlot = other.slot(otherPart);
+        if (otherSlot < 0) {
+            return equals(part, other.coarse, otherPart / other.factor);
+        }
+        part = slot;
+        otherPart = otherSlot;
+        if (intValues != null && other.intValues != null && hexLength == other.hexLength) {
+            return intValues[part] == other.intValues[otherPart];
+        }
+        if (digests == null || other.digests == null || digestLength != other.digestLength) {
+            return false;
+        }
+        int offset = part * digestLength;
+        int otherOffset = otherPart * digestLength;
+        for (int i = 0; i < digestLength; i++) {
+            if (digests[offset + i] != other.digests[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the checksum of a part. Equal checksums have equal hash codes.
+     *
+     * @param part the index of the part
+     * @return a hash code
+     */
+    public int hashCode(int part) {
+        int slot = slot(part);
+        if (slot < 0) {
+            return coarse.hashCode(part / factor);
+        }
+        part = slot;
+        if (intValues != null) {
+            return intValues[part];
+        }
+        // the digests are random enough that their first bytes are a good hash code
+        int offset = part * digestLength;
+        return ((digests[offset] & 0xFF) << 24)
+                | ((digests[offset + 1] & 0xFF) << 16)
+                | ((digests[offset + 2] & 0xFF) << 8)
+                | (digests[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Returns a fingerprint of all the checksums. Equal checksums have equal fingerprints, so two files can be
+     * identical only if their fingerprints are equal.
+     *
+     * @return a 64-bit hash of the checksums
+     */
+    public long getFingerprint() {
+        long h = 0xcbf29ce484222325L ^ parts;
+        h = (h ^ digestLength) * 0x100000001b3L;
+        for (int part = 0; part < parts; part++) {
+            h = (h ^ (hashCode(part) & 0xFFFFFFFFL)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the checksum of a part as an <code>int</code>, for algorithms whose checksum fits in one.
+     *
+     * @param part the index of the part
+     * @return the checksum, such as CRC-32
+     */
+    public int getIntValue(int part) {
+        int slot = slot(part);
+        if (slot < 0) {
+            return coarse.getIntValue(part / factor);
+        }
+        return intValues[slot];
+    }
+
+    /**
+     * Appends the CRC-32 checksums of a range of parts to a CRC-32 of data before them. The parts which do not have a
+     * checksum of their own can be appended only if all parts of the bigger part are in the range, in which case the
+     * checksum of the bigger part is appended.
+     *
+     * @param crc              the CRC-32 of the data before the parts
+     * @param firstPart        the index of the first part
+     * @param endPart          the index of the part after the last part
+     * @param partLength       the length of the parts
+     * @param sourceFileLength the length of the file whose checksums these are
+     * @return true if all parts were appended, false if some part does not have a checksum to append
+     */
+    public boolean appendCrc32(Crc32Combine crc, int firstPart, int endPart, long partLength, long sourceFileLength) {
+        for (int part = firstPart; part < endPart; ) {
+            int slot = slot(part);
+            if (slot >= 0) {
+                long length = Math.min(partLength, sourceFileLength - partLength * part);
+                crc.append(intValues[slot], length, uniform.get(slot) ? uniformBytes[slot] & 0xFF : -1);
+                part++;
+                continue;
+            }
+            int bigger = part / factor;
+            int biggerEnd = Math.min(parts, (bigger + 1) * factor);
+            if (part != bigger * factor || biggerEnd > endPart
+                    || !coarse.appendCrc32(crc, bigger, bigger + 1, partLength * factor, sourceFileLength)) {
+                return false;
+            }
+            part = biggerEnd;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the CRC-32 checksums of bigger parts from these CRC-32 checksums, without the data of the parts. Each
+     * bigger part is <code>factor</code> parts long, and its checksum is combined from the checksums of its parts.
+     *
+     * @param factor           the number of parts in one bigger part
+     * @param partLength       the length of the parts
+     * @param sourceFileLength the length of the file whose checksums these are
+     * @return the checksums of the bigger parts, or null if some bigger part contains only some of the parts of a part
+     *         that does not have a checksum of its own
+     * @see #appendCrc32(Crc32Combine, int, int, long, long)
+     */
+    public PartChecksums createCoarserCrc32(int factor, long partLength, long sourceFileLength) {
+        int coarseParts = (int) (((long) parts + factor - 1) / factor);
+        PartChecksums result = new PartChecksums(new CRC("CRC-32"), coarseParts);
+        Crc32Combine crc = new Crc32Combine();
+        for (int part = 0; part < coarseParts; part++) {
+            int firstPart = part * factor;
+            int endPart = (int) Math.min(parts, (long) firstPart + factor);
+            crc.reset();
+            if (!appendCrc32(crc, firstPart, endPart, partLength, sourceFileLength)) {
+                return null;
+            }
+            result.intValues[part] = crc.getIntValue();
+            if (crc.getUniformByte() >= 0) {
+                result.setUniform(part, (byte) crc.getUniformByte());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether some parts have the checksum of the bigger part that contains them, instead of a checksum of
+     * their own.
+     */
+    public boolean hasCoarseParts() {
+        return coarse != null && refinedParts != null;
+    }
+
+    /**
+     * Creates CRC-32 checksums whose parts are refined in the same way as the parts of the given checksums, from these
+     * CRC-32 checksums, without the data of the parts. The refined parts of the layout keep the checksums of these
+     * parts, and the checksums of the bigger parts are combined from these checksums, so that the parts can be
+     * compared with the parts of the layout.
+     *
+     * @param layout           the checksums whose refined parts are copied; the parts that these checksums do not have
+     *                         are left out
+     * @param partLength       the length of the parts
+     * @param sourceFileLength the length of the file whose checksums these are
+     * @return the checksums, these checksums if the layout does not have coarse parts, or null if some of these parts
+     *         do not have a checksum of their own
+     * @see #createCoarserCrc32(int, long, long)
+     */
+    public PartChecksums createRefinedCrc32(PartChecksums layout, long partLength, long sourceFileLength) {
+        if (hasCoarseParts() || intValues == null) {
+            return null;
+        }
+        if (!layout.hasCoarseParts()) {
+            return this;
+        }
+        PartChecksums coarser = createCoarserCrc32(layout.factor, partLength, sourceFileLength)
+                .createRefinedCrc32(layout.coarse, partLength * layout.factor, sourceFileLength);
+        if (coarser == null) {
+            return null;
+        }
+        int[] refined = new int[layout.refinedParts.length];
+        int count = 0;
+        for (int part : layout.refinedParts) {
+            if (part < parts) {
+                refined[count] = part;
+                count++;
+            }
+        }
+        refined = Arrays.copyOf(refined, count);
+
+        PartChecksums result = new PartChecksums(new CRC("CRC-32"), parts, coarser, layout.factor, refined);
+        for (int slot = 0; slot < refined.length; slot++) {
+            result.intValues[slot] = intValues[refined[slot]];
+            if (uniform.get(refined[slot])) {
+                result.setUniform(slot, uniformBytes[refined[slot]]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the checksum of a part in HEX format.
+     *
+     * @param part the index of the part
+     * @return the checksum, or "0x??" if all bytes of the part are ??; the checksum of the bigger part if the part
+     *         does not have a checksum of its own
+     * @see CRC#getHexValue()
+     */
+    public String getHexValue(int part) {
+        int slot = slot(part);
+        if (slot < 0) {
+            return coarse.getHexValue(part / factor);
+        }
+        part = slot;
+        if (uniform.get(part)) {
+            char[] hex = {'0', 'x', upperHexDigit(uniformBytes[part] >> 4), upperHexDigit(uniformBytes[part])};
+            return new String(hex);
+        }
+
+        char[] hex = new char[hexLength];
+        if (intValues != null) {
+            int value = intValues[part];
+            for (int i = hex.length - 1; i >= 0; i--) {
+                hex[i] = upperHexDigit(value);
+                value >>>= 4;
+            }
+        } else {
+            int offset = part * digestLength;
+            for (int i = 0; i < digestLength; i++) {
+                hex[i * 2] = HEX_DIGITS[(digests[offset + i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX_DIGITS[digests[offset + i] & 0xF];
+            }
+        }
+        return new String(hex);
+    }
+
+    private static char upperHexDigit(int value) {
+        return Character.toUpperCase(HEX_DIGITS[value & 0xF]);
+    }
+}
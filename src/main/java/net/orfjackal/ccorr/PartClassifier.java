@@ -0,0 +1,112 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.Arrays;
+
+/**
+ * Divides the files of a <code>Comparison</code> into equivalence classes by the checksum of one part at a time. The
+ * files whose part has the same checksum belong to the same class. The classes are found with an open addressing hash
+ * table of primitives, so classifying a part takes time proportional to the number of files, instead of comparing
+ * every file with every other file.
+ * <p/>
+ * The classes are numbered from 0 in the order of the files, so the first file that has the part always belongs to
+ * class 0. A file that is too short to have the part belongs to class {@link #MISSING}.
+ *
+ * @author Esko Luontola
+ */
+class PartClassifier {
+
+    /**
+     * The class of a file that does not have the part.
+     */
+    public static final int MISSING = -1;
+
+    private final ChecksumFile[] files;
+    private final String algorithm;
+
+    /**
+     * The hash table. A slot is in use only if its stamp is the current stamp, which makes it possible to empty the
+     * table between parts without clearing the arrays.
+     */
+    private final int[] slotFile;
+    private final int[] slotClass;
+    private final int[] slotStamp;
+    private final int mask;
+    private int stamp = 0;
+
+    /**
+     * Creates a classifier for the given files.
+     *
+     * @param files     the files to classify
+     * @param algorithm the algorithm whose checksums are compared, or null for the primary algorithm of each file
+     */
+    public PartClassifier(ChecksumFile[] files, String algorithm) {
+        this.files = files;
+        this.algorithm = algorithm;
+
+        // at least twice as many slots as files, so that the probe sequences stay short
+        int size = Integer.highestOneBit(Math.max(1, files.length)) * 4;
+        this.slotFile = new int[size];
+        this.slotClass = new int[size];
+        this.slotStamp = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Finds out which files have the same checksum in the given part.
+     *
+     * @param part    the index of the part
+     * @param classes the array into which the class of each file is written, in the same order as the files
+     * @return the number of different classes, not counting {@link #MISSING}
+     */
+    public int classify(int part, int[] classes) {
+        nextStamp();
+        int count = 0;
+        for (int file = 0; file < files.length; file++) {
+            if (part >= files[file].getParts()) {
+                classes[file] = MISSING;
+                continue;
+            }
+            int slot = mix(files[file].getChecksumHashCode(part, algorithm)) & mask;
+            while (true) {
+                if (slotStamp[slot] != stamp) {
+                    // first file with this checksum
+                    slotStamp[slot] = stamp;
+                    slotFile[slot] = file;
+                    slotClass[slot] = count;
+                    classes[file] = count;
+                    count++;
+                    break;
+                }
+                if (files[slotFile[slot]].hasSameChecksum(part, files[file], algorithm)) {
+                    classes[file] = slotClass[slot];
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return count;
+    }
+
+    private void nextStamp() {
+        stamp++;
+        if (stamp == 0) {
+            // all stamps have been used, start again
+            Arrays.fill(slotStamp, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash code, because the checksums of some algorithms, such as BSD sum, have only 16 bits.
+     */
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
@@ -0,0 +1,202 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares a range of parts of the files in a <code>Comparison</code>. Each range collects its own differing parts,
+ * checksum classes and difference counts, so that many ranges can be compared in parallel and the results merged
+ * afterwards in the order of the ranges.
+ *
+ * @author Esko Luontola
+ * @see Comparison#doCompare()
+ */
+class PartRangeComparison implements Callable<PartRangeComparison> {
+
+    /**
+     * The number of parts in one range. Big enough that the overhead of a task is negligible, and small enough that
+     * there are many ranges per thread when the files are big.
+     */
+    public static final int RANGE_LENGTH = 64 * 1024;
+
+    private final ChecksumFile[] files;
+    private final String algorithm;
+    private final int firstPart;
+    private final int endPart;
+
+    private int[] partsThatDiffer = new int[16];
+    private int differences = 0;
+
+    /**
+     * The checksum classes of the differing parts, <code>files.length</code> classes per part.
+     */
+    private int[] classes;
+    private final int[][] numberOfDifferences;
+
+    /**
+     * Creates a comparison for a range of parts.
+     *
+     * @param files            the files to compare
+     * @param algorithm        the algorithm whose checksums are compared
+     * @param firstPart        the index of the first part in the range
+     * @param endPart          the index of the part after the last part in the range
+     * @param countDifferences whether to count the differences between each pair of files, which takes time
+     *                         proportional to the square of the number of files
+     */
+    public PartRangeComparison(ChecksumFile[] files, String algorithm, int firstPart, int endPart,
+                               boolean countDifferences) {
+        this.files = files;
+        this.algorithm = algorithm;
+        this.firstPart = firstPart;
+        this.endPart = endPart;
+        this.numberOfDifferences = countDifferences ? new int[files.length][files.length] : null;
+        this.classes = new int[partsThatDiffer.length * files.length];
+    }
+
+    /**
+     * Compares all the parts of the files in the given ranges. If there are many ranges, they are compared in parallel
+     * using at most {@link Settings#getWorkerThreads()} threads.
+     *
+     * @param ranges the ranges to compare
+     */
+    public static void compareAll(PartRangeComparison[] ranges) {
+        if (ranges.length < 2 || Settings.getWorkerThreads() < 2) {
+            for (PartRangeComparison range : ranges) {
+                range.call();
+            }
+            return;
+        }
+
+        ExecutorService executor = Workers.newExecutor(ranges.length);
+        List<Future<PartRangeComparison>> futures = new ArrayList<Future<PartRangeComparison>>();
+        for (PartRangeComparison range : ranges) {
+            futures.add(executor.submit(range));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < ranges.length; i++) {
+            try {
+                futures.get(i).get();
+            } catch (Exception e) {
+                // compare the range again in this thread, so that the results will be complete
+                e.printStackTrace();
+                futures.get(i).cancel(true);
+                ranges[i] = new PartRangeComparison(ranges[i].files, ranges[i].algorithm,
+                        ranges[i].firstPart, ranges[i].endPart, ranges[i].numberOfDifferences != null).call();
+            }
+        }
+    }
+
+    /**
+     * Divides the parts of the files into ranges.
+     *
+     * @param files            the files to compare
+     * @param algorithm        the algorithm whose checksums are compared
+     * @param rangeLength      the number of parts in one range, usually {@link #RANGE_LENGTH}
+     * @param countDifferences whether to count the differences between each pair of files
+     * @return the ranges in order
+     */
+    public static PartRangeComparison[] split(ChecksumFile[] files, String algorithm, int rangeLength,
+                                              boolean countDifferences) {
+        int parts = 0;
+        for (ChecksumFile file : files) {
+            parts = Math.max(parts, file.getParts());
+        }
+        int count = (int) ((parts + (long) rangeLength - 1) / rangeLength);
+        PartRangeComparison[] ranges = new PartRangeComparison[count];
+        for (int i = 0; i < count; i++) {
+            int first = i * rangeLength;
+            int end = (int) Math.min(parts, (long) first + rangeLength);
+            ranges[i] = new PartRangeComparison(files, algorithm, first, end, countDifferences);
+        }
+        return ranges;
+    }
+
+    /**
+     * Compares the parts in the range.
+     *
+     * @return this
+     */
+    public PartRangeComparison call() {
+        PartClassifier classifier = new PartClassifier(files, algorithm);
+        int[] partClasses = new int[files.length];
+
+        for (int part = firstPart; part < endPart; part++) {
+
+            // one file being shorter does not necessarily make it different
+            if (classifier.classify(part, partClasses) < 2) {
+                continue;
+            }
+
+            // difference found, count the differences between files i and j (i is always lower index than j)
+            for (int i = 0; numberOfDifferences != null && i < (files.length - 1); i++) {
+                if (partClasses[i] == PartClassifier.MISSING) {
+                    continue;
+                }
+                for (int j = (i + 1); j < files.length; j++) {
+                    if (partClasses[j] != PartClassifier.MISSING && partClasses[j] != partClasses[i]) {
+                        numberOfDifferences[i][j]++;
+                    }
+                }
+            }
+
+            // update our part list, which stays sorted because the parts are processed in order
+            if (differences == partsThatDiffer.length) {
+                partsThatDiffer = Arrays.copyOf(partsThatDiffer, partsThatDiffer.length * 2);
+                classes = Arrays.copyOf(classes, partsThatDiffer.length * files.length);
+            }
+            partsThatDiffer[differences] = part;
+            System.arraycopy(partClasses, 0, classes, differences * files.length, files.length);
+            differences++;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of differing parts in the range.
+     */
+    public int getDifferences() {
+        return differences;
+    }
+
+    /**
+     * Copies the indexes of the differing parts to the given array.
+     *
+     * @param dest   the destination array
+     * @param offset the index in the destination array where to copy
+     */
+    public void copyPartsThatDiffer(int[] dest, int offset) {
+        System.arraycopy(partsThatDiffer, 0, dest, offset, differences);
+    }
+
+    /**
+     * Copies the checksum classes of the differing parts to the given arrays, one array per file.
+     *
+     * @param dest   the destination arrays, in the same order as the files
+     * @param offset the index in the destination arrays where to copy
+     */
+    public void copyClasses(int[][] dest, int offset) {
+        for (int i = 0; i < differences; i++) {
+            for (int file = 0; file < files.length; file++) {
+                dest[file][offset + i] = classes[i * files.length + file];
+            }
+        }
+    }
+
+    /**
+     * Adds the difference counts of the range to the given matrix. Does nothing if the differences were not counted.
+     *
+     * @param dest the matrix of the difference counts between files i and j, where i is lower index than j
+     */
+    public void addNumberOfDifferences(int[][] dest) {
+        for (int i = 0; numberOfDifferences != null && i < numberOfDifferences.length; i++) {
+            for (int j = i + 1; j < numberOfDifferences[i].length; j++) {
+                dest[i][j] += numberOfDifferences[i][j];
+            }
+        }
+    }
+}
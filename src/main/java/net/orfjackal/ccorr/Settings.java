@@ -66,6 +66,11 @@ public class Settings implements Serializable {
      */
     private int writeBufferLength = 1024 * 1024;     // 1 MB
 
+    /**
+     * Number of worker threads for tasks that can be run in parallel, or 0 to use one thread per processor.
+     */
+    private int workerThreads = 0;
+
     /**
      * Whether mark mirroring is enabled.
      */
@@ -203,6 +208,32 @@ public class Settings implements Serializable {
         return settings.writeBufferLength;
     }
 
+    /**
+     * Sets the number of worker threads for tasks that can be run in parallel, such as creating the checksums of many
+     * files at once.
+     *
+     * @param threads the number of threads, or 0 to use one thread per available processor
+     */
+    public static void setWorkerThreads(int threads) {
+        if (threads < 0) {
+            threads = 0;
+        }
+        settings.workerThreads = threads;
+    }
+
+    /**
+     * Returns the number of worker threads for tasks that can be run in parallel.
+     *
+     * @return the number of threads, always at least 1
+     */
+    public static int getWorkerThreads() {
+        if (settings.workerThreads > 0) {
+            return settings.workerThreads;
+        } else {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
     /**
      * Sets if mark mirroring is enabled.
      *
@@ -0,0 +1,134 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.Arrays;
+
+/**
+ * A MinHash sketch of the part checksums of a <code>ChecksumFile</code>, for estimating the similarity of two files
+ * without comparing all their parts. Each part is hashed together with its checksum, and the sketch keeps the {@link
+ * #SIZE} smallest hashes. Two files have the same hash in the parts where they have the same checksum, so the share of
+ * the smallest hashes that both files have estimates how many of their parts are equal.
+ * <p/>
+ * Making a sketch takes time proportional to the number of parts, and comparing two sketches takes constant time,
+ * which makes it possible to find out the similarity of many files without comparing each file with every other file.
+ *
+ * @author Esko Luontola
+ * @see Comparison#getSimilarity(int, int)
+ */
+class SimilaritySketch {
+
+    /**
+     * The number of hashes in a sketch. The estimates are usually within a few percent of the real similarity.
+     */
+    public static final int SIZE = 256;
+
+    /**
+     * The smallest keys in ascending order. A key has the hash in its high bits and the index of the part in its low
+     * bits, so the keys of different parts are always different.
+     */
+    private final long[] keys;
+
+    /**
+     * Whether the sketch has the keys of all the parts, because the file has at most {@link #SIZE} parts.
+     */
+    private final boolean complete;
+
+    private final int parts;
+
+    /**
+     * Makes a sketch of a file.
+     *
+     * @param file      the file
+     * @param algorithm the algorithm whose checksums are used, or null for the primary algorithm of the file
+     */
+    public SimilaritySketch(ChecksumFile file, String algorithm) {
+        this.parts = Math.max(0, file.getParts());
+
+        // collect the keys to a buffer, and when it is full, keep only the smallest of them
+        long[] buffer = new long[SIZE * 2];
+        int count = 0;
+        long limit = Long.MAX_VALUE;
+        for (int part = 0; part < parts; part++) {
+            long key = key(part, file.getChecksumHashCode(part, algorithm));
+            if (key < limit) {
+                buffer[count] = key;
+                count++;
+                if (count == buffer.length) {
+                    Arrays.sort(buffer);
+                    count = SIZE;
+                    limit = buffer[SIZE - 1];
+                }
+            }
+        }
+        Arrays.sort(buffer, 0, count);
+        this.keys = Arrays.copyOf(buffer, Math.min(count, SIZE));
+        this.complete = (parts <= SIZE);
+    }
+
+    private static long key(int part, int checksumHashCode) {
+        int h = checksumHashCode ^ (part * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return ((long) (h >>> 1) << 32) | part;
+    }
+
+    /**
+     * Estimates the similarity of two files in the same way as {@link Comparison#getSimilarity(int, int)}, as the
+     * share of the parts that both files have and which are equal.
+     *
+     * @param other the sketch of the other file
+     * @return the similarity between 0.0 and 1.0
+     */
+    public double estimateSimilarity(SimilaritySketch other) {
+        int commonParts = Math.min(this.parts, other.parts);
+
+        // the keys up to the limit are known in both files, so they are a random sample of all keys
+        long limit = Long.MAX_VALUE;
+        if (!this.complete) {
+            limit = Math.min(limit, this.keys[this.keys.length - 1]);
+        }
+        if (!other.complete) {
+            limit = Math.min(limit, other.keys[other.keys.length - 1]);
+        }
+
+        // walk through both sketches side by side, counting the union and the intersection of the samples
+        int union = 0;
+        int both = 0;
+        int i = 0;
+        int j = 0;
+        while (i < this.keys.length || j < other.keys.length) {
+            long a = (i < this.keys.length) ? this.keys[i] : Long.MAX_VALUE;
+            long b = (j < other.keys.length) ? other.keys[j] : Long.MAX_VALUE;
+            long key = Math.min(a, b);
+            if (key > limit || key == Long.MAX_VALUE) {
+                break;
+            }
+            if (a == key) {
+                i++;
+            }
+            if (b == key) {
+                j++;
+            }
+            if ((int) key >= commonParts) {
+                continue;       // only the parts that both files have are compared
+            }
+            union++;
+            if (a == b) {
+                both++;
+            }
+        }
+        if (union == 0) {
+            return 1.0;
+        }
+
+        // with n common parts of which d differ, the union has n + d and the intersection n - d keys
+        double jaccard = (double) both / union;
+        return 2 * jaccard / (1 + jaccard);
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread pools that are used for running long tasks in parallel. Each long task gets a pool of its own, so
+ * that a task running in a pool never has to wait for other tasks in the same pool. The number of threads is limited by
+ * {@link Settings#getWorkerThreads()}.
+ *
+ * @author Esko Luontola
+ */
+public class Workers {
+
+    /**
+     * Used for giving unique names to the worker threads.
+     */
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    /**
+     * Private constructor.
+     */
+    private Workers() {
+    }
+
+    /**
+     * Creates a new thread pool for running at most <code>tasks</code> tasks at a time. The pool must be shut down
+     * after use. The threads are daemon threads, so that an unfinished task does not prevent the program from exiting.
+     *
+     * @param tasks the number of tasks that will be run in the pool
+     * @return a new pool with as many threads as there are tasks, but not more than {@link Settings#getWorkerThreads()}
+     */
+    public static ExecutorService newExecutor(int tasks) {
+        int threads = Math.max(1, Math.min(tasks, Settings.getWorkerThreads()));
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CCorr Worker " + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY);
+                return t;
+            }
+        });
+    }
+}
@@ -21,6 +21,7 @@ class ComparisonItemRenderer extends JLabel implements TableCellRenderer {
     public static final Color COLOR_GOOD = new Color(150, 255, 150);
     public static final Color COLOR_BAD = new Color(255, 150, 150);
     public static final Color COLOR_UNSURE = new Color(255, 255, 150);
+    public static final Color COLOR_MIXED = new Color(210, 190, 255);
     public static final Color COLOR_BORDER = new Color(128, 128, 196);
 
     /**
@@ -42,8 +43,19 @@ class ComparisonItemRenderer extends JLabel implements TableCellRenderer {
             setText(item.getCaption());
             setFont(new Font("Courier New", Font.PLAIN, 12));
 
+            // a collapsed block shows the mark of all its differences, which is -1 if they have different marks
+            int mark = item.getMark();
+            if (table.getModel() instanceof ComparisonTableModel) {
+                mark = ((ComparisonTableModel) table.getModel()).getMark(
+                        table.convertRowIndexToModel(row), table.convertColumnIndexToModel(column));
+            }
+
             Color color;
-            switch (item.getMark()) {
+            switch (mark) {
+                case -1:
+                    color = COLOR_MIXED;
+                    break;
+
                 default:
                 case Comparison.MARK_IS_UNDEFINED:
                     color = COLOR_UNDEFINED;
@@ -62,6 +74,7 @@ class ComparisonItemRenderer extends JLabel implements TableCellRenderer {
                     break;
             }
             setBackground(color);
+            setToolTipText((mark == -1) ? "The differences of this block have different marks" : null);
 
             if (hasFocus || isSelected) {
                 this.setBorder(BorderFactory.createLineBorder(COLOR_BORDER, 1));
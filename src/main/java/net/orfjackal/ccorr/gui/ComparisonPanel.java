@@ -12,6 +12,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.text.*;
+import java.util.Vector;
 
 /**
  * The user interface for a <code>Comparison</code>. It consists primarily of a <code>JTable</code>, which shows the
@@ -71,9 +72,18 @@ public class ComparisonPanel extends TabPanel {
 
         table.setDefaultRenderer(ComparisonItem.class, new ComparisonItemRenderer());
 
-        // listen to mouse clicks that change markers
+        // listen to mouse clicks that change markers and expand blocks
         table.addMouseListener(new MouseListener() {
             public void mouseClicked(MouseEvent e) {
+                if (e.getButton() == MouseEvent.BUTTON1 && e.getClickCount() == 2) {
+                    int row = table.rowAtPoint(e.getPoint());
+                    int col = table.columnAtPoint(e.getPoint());
+
+                    // the first column is editable, so that it can be copied
+                    if (col > 0) {
+                        tableModel.toggleExpanded(row);
+                    }
+                }
             }
 
             public void mouseEntered(MouseEvent e) {
@@ -141,14 +151,14 @@ public class ComparisonPanel extends TabPanel {
         p.setBorder(BorderFactory.createEtchedBorder());
         p.setLayout(new FlowLayout(FlowLayout.CENTER));
 
-        button = new JButton("Add File");
+        button = new JButton("Add Files");
         final JButton button1 = button;
         button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 button1.setEnabled(false);
                 Thread t = new Thread() {
                     public void run() {
-                        createAndAddChecksumFile();
+                        createAndAddChecksumFiles();
                         button1.setEnabled(true);
                     }
                 };
@@ -169,6 +179,14 @@ public class ComparisonPanel extends TabPanel {
         });
         p.add(button);
 
+        button = new JButton("Compare With");
+        button.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                selectAlgorithm();
+            }
+        });
+        p.add(button);
+
         button = new JButton("Write Output");
         final JButton button3 = button;
         button.addActionListener(new ActionListener() {
@@ -205,74 +223,315 @@ public class ComparisonPanel extends TabPanel {
         return p;
     }
 
+    /**
+     * Lets the user select which of the algorithms that all files have checksums of is used for comparing them.
+     */
+    public void selectAlgorithm() {
+        String[] algorithms = tableModel.getCommonAlgorithms();
+        if (algorithms.length == 0) {
+            JOptionPane.showMessageDialog(this,
+                    "There are no files in the comparison.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object selected = JOptionPane.showInputDialog(this,
+                "Compare the files using the checksums of:",
+                "Compare With", JOptionPane.QUESTION_MESSAGE, null,
+                algorithms, tableModel.getAlgorithm());
+        if (selected != null) {
+            tableModel.setAlgorithm((String) selected);
+        }
+    }
+
     /**
      * Writes a good combination to a file.
      */
     public void writeOutput() {
         FileCombination fc = tableModel.createGoodCombination();
+        if (fc == null && tableModel.getPartLength() > 0) {
+            int returnVal = JOptionPane.showConfirmDialog(this,
+                    "There are not enough good parts. Do you want to compare the differing parts byte by byte\n"
+                            + "and combine the bytes that most of the files agree on?",
+                    "Combine Bytes?", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+            if (returnVal == JOptionPane.YES_OPTION) {
+                fc = tableModel.createByteCombination();
+            }
+        }
         if (fc == null) {
-
-            // TODO: possible combinations
             JOptionPane.showMessageDialog(this,
                     "It is not possible to create a good output file. "
                             + "More good parts are needed.",
                     "Error", JOptionPane.ERROR_MESSAGE);
         } else {
-            JFileChooser chooser = new JFileChooser();
-            chooser.setCurrentDirectory(Settings.getCurrentDirectory());
-
-            boolean ok = false;
-            do {
-                int returnVal = chooser.showSaveDialog(this);
-                if (returnVal == JFileChooser.APPROVE_OPTION) {
-
-                    if (chooser.getSelectedFile().exists()) {
-                        returnVal = JOptionPane.showConfirmDialog(this,
-                                "The selected file exists. Do you want to overwrite it?",
-                                "Overwrite File?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
-                        if (returnVal == JOptionPane.YES_OPTION) {
-                            ok = true;
-                        } else if (returnVal == JOptionPane.NO_OPTION) {
-                            ok = false;
-                        } else if (returnVal == JOptionPane.CANCEL_OPTION) {
-                            return;
-                        }
-                    } else {
-                        ok = true;
-                    }
+            writeOutput(fc);
+        }
+    }
 
-                } else {
-                    return;
-                }
-            } while (!ok);
+    /**
+     * Asks the user for the checksum of the good file, and searches the possible combinations for a combination with
+     * the same checksum. If one is found, it is written to a file.
+     *
+     * @see CombinationSearch
+     */
+    public void findCombination() {
+        Object algorithm = JOptionPane.showInputDialog(this,
+                "The algorithm of the checksum of the good file:",
+                "Find Combination", JOptionPane.QUESTION_MESSAGE, null,
+                CRC.getSupportedAlgorithms(), "MD5");
+        if (algorithm == null) {
+            return;
+        }
+        Object checksum = JOptionPane.showInputDialog(this,
+                "The " + algorithm + " checksum of the good file:",
+                "Find Combination", JOptionPane.QUESTION_MESSAGE);
+        if (checksum == null || checksum.toString().trim().length() == 0) {
+            return;
+        }
 
-            // start writing
+        if (algorithm.equals("CRC-32") && solveCombination(checksum.toString())) {
+            return;
+        }
+        CombinationSearch search = tableModel.createCombinationSearch(algorithm.toString(), checksum.toString());
+        if (search == null || search.getCombinations() == 0) {
+            JOptionPane.showMessageDialog(this,
+                    "There are no possible combinations.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Settings.setProgressMonitor(new ProgressMonitor(this,
+                "Searching " + search.getCombinations() + " combinations", "", 0, 0));
+        FileCombination fc = search.search();
+        if (fc == null) {
+            JOptionPane.showMessageDialog(this,
+                    "None of the " + search.getTested() + " combinations that were tried has the checksum.",
+                    "Find Combination", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            writeOutput(fc);
+        }
+    }
+
+    /**
+     * Finds the combinations with a known CRC-32 from the checksums of the parts. If more than one combination has the
+     * CRC-32, asks the user for a stronger checksum to tell them apart.
+     *
+     * @return true if the combinations could be solved, false if they need to be searched by reading them
+     * @see Crc32Solver
+     */
+    private boolean solveCombination(String crc32) {
+        Crc32Solver solver = tableModel.createCrc32Solver(crc32);
+        if (solver == null || !solver.isSolvable()) {
+            return false;
+        }
+        FileCombination[] candidates = solver.solve();
+        if (candidates == null) {
+            return false;
+        }
+        if (candidates.length == 0) {
+            JOptionPane.showMessageDialog(this,
+                    "None of the " + solver.getCombinations() + " combinations has the checksum.",
+                    "Find Combination", JOptionPane.INFORMATION_MESSAGE);
+        } else if (candidates.length == 1) {
+            writeOutput(candidates[0]);
+        } else {
+            Object algorithm = JOptionPane.showInputDialog(this,
+                    candidates.length + " combinations have the CRC-32. The algorithm of another checksum:",
+                    "Find Combination", JOptionPane.QUESTION_MESSAGE, null,
+                    new String[]{"MD5", "SHA-1"}, "MD5");
+            if (algorithm == null) {
+                return true;
+            }
+            Object checksum = JOptionPane.showInputDialog(this,
+                    "The " + algorithm + " checksum of the good file:",
+                    "Find Combination", JOptionPane.QUESTION_MESSAGE);
+            if (checksum == null || checksum.toString().trim().length() == 0) {
+                return true;
+            }
             Settings.setProgressMonitor(new ProgressMonitor(this,
-                    "Writing output", "", 0, 0));
+                    "Verifying " + candidates.length + " combinations", "", 0, 0));
+            FileCombination fc = solver.solve(algorithm.toString(), checksum.toString());
+            if (fc == null) {
+                JOptionPane.showMessageDialog(this,
+                        "None of the " + candidates.length + " combinations has the checksum.",
+                        "Find Combination", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                writeOutput(fc);
+            }
+        }
+        return true;
+    }
 
-            boolean successful = fc.writeFile(chooser.getSelectedFile());
-            Settings.setCurrentDirectory(chooser.getSelectedFile());
-            if (!successful) {
+    /**
+     * Repairs the file that has the most good parts by writing the good parts of the other files over its bad parts.
+     * The overwritten bytes are saved to an undo journal next to the file.
+     *
+     * @see FileCombination#repairInPlace(File, File)
+     */
+    public void repairInPlace() {
+        FileCombination fc = tableModel.createGoodCombination();
+        File base = (fc == null) ? null : fc.findRepairBase();
+        if (base == null) {
+            JOptionPane.showMessageDialog(this,
+                    (fc == null) ? "It is not possible to create a good output file. More good parts are needed."
+                            : "None of the files can be repaired in place.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        File journal = new File(base.getPath() + ".undo");
+        for (int i = 2; journal.exists(); i++) {
+            journal = new File(base.getPath() + ".undo." + i);          // keep the journals of earlier repairs
+        }
+        int returnVal = JOptionPane.showConfirmDialog(this,
+                "The bad parts of the file \"" + base.getName() + "\" will be overwritten with good parts.\n"
+                        + "The overwritten bytes are saved to \"" + journal.getName() + "\". Do you want to continue?",
+                "Repair in Place?", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (returnVal != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        Settings.setProgressMonitor(new ProgressMonitor(this,
+                "Repairing " + base.getName(), "", 0, 0));
+        if (fc.repairInPlace(base, journal)) {
+
+            // the old checksums of the repaired file are not valid any more
+            Settings.setProgressMonitor(new ProgressMonitor(this,
+                    "Creating checksums", "", 0, 0));
+            if (tableModel.updateFile(base)) {
                 JOptionPane.showMessageDialog(this,
-                        "There was an error in writing the file \""
-                                + chooser.getSelectedFile().getName() + "\".",
-                        "Error", JOptionPane.ERROR_MESSAGE);
+                        "The file \"" + base.getName() + "\" was repaired and its checksums were made again.",
+                        "Repair in Place", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(this,
+                        "The file \"" + base.getName() + "\" was repaired, but its new checksums could not be "
+                                + "compared with\nthe other files, so it was removed from the comparison.",
+                        "Repair in Place", JOptionPane.WARNING_MESSAGE);
             }
+        } else {
+            JOptionPane.showMessageDialog(this,
+                    "There was an error in repairing the file \"" + base.getName() + "\".",
+                    "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     /**
-     * Creates a new ChecksumFile and adds it to the Comparison.
+     * Lets the user select a directory and writes all the possible combinations to it at once. The files are named
+     * after the comparison and numbered.
+     *
+     * @see FileCombination#writeFiles(FileCombination[], File[])
      */
-    public void createAndAddChecksumFile() {
-        File inputFile;
-        File outputFile;
+    public void writePossibleCombinations() {
+        FileCombination[] fc = tableModel.createPossibleCombinations();
+        if (fc == null || fc.length == 0) {
+            JOptionPane.showMessageDialog(this,
+                    (fc == null) ? "There are too many possible combinations." : "There are no possible combinations.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Write " + fc.length + " Combinations to Directory");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File[] files = new File[fc.length];
+        boolean exists = false;
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(chooser.getSelectedFile(), tableModel.getName() + "." + (i + 1));
+            exists |= files[i].exists();
+        }
+        if (exists && JOptionPane.showConfirmDialog(this,
+                "Some of the files " + files[0].getName() + " - " + files[files.length - 1].getName()
+                        + " exist. Do you want to overwrite them?",
+                "Overwrite Files?", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE)
+                != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        Settings.setProgressMonitor(new ProgressMonitor(this,
+                "Writing " + fc.length + " combinations", "", 0, 0));
+        Settings.setCurrentDirectory(chooser.getSelectedFile());
+        if (FileCombination.writeFiles(fc, files) < 0) {
+            JOptionPane.showMessageDialog(this,
+                    "There was an error in writing the files.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Lets the user select a file and writes a combination to it. If the user chooses to verify the output, the parts
+     * are checked against the checksums of the files while writing, which is slower than plain writing, and the
+     * checksums of the output are added to the comparison.
+     */
+    private void writeOutput(FileCombination fc) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        JCheckBox verify = new JCheckBox("<html>Verify the parts<br>and add the output<br>to the comparison</html>");
+        verify.setEnabled(tableModel.getPartLength() > 0);
+        chooser.setAccessory(verify);
+
+        boolean ok = false;
+        do {
+            int returnVal = chooser.showSaveDialog(this);
+            if (returnVal == JFileChooser.APPROVE_OPTION) {
+
+                if (chooser.getSelectedFile().exists()) {
+                    returnVal = JOptionPane.showConfirmDialog(this,
+                            "The selected file exists. Do you want to overwrite it?",
+                            "Overwrite File?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+                    if (returnVal == JOptionPane.YES_OPTION) {
+                        ok = true;
+                    } else if (returnVal == JOptionPane.NO_OPTION) {
+                        ok = false;
+                    } else if (returnVal == JOptionPane.CANCEL_OPTION) {
+                        return;
+                    }
+                } else {
+                    ok = true;
+                }
+
+            } else {
+                return;
+            }
+        } while (!ok);
+
+        // start writing
+        Settings.setProgressMonitor(new ProgressMonitor(this,
+                "Writing output", "", 0, 0));
+
+        boolean successful;
+        if (verify.isSelected()) {
+            ChecksumFile cf = fc.writeVerifiedFile(chooser.getSelectedFile(),
+                    tableModel.getPartLength(), tableModel.getAlgorithm());
+            successful = cf != null;
+            addChecksumFile(cf);
+        } else {
+            successful = fc.writeFile(chooser.getSelectedFile());
+        }
+        Settings.setCurrentDirectory(chooser.getSelectedFile());
+        if (!successful) {
+            JOptionPane.showMessageDialog(this,
+                    "There was an error in writing the file \""
+                            + chooser.getSelectedFile().getName() + "\", or some of the files have changed "
+                            + "since their checksums were made.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Creates new ChecksumFiles and adds them to the Comparison. Many files can be selected at once, in which case their
+     * checksums are created in parallel.
+     */
+    public void createAndAddChecksumFiles() {
+        File[] inputFiles;
         String algorithm;
+        String[] algorithms;
         long partLength;
 
-        // select input file, algorithm and part length
+        // select input files, algorithm and part length
         CreateChecksumsFileChooser chooser = new CreateChecksumsFileChooser();
         chooser.setCurrentDirectory(Settings.getCurrentDirectory());
+        chooser.setMultiSelectionEnabled(true);
 
         algorithm = tableModel.getAlgorithm();
         partLength = tableModel.getPartLength();
@@ -285,71 +544,89 @@ public class ComparisonPanel extends TabPanel {
 
         int returnVal = chooser.showOpenDialog(this);
 
-        if (returnVal == JFileChooser.APPROVE_OPTION) {
+        if (returnVal == JFileChooser.APPROVE_OPTION && chooser.getSelectedFiles().length > 0) {
             algorithm = chooser.getAlgorithm();
+            algorithms = chooser.getAlgorithms();
             partLength = chooser.getPartLength();
+            inputFiles = chooser.getSelectedFiles();
 
             Settings.setDefaultAlgorithm(algorithm);
             Settings.setDefaultPartLength(partLength);
-            Settings.setCurrentDirectory(chooser.getSelectedFile());
+            Settings.setCurrentDirectory(inputFiles[0]);
 
-            if (chooser.getSelectedFile().isFile()) {
-                inputFile = chooser.getSelectedFile();
-            } else {
-                JOptionPane.showMessageDialog(this,
-                        "This is not a file.",
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                return;
+            for (File inputFile : inputFiles) {
+                if (!inputFile.isFile()) {
+                    JOptionPane.showMessageDialog(this,
+                            "This is not a file: " + inputFile,
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
             }
         } else {
             return;
         }
 
-        // select where to save the output file
-        outputFile = new File(inputFile.getAbsolutePath() + ".ccf");
-
-        // check input file
-        if (!inputFile.exists() || !inputFile.canRead()) {
-            JOptionPane.showMessageDialog(this,
-                    "Unable to read " + inputFile,
-                    "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        // check output file
-        try {
-            if (!(outputFile.exists() && outputFile.canWrite()) && !(outputFile.createNewFile() && outputFile.canWrite())) {
+        // check input and output files
+        for (File inputFile : inputFiles) {
+            if (!inputFile.exists() || !inputFile.canRead()) {
                 JOptionPane.showMessageDialog(this,
-                        "Unable to write " + outputFile,
+                        "Unable to read " + inputFile,
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (!isWritable(checksumFileFor(inputFile))) {
+                JOptionPane.showMessageDialog(this,
+                        "Unable to write " + checksumFileFor(inputFile),
                         "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    "Unable to write " + outputFile,
-                    "Error", JOptionPane.ERROR_MESSAGE);
-            return;
         }
 
         // do the checksums
         Settings.setProgressMonitor(new ProgressMonitor(this,
                 "Creating checksums", "", 0, 0));
 
-        ChecksumFile cf = ChecksumFile.createChecksumFile(inputFile, partLength, algorithm);
+        ChecksumFile[] created = ChecksumFile.createChecksumFiles(inputFiles, partLength, algorithms);
 
-        if (cf == null) {
+        Vector<ChecksumFile> successful = new Vector<ChecksumFile>();
+        StringBuffer errors = new StringBuffer();
+        for (int i = 0; i < created.length; i++) {
+            ChecksumFile cf = created[i];
+            if (cf == null) {
+                errors.append("\nAn error happened in making the checksum file for " + inputFiles[i]);
+            } else {
+                File outputFile = checksumFileFor(inputFiles[i]);
+                if (!cf.saveToFile(outputFile)) {
+                    errors.append("\nThere was an error in writing " + outputFile);
+                }
+                successful.add(cf);
+            }
+        }
+        tableModel.addFiles(successful.toArray(new ChecksumFile[successful.size()]));
+
+        if (errors.length() > 0) {
             JOptionPane.showMessageDialog(this,
-                    "An error happened in making the checksum file.",
+                    errors.toString().trim(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        } else {
-            if (!cf.saveToFile(outputFile)) {
-                JOptionPane.showMessageDialog(this,
-                        "There was an error in writing " + outputFile,
-                        "Error", JOptionPane.ERROR_MESSAGE);
-            }
-            addChecksumFile(cf);
-            System.out.println("OK");
+        }
+    }
+
+    /**
+     * Returns where the ChecksumFile of the given file is saved.
+     */
+    private static File checksumFileFor(File inputFile) {
+        return new File(inputFile.getAbsolutePath() + "." + ChecksumFile.FILE_EXTENSION);
+    }
+
+    /**
+     * Checks that the file can be written, creating it if it does not exist.
+     */
+    private static boolean isWritable(File outputFile) {
+        try {
+            return (outputFile.exists() && outputFile.canWrite()) || (outputFile.createNewFile() && outputFile.canWrite());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
     }
 
@@ -436,6 +713,24 @@ public class ComparisonPanel extends TabPanel {
             ChecksumFile cf = ChecksumFile.loadFromFile(chooser.getSelectedFile());
             Settings.setCurrentDirectory(chooser.getSelectedFile());
             if (cf != null) {
+                long partLength = tableModel.getCommonPartLength(cf);
+                if (partLength > tableModel.getPartLength() && tableModel.getPartLength() > 0) {
+                    returnVal = JOptionPane.showConfirmDialog(this,
+                            "The checksums of \"" + chooser.getSelectedFile().getName() + "\" were made with a "
+                                    + "longer part length. Do you want to compare all files\nwith a part length of "
+                                    + partLength + " bytes using only their CRC-32 checksums? "
+                                    + "This undoes refining and\nclears the marks that differ within a longer part.",
+                            "Use Longer Parts?", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                    if (returnVal != JOptionPane.YES_OPTION) {
+                        return;
+                    }
+                    if (!tableModel.coarsen(partLength)) {
+                        JOptionPane.showMessageDialog(this,
+                                "The files can not be compared with a part length of " + partLength + " bytes.",
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                }
                 tableModel.addFile(cf);
             } else {
                 JOptionPane.showMessageDialog(this,
@@ -614,6 +909,66 @@ public class ComparisonPanel extends TabPanel {
         tableModel.markGoodParts(0, table.getRowCount() - 1);
     }
 
+    /**
+     * Switches between sorting the rows by their confidence and showing them in the order of the parts.
+     */
+    public void switchSortByConfidence() {
+        tableModel.setSortedByConfidence(!tableModel.isSortedByConfidence());
+    }
+
+    /**
+     * Lets the user select how confident rows are hidden, so that only the doubtful rows are shown.
+     */
+    public void selectMaxConfidence() {
+        Object selected = JOptionPane.showInputDialog(this,
+                "Show only the rows whose confidence is at most (%):",
+                "Filter by Confidence", JOptionPane.QUESTION_MESSAGE, null,
+                null, Long.toString(Math.round(tableModel.getMaxConfidence() * 100)));
+        if (selected == null) {
+            return;
+        }
+        try {
+            int percent = Integer.parseInt(selected.toString().trim());
+            tableModel.setMaxConfidence(Math.max(0, Math.min(100, percent)) / 100.0);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this,
+                    "The confidence must be a number from 0 to 100.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Asks the user for the smallest part length, and divides the differing parts into smaller parts until they are
+     * that small.
+     *
+     * @see Comparison#refine(long)
+     */
+    public void refineDifferences() {
+        Object selected = JOptionPane.showInputDialog(this,
+                "Divide the differing parts until they are at most this long (KB):",
+                "Refine Differences", JOptionPane.QUESTION_MESSAGE, null,
+                null, Long.toString(Math.max(1, tableModel.getPartLength() / 2 / 1024)));
+        if (selected == null) {
+            return;
+        }
+        try {
+            long minPartLength = Long.parseLong(selected.toString().trim()) * 1024;
+            Settings.setProgressMonitor(new ProgressMonitor(this,
+                    "Refining differences", "", 0, 0));
+            if (!tableModel.refine(minPartLength)) {
+                JOptionPane.showMessageDialog(this,
+                        "The differing parts could not be divided. The part length may already be the smallest\n"
+                                + "possible, some of the files may have been moved or changed, or refining was "
+                                + "cancelled.",
+                        "Refine Differences", JOptionPane.INFORMATION_MESSAGE);
+            }
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this,
+                    "The part length must be a number.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /**
      * Sets all parts in the table to MARK_IS_UNDEFINED.
      */
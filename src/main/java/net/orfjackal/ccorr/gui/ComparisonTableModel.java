@@ -8,9 +8,17 @@ import net.orfjackal.ccorr.*;
 
 import javax.swing.table.AbstractTableModel;
 import java.io.File;
+import java.util.*;
 
 /**
- * A <code>TableModel</code> for showing a <code>Comparison</code> in a <code>JTable</code>.
+ * A <code>TableModel</code> for showing a <code>Comparison</code> in a <code>JTable</code>. Each block of the
+ * comparison is shown as one row, which can be expanded to show each difference of the block in its own row. Setting a
+ * mark on the row of a block sets it for all the differences of the block.
+ * <p/>
+ * The rows can be sorted by the confidence of the guessed good parts, and the rows with a high confidence can be
+ * hidden, so that the user can check the doubtful rows first.
+ *
+ * @see Comparison#getBlocks()
  *
  * @author Esko Luontola
  */
@@ -36,6 +44,40 @@ public class ComparisonTableModel extends AbstractTableModel {
     private static final int SHOW_KILOBYTES = 2;
     private static final int SHOW_MEGABYTES = 3;
 
+    /**
+     * The first and last difference shown on each row if the rows are sorted or filtered, otherwise null. Without
+     * sorting the rows are found out on demand from the blocks of the comparison, so that the memory used does not
+     * depend on the number of rows.
+     */
+    private int[] rowStart = null;
+    private int[] rowEnd = null;
+
+    private int rowCount = 0;
+
+    /**
+     * The indexes of the expanded blocks in ascending order, and the index of the first row of each of them.
+     */
+    private int[] expandedBlockIndexes = new int[0];
+    private int[] expandedFirstRows = new int[0];
+
+    /**
+     * The first parts of the blocks that are expanded. Parts are used instead of the indexes of the blocks, so that
+     * the blocks stay expanded when the comparison is updated.
+     */
+    private final Set<Integer> expandedBlocks = new HashSet<Integer>();
+
+    /**
+     * Whether the rows are sorted by their confidence, the least confident first.
+     *
+     * @see Comparison#getConfidence(int)
+     */
+    private boolean sortedByConfidence = false;
+
+    /**
+     * The rows whose confidence is higher than this are hidden.
+     */
+    private double maxConfidence = 1.0;
+
     /**
      * Creates a new instance of this class.
      *
@@ -46,6 +88,255 @@ public class ComparisonTableModel extends AbstractTableModel {
             comparison = new Comparison();
         }
         this.comparison = comparison;
+        this.updateRows();
+    }
+
+    /**
+     * Finds out which differences are shown on which rows.
+     */
+    private void updateRows() {
+        int blocks = Math.max(0, comparison.getBlocks());
+
+        // only a few blocks are expanded, so they are looked up by their first parts instead of checking every block
+        int[] expanded = new int[expandedBlocks.size()];
+        int count = 0;
+        for (int part : expandedBlocks) {
+            int difference = findDifference(part);
+            if (difference >= 0 && blocks > 0) {
+                int block = comparison.getBlock(difference);
+                if (comparison.getBlockStart(block) == difference) {
+                    expanded[count] = block;
+                    count++;
+                }
+            }
+        }
+        expandedBlockIndexes = Arrays.copyOf(expanded, count);
+        Arrays.sort(expandedBlockIndexes);
+        expandedFirstRows = new int[count];
+        int extraRows = 0;
+        for (int i = 0; i < count; i++) {
+            int block = expandedBlockIndexes[i];
+            expandedFirstRows[i] = block + extraRows;
+            extraRows += comparison.getBlockEnd(block) - comparison.getBlockStart(block);
+        }
+
+        rowStart = null;
+        rowEnd = null;
+        rowCount = blocks + extraRows;
+        if (sortedByConfidence || maxConfidence < 1.0) {
+            sortAndFilterRows();
+        }
+    }
+
+    /**
+     * Returns the index of the difference in the given part, or -1 if the part does not differ.
+     */
+    private int findDifference(int part) {
+        int low = 0;
+        int high = comparison.getDifferences() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int p = comparison.getPart(middle);
+            if (p < part) {
+                low = middle + 1;
+            } else if (p > part) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first difference shown on a row.
+     */
+    private int getRowStart(int row) {
+        return (rowStart != null) ? rowStart[row] : findRowDifference(row, false);
+    }
+
+    /**
+     * Returns the last difference shown on a row.
+     */
+    private int getRowEnd(int row) {
+        return (rowEnd != null) ? rowEnd[row] : findRowDifference(row, true);
+    }
+
+    /**
+     * Finds out the first or last difference on a row from the blocks, when the rows are in the order of the parts.
+     * Each block is one row, except that the expanded blocks have one row per difference.
+     */
+    private int findRowDifference(int row, boolean last) {
+        int block = row;
+        int i = Arrays.binarySearch(expandedFirstRows, row);
+        if (i < 0) {
+            i = -i - 2;         // the last expanded block that begins before the row
+        }
+        if (i >= 0) {
+            int first = comparison.getBlockStart(expandedBlockIndexes[i]);
+            int size = comparison.getBlockEnd(expandedBlockIndexes[i]) - first + 1;
+            int offset = row - expandedFirstRows[i];
+            if (offset < size) {
+                return first + offset;
+            }
+            block = expandedBlockIndexes[i] + (offset - size) + 1;
+        }
+        return last ? comparison.getBlockEnd(block) : comparison.getBlockStart(block);
+    }
+
+    /**
+     * Hides the rows that are too confident and sorts the rest by their confidence. The differences of a block have
+     * the same checksums in the same files, so the first one tells the confidence of all.
+     */
+    private void sortAndFilterRows() {
+        long[] keys = new long[rowCount];
+        int rows = 0;
+        for (int row = 0; row < rowCount; row++) {
+            float confidence = (float) comparison.getConfidence(getRowStart(row));
+            if (confidence > maxConfidence) {
+                continue;
+            }
+            // non-negative floats are in the same order as their bits, and the row index keeps the sort stable
+            keys[rows] = row;
+            if (sortedByConfidence) {
+                keys[rows] |= (long) Float.floatToIntBits(confidence) << 32;
+            }
+            rows++;
+        }
+        Arrays.sort(keys, 0, rows);
+
+        int[] newStart = new int[rows];
+        int[] newEnd = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            int row = (int) keys[i];
+            newStart[i] = getRowStart(row);
+            newEnd[i] = getRowEnd(row);
+        }
+        rowStart = newStart;
+        rowEnd = newEnd;
+        rowCount = rows;
+    }
+
+    /**
+     * Returns the differences shown on the given rows as ranges, so that the ranges are in order and adjacent ranges
+     * are joined.
+     *
+     * @param rows the indexes of the rows
+     * @return the first and last difference of each range, one after the other
+     */
+    private int[] getDifferenceRanges(int[] rows) {
+        long[] differences = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            differences[i] = ((long) getRowStart(rows[i]) << 32) | getRowEnd(rows[i]);
+        }
+        Arrays.sort(differences);
+
+        int[] ranges = new int[differences.length * 2];
+        int count = 0;
+        for (long d : differences) {
+            int first = (int) (d >>> 32);
+            int last = (int) d;
+            if (count > 0 && ranges[count - 1] + 1 >= first) {
+                ranges[count - 1] = Math.max(ranges[count - 1], last);
+            } else {
+                ranges[count] = first;
+                ranges[count + 1] = last;
+                count += 2;
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    /**
+     * Returns the differences shown on the rows from <code>start</code> to <code>end</code> as ranges.
+     *
+     * @see #getDifferenceRanges(int[])
+     */
+    private int[] getDifferenceRanges(int start, int end) {
+        if (rowStart == null) {
+            // the rows are in the order of the parts, so they show one range of differences
+            return new int[]{getRowStart(start), getRowEnd(end)};
+        }
+        int[] rows = new int[end - start + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = start + i;
+        }
+        return getDifferenceRanges(rows);
+    }
+
+    /**
+     * Returns whether the rows are sorted by their confidence.
+     */
+    public boolean isSortedByConfidence() {
+        return sortedByConfidence;
+    }
+
+    /**
+     * Sorts the rows by their confidence, the least confident first, or shows them in the order of the parts.
+     *
+     * @param sorted true to sort by confidence, false to sort by parts
+     * @see Comparison#getConfidence(int)
+     */
+    public void setSortedByConfidence(boolean sorted) {
+        this.sortedByConfidence = sorted;
+        updateRows();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Returns the highest confidence of the rows that are shown.
+     */
+    public double getMaxConfidence() {
+        return maxConfidence;
+    }
+
+    /**
+     * Hides the rows whose confidence is higher than the given confidence.
+     *
+     * @param maxConfidence the highest confidence that is shown, or 1.0 to show all rows
+     * @see Comparison#getConfidence(int)
+     */
+    public void setMaxConfidence(double maxConfidence) {
+        this.maxConfidence = maxConfidence;
+        updateRows();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Updates the rows and notifies the listeners after the comparison has been updated.
+     */
+    private void fireComparisonChanged() {
+        updateRows();
+        fireTableStructureChanged();
+    }
+
+    /**
+     * Returns whether the row shows a block of many differences.
+     */
+    public boolean isBlock(int row) {
+        return row >= 0 && row < rowCount && getRowStart(row) != getRowEnd(row);
+    }
+
+    /**
+     * Expands the block on the given row, so that each of its differences is shown on its own row, or collapses the
+     * expanded block to which the difference on the given row belongs.
+     *
+     * @param row the index of the row
+     */
+    public void toggleExpanded(int row) {
+        if (row < 0 || row >= rowCount) {
+            return;
+        }
+        int block = comparison.getBlock(getRowStart(row));
+        if (comparison.getBlockStart(block) == comparison.getBlockEnd(block)) {
+            return;
+        }
+        Integer firstPart = comparison.getPart(comparison.getBlockStart(block));
+        if (!expandedBlocks.remove(firstPart)) {
+            expandedBlocks.add(firstPart);
+        }
+        updateRows();
+        fireTableDataChanged();
     }
 
     /**
@@ -59,7 +350,7 @@ public class ComparisonTableModel extends AbstractTableModel {
      * Returns the number of rows in the model.
      */
     public int getRowCount() {
-        return this.comparison.getDifferences();
+        return this.rowCount;
     }
 
     /**
@@ -85,6 +376,12 @@ public class ComparisonTableModel extends AbstractTableModel {
             }
         } else {
             result = this.comparison.getFile(columnIndex - 1).getSourceFile().getName();
+
+            // exact duplicates are compared only once, so tell which file they are a duplicate of
+            int representative = this.comparison.getRepresentative(columnIndex - 1);
+            if (representative != columnIndex - 1) {
+                result = result + " (= " + this.comparison.getFile(representative).getSourceFile().getName() + ")";
+            }
         }
         return result;
     }
@@ -95,27 +392,36 @@ public class ComparisonTableModel extends AbstractTableModel {
     public Object getValueAt(int rowIndex, int columnIndex) {
         final int DECIMALS = 100;
         Object result;
+        if (rowIndex < 0 || rowIndex >= rowCount) {
+            return null;
+        }
+        int start = getRowStart(rowIndex);
+        int end = getRowEnd(rowIndex);
         if (columnIndex == 0) {
             switch (showMode) {
                 default:
                 case SHOW_PARTS:
-                    result = Integer.toString(comparison.getPart(rowIndex) + 1);
+                    result = Integer.toString(comparison.getPart(start) + 1);
+                    if (start != end) {
+                        result = result + "-" + (comparison.getPart(end) + 1);
+                    }
                     break;
                 case SHOW_BYTES:
-                    result = comparison.getStartOffset(rowIndex)
-                            + "-" + comparison.getEndOffset(rowIndex);
+                    result = comparison.getStartOffset(start)
+                            + "-" + comparison.getEndOffset(end);
                     break;
                 case SHOW_KILOBYTES:
-                    result = (double) Math.round((double) comparison.getStartOffset(rowIndex) / 1024 * DECIMALS) / DECIMALS
-                            + "-" + (double) Math.round((double) comparison.getEndOffset(rowIndex) / 1024 * DECIMALS) / DECIMALS;
+                    result = (double) Math.round((double) comparison.getStartOffset(start) / 1024 * DECIMALS) / DECIMALS
+                            + "-" + (double) Math.round((double) comparison.getEndOffset(end) / 1024 * DECIMALS) / DECIMALS;
                     break;
                 case SHOW_MEGABYTES:
-                    result = (double) Math.round((double) comparison.getStartOffset(rowIndex) / 1024 / 1024 * DECIMALS) / DECIMALS
-                            + "-" + (double) Math.round((double) comparison.getEndOffset(rowIndex) / 1024 / 1024 * DECIMALS) / DECIMALS;
+                    result = (double) Math.round((double) comparison.getStartOffset(start) / 1024 / 1024 * DECIMALS) / DECIMALS
+                            + "-" + (double) Math.round((double) comparison.getEndOffset(end) / 1024 / 1024 * DECIMALS) / DECIMALS;
                     break;
             }
         } else {
-            result = this.comparison.getItem(rowIndex, columnIndex - 1);
+            // the differences of a block have the same checksums in the same files, so the first one represents all
+            result = this.comparison.getItem(start, columnIndex - 1);
         }
         return result;
     }
@@ -157,7 +463,7 @@ public class ComparisonTableModel extends AbstractTableModel {
     public void doCompare() {
         this.isModified = true;
         this.comparison.doCompare();
-        this.fireTableStructureChanged();
+        this.fireComparisonChanged();
     }
 
     /**
@@ -175,23 +481,28 @@ public class ComparisonTableModel extends AbstractTableModel {
     }
 
     /**
-     * Represents the corresponding method in the comparison.
+     * Sets the mark of all the differences on the given row.
      */
     public void setMark(int row, int col, int mark) {
         isModified = true;
-        comparison.setMark(row, col - 1, mark);
+        comparison.setMarks(getRowStart(row), getRowEnd(row), new int[]{col - 1}, mark);
         fireTableRowsUpdated(row, row);
     }
 
     /**
-     * Represents the corresponding method in the comparison.
+     * Returns the mark of all the differences on the given row, or -1 if they have different marks.
      */
     public int getMark(int row, int col) {
-        return comparison.getMark(row, col - 1);
+        if (isBlock(row)) {
+            return comparison.getBlockMark(comparison.getBlock(getRowStart(row)), col - 1);
+        } else {
+            return comparison.getMark(getRowStart(row), col - 1);
+        }
     }
 
     /**
-     * Set multiple markers at once.
+     * Set multiple markers at once. The markers are set in one pass over the differences, and the listeners are
+     * notified only once.
      */
     public boolean setMarks(int[] rows, int[] cols, int mark) {
 
@@ -201,7 +512,7 @@ public class ComparisonTableModel extends AbstractTableModel {
         }
 
         // do not allow the first column to be set
-        if (cols[0] == 0) {
+        if (cols[0] == 0 || rows.length == 0) {
             return false;
         }
 
@@ -216,12 +527,24 @@ public class ComparisonTableModel extends AbstractTableModel {
             }
         }
 
-        // set the markers
+        // set the markers; all the ranges have the same old marker, so NEXT_MARK gives the same marker in all
+        int[] files = new int[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            files[i] = cols[i] - 1;
+        }
+        int[] ranges = getDifferenceRanges(rows);
+        for (int i = 0; i < ranges.length; i += 2) {
+            comparison.setMarks(ranges[i], ranges[i + 1], files, mark);
+        }
+        isModified = true;
+
+        int first = rows[0];
+        int last = rows[0];
         for (int row : rows) {
-            for (int col : cols) {
-                setMark(row, col, mark);
-            }
+            first = Math.min(first, row);
+            last = Math.max(last, row);
         }
+        fireTableRowsUpdated(first, last);
         return true;
     }
 
@@ -229,10 +552,8 @@ public class ComparisonTableModel extends AbstractTableModel {
      * Represents the corresponding method in the comparison.
      */
     public int nextMark(int row, int col) {
-        isModified = true;
-        int result = this.comparison.nextMark(row, col - 1);
-        fireTableRowsUpdated(row, row);
-        return result;
+        setMark(row, col, Comparison.NEXT_MARK);
+        return getMark(row, col);
     }
 
     /**
@@ -271,6 +592,55 @@ public class ComparisonTableModel extends AbstractTableModel {
         return comparison.getAlgorithm();
     }
 
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public void setAlgorithm(String algorithm) {
+        if (comparison.setAlgorithm(algorithm)) {
+            isModified = true;
+            comparison.doCompare();
+            fireComparisonChanged();
+        }
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public long getCommonPartLength(ChecksumFile file) {
+        return comparison.getCommonPartLength(file);
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public boolean coarsen(long partLength) {
+        if (comparison.coarsen(partLength)) {
+            isModified = true;
+            fireComparisonChanged();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public boolean refine(long minPartLength) {
+        if (comparison.refine(minPartLength)) {
+            isModified = true;
+            fireComparisonChanged();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Represents the corresponding method in the comparison.
+     */
+    public String[] getCommonAlgorithms() {
+        return comparison.getCommonAlgorithms();
+    }
+
     /**
      * Represents the corresponding method in the comparison.
      */
@@ -285,7 +655,54 @@ public class ComparisonTableModel extends AbstractTableModel {
         isModified = true;
         comparison.addFile(file);
         comparison.doCompare();
-        fireTableStructureChanged();
+        fireComparisonChanged();
+    }
+
+    /**
+     * Adds many files to the comparison, comparing them only once after all of them have been added.
+     */
+    public void addFiles(ChecksumFile[] files) {
+        isModified = true;
+        for (ChecksumFile file : files) {
+            comparison.addFile(file);
+        }
+        comparison.doCompare();
+        fireComparisonChanged();
+    }
+
+    /**
+     * Makes the checksums of a file of the comparison again after the file has changed, and replaces its old checksums
+     * in the comparison with them. If the old checksums were saved to a file, the new checksums are saved over them.
+     * A ProgressMonitor is used if available.
+     *
+     * @param sourceFile the file that has changed
+     * @return true if the new checksums were added to the comparison, false if the old checksums were only removed or
+     *         the file is not in the comparison
+     * @see Settings#setProgressMonitor(javax.swing.ProgressMonitor)
+     */
+    public boolean updateFile(File sourceFile) {
+        ChecksumFile old = null;
+        for (int i = 0; i < comparison.getFiles() && old == null; i++) {
+            if (comparison.getFile(i).getSourceFile().equals(sourceFile)) {
+                old = comparison.getFile(i);
+            }
+        }
+        if (old == null) {
+            return false;
+        }
+        isModified = true;
+        comparison.removeFile(old);
+        ChecksumFile cf = ChecksumFile.createChecksumFile(sourceFile, old.getPartLength(), old.getAlgorithms());
+        int files = comparison.getFiles();
+        if (cf != null) {
+            if (old.getSavedAsFile() != null) {
+                cf.saveToFile(old.getSavedAsFile());
+            }
+            comparison.addFile(cf);
+        }
+        comparison.doCompare();
+        fireComparisonChanged();
+        return comparison.getFiles() > files;
     }
 
     /**
@@ -295,7 +712,7 @@ public class ComparisonTableModel extends AbstractTableModel {
         isModified = true;
         comparison.removeFile(file);
         comparison.doCompare();
-        fireTableStructureChanged();
+        fireComparisonChanged();
     }
 
     /**
@@ -305,7 +722,7 @@ public class ComparisonTableModel extends AbstractTableModel {
         isModified = true;
         comparison.removeFile(index);
         comparison.doCompare();
-        fireTableStructureChanged();
+        fireComparisonChanged();
     }
 
     /**
@@ -314,7 +731,7 @@ public class ComparisonTableModel extends AbstractTableModel {
     public void fireFileRelocated() {
         isModified = true;
         comparison.doCompare();
-        fireTableStructureChanged();
+        fireComparisonChanged();
     }
 
     /**
@@ -324,6 +741,16 @@ public class ComparisonTableModel extends AbstractTableModel {
         return comparison.createGoodCombination();
     }
 
+    /**
+     * Compares the differing parts byte by byte and creates a combination of the bytes that the files agree on.
+     *
+     * @see Comparison#createCorruptionMap()
+     * @see Comparison#createByteCombination(CorruptionMap)
+     */
+    public FileCombination createByteCombination() {
+        return comparison.createByteCombination(comparison.createCorruptionMap());
+    }
+
     /**
      * Represents the corresponding method in the comparison.
      */
@@ -331,6 +758,32 @@ public class ComparisonTableModel extends AbstractTableModel {
         return comparison.getPossibleCombinations();
     }
 
+    /**
+     * Creates a search for the possible combination whose checksum is the given checksum.
+     *
+     * @return the search, or null if the comparison needs updating
+     * @see CombinationSearch
+     */
+    public CombinationSearch createCombinationSearch(String algorithm, String checksum) {
+        if (comparison.getDifferences() < 0) {
+            return null;
+        }
+        return new CombinationSearch(comparison, algorithm, checksum);
+    }
+
+    /**
+     * Creates a solver for the combinations whose CRC-32 is the given checksum.
+     *
+     * @return the solver, or null if the comparison needs updating
+     * @see Crc32Solver
+     */
+    public Crc32Solver createCrc32Solver(String crc32) {
+        if (comparison.getDifferences() < 0) {
+            return null;
+        }
+        return new Crc32Solver(comparison, crc32);
+    }
+
     /**
      * Represents the corresponding method in the comparison.
      */
@@ -360,7 +813,13 @@ public class ComparisonTableModel extends AbstractTableModel {
      * Represents the corresponding method in the comparison.
      */
     public boolean markGoodParts(int start, int end) {
-        boolean successful = this.comparison.markGoodParts(start, end);
+        boolean successful = start >= 0 && end < rowCount && start <= end;
+        if (successful) {
+            int[] ranges = getDifferenceRanges(start, end);
+            for (int i = 0; i < ranges.length; i += 2) {
+                successful &= this.comparison.markGoodParts(ranges[i], ranges[i + 1]);
+            }
+        }
         if (successful) {
             isModified = true;
             fireTableRowsUpdated(start, end);
@@ -372,7 +831,13 @@ public class ComparisonTableModel extends AbstractTableModel {
      * Represents the corresponding method in the comparison.
      */
     public boolean markRowUndefined(int start, int end) {
-        boolean successful = this.comparison.markRowUndefined(start, end);
+        boolean successful = start >= 0 && end < rowCount && start <= end;
+        if (successful) {
+            int[] ranges = getDifferenceRanges(start, end);
+            for (int i = 0; i < ranges.length; i += 2) {
+                successful &= this.comparison.markRowUndefined(ranges[i], ranges[i + 1]);
+            }
+        }
         if (successful) {
             isModified = true;
             fireTableRowsUpdated(start, end);
@@ -11,7 +11,8 @@ import javax.swing.text.NumberFormatter;
 import java.awt.*;
 
 /**
- * JFileChooser with extra fields for selecting the part length and algorithm.
+ * JFileChooser with extra fields for selecting the part length and algorithm. Optionally the checksums can be made
+ * also with a second algorithm, for example for cross-checking the file against published hashes.
  *
  * @author Esko Luontola
  */
@@ -21,6 +22,10 @@ public class CreateChecksumsFileChooser extends JFileChooser {
 
     private JComboBox algorithmField;
 
+    private JComboBox extraAlgorithmField;
+
+    private static final String NO_EXTRA_ALGORITHM = "None";
+
     public CreateChecksumsFileChooser() {
         initAlgorithmInputField();
         initPartLengthInputField();
@@ -59,12 +64,23 @@ public class CreateChecksumsFileChooser extends JFileChooser {
         p.add(new JLabel("Algorithm:  "));
         p.add(algorithmField);
 
+        p.add(Box.createRigidArea(new Dimension(20, 10)));
+
+        p.add(new JLabel("Also:  "));
+        p.add(extraAlgorithmField);
+
         return p;
     }
 
     private void initAlgorithmInputField() {
         algorithmField = new JComboBox(CRC.getSupportedAlgorithms());
         algorithmField.setSelectedItem(Settings.getDefaultAlgorithm());
+
+        extraAlgorithmField = new JComboBox();
+        extraAlgorithmField.addItem(NO_EXTRA_ALGORITHM);
+        for (String algorithm : CRC.getSupportedAlgorithms()) {
+            extraAlgorithmField.addItem(algorithm);
+        }
     }
 
     private void initPartLengthInputField() {
@@ -85,6 +101,18 @@ public class CreateChecksumsFileChooser extends JFileChooser {
         return (String) algorithmField.getSelectedItem();
     }
 
+    /**
+     * Returns the selected algorithms, the primary algorithm first.
+     */
+    public String[] getAlgorithms() {
+        String extra = (String) extraAlgorithmField.getSelectedItem();
+        if (extra == null || extra.equals(NO_EXTRA_ALGORITHM) || extra.equals(getAlgorithm())) {
+            return new String[]{getAlgorithm()};
+        } else {
+            return new String[]{getAlgorithm(), extra};
+        }
+    }
+
     public void setPartLength(long partLength) {
         partLengthField.setValue(partLength / 1024);
     }
@@ -96,6 +124,7 @@ public class CreateChecksumsFileChooser extends JFileChooser {
 
     public void setOptionsEnabled(boolean b) {
         algorithmField.setEnabled(b);
+        extraAlgorithmField.setEnabled(b);
         partLengthField.setEnabled(b);
     }
 }
\ No newline at end of file
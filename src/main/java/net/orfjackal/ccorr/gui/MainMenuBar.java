@@ -210,6 +210,100 @@ public class MainMenuBar extends JMenuBar {
         });
         menu.add(menuItem);
 
+        menu.addSeparator();
+
+        menuItem = new JMenuItem("Sort by Confidence", KeyEvent.VK_S);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    panel.switchSortByConfidence();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Filter by Confidence...", KeyEvent.VK_F);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    panel.selectMaxConfidence();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menu.addSeparator();
+
+        menuItem = new JMenuItem("Refine Differences...", KeyEvent.VK_R);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.refineDifferences();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Find Combination...", KeyEvent.VK_C);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.findCombination();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Write Possible Combinations...", KeyEvent.VK_W);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.writePossibleCombinations();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
+        menuItem = new JMenuItem("Repair in Place...", KeyEvent.VK_P);
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (parent.getSelectedTab() instanceof ComparisonPanel) {
+                    final ComparisonPanel panel = (ComparisonPanel) parent.getSelectedTab();
+                    Thread t = new Thread() {
+                        public void run() {
+                            panel.repairInPlace();
+                        }
+                    };
+                    t.setPriority(Thread.NORM_PRIORITY);
+                    t.start();
+                }
+            }
+        });
+        menu.add(menuItem);
+
         return menu;
     }
 
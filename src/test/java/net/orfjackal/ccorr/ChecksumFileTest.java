@@ -8,6 +8,7 @@ import org.junit.*;
 
 import javax.swing.*;
 import java.io.*;
+import java.util.Arrays;
 
 import static net.orfjackal.ccorr.TestDataUtil.*;
 import static org.mockito.Mockito.*;
@@ -94,6 +95,45 @@ public class ChecksumFileTest extends Assert {
         verify(monitor, atLeastOnce()).setProgress(100);
     }
 
+    @Test
+    public void the_checksums_of_many_files_can_be_calculated_at_once() throws IOException {
+        File file1 = util.createDummyFile(PART_LENGTH * 2);
+        File file2 = util.createDummyFile(PART_LENGTH * 3);
+        File missing = util.uniqueFile();
+
+        ChecksumFile[] cfs = ChecksumFile.createChecksumFiles(new File[]{file1, missing, file2}, PART_LENGTH, ALGORITHM);
+
+        assertEquals(3, cfs.length);
+        assertEquals(file1, cfs[0].getSourceFile());
+        assertEquals(2, cfs[0].getParts());
+        assertEquals("B70B4C26", cfs[0].getChecksum(1));
+        assertNull(cfs[1]);
+        assertEquals(file2, cfs[2].getSourceFile());
+        assertEquals(3, cfs[2].getParts());
+        assertEquals("B70B4C26", cfs[2].getChecksum(2));
+    }
+
+    @Test
+    public void the_parts_of_large_files_are_calculated_in_parallel() throws IOException {
+        int parts = (int) (ChecksumFile.PARALLEL_HASHING_MIN_LENGTH / PART_LENGTH) + 1;
+        int[] corruptParts = {0, 1000, parts - 2};
+
+        Settings.setWorkerThreads(4);
+        try {
+            ChecksumFile cf = util.createChecksumFile(PART_LENGTH * parts - 100,
+                    START_OFFSET_0, corruptParts[1] * PART_LENGTH, corruptParts[2] * PART_LENGTH);
+
+            assertEquals(parts, cf.getParts());
+            for (int part = 0; part < parts - 1; part++) {
+                boolean corrupt = Arrays.binarySearch(corruptParts, part) >= 0;
+                assertEquals("part " + part, corrupt ? "0761E377" : "B70B4C26", cf.getChecksum(part));
+            }
+            assertEquals("294D3872", cf.getChecksum(parts - 1));
+        } finally {
+            Settings.setWorkerThreads(0);
+        }
+    }
+
     @Test
     public void can_be_saved_to_a_file_and_loaded_from_it() throws IOException {
         ChecksumFile original = util.createChecksumFile(PART_LENGTH * 2);
@@ -110,6 +150,95 @@ public class ChecksumFileTest extends Assert {
         assertEquals(original.getSourceFileLength(), loaded.getSourceFileLength());
     }
 
+    @Test
+    public void a_halved_checksum_file_rereads_only_the_given_parts() throws IOException {
+        ChecksumFile coarse = util.createChecksumFile(PART_LENGTH * 7, PART_LENGTH * 2, ALGORITHM);
+        ChecksumFile fine = ChecksumFile.createChecksumFile(coarse.getSourceFile(), PART_LENGTH, ALGORITHM);
+
+        ChecksumFile halved = coarse.createHalvedChecksumFile(new int[]{1, 3});
+
+        assertEquals(PART_LENGTH, halved.getPartLength());
+        assertEquals(fine.getParts(), halved.getParts());
+        for (int part : new int[]{2, 3, 6}) {
+            assertEquals("part " + part, fine.getChecksum(part), halved.getChecksum(part));
+        }
+        assertEquals("inherited", coarse.getChecksum(0), halved.getChecksum(1));
+        assertEquals("inherited", coarse.getChecksum(2), halved.getChecksum(5));
+
+        File tmp = util.uniqueFile();
+        halved.saveToFile(tmp);
+        ChecksumFile loaded = ChecksumFile.loadFromFile(tmp);
+        assertEquals(halved.getChecksum(3), loaded.getChecksum(3));
+        assertEquals(halved.getChecksum(4), loaded.getChecksum(4));
+    }
+
+    @Test
+    public void MD5_checksums_can_be_saved_to_a_file_and_loaded_from_it() throws IOException {
+        ChecksumFile original = util.createChecksumFile(PART_LENGTH * 2, PART_LENGTH, "MD5");
+
+        File tmp = util.uniqueFile();
+        original.saveToFile(tmp);
+        ChecksumFile loaded = ChecksumFile.loadFromFile(tmp);
+
+        assertEquals(32, loaded.getChecksum(0).length());
+        assertEquals(original.getChecksum(0), loaded.getChecksum(0));
+        assertTrue(loaded.hasSameChecksum(1, original));
+    }
+
+    @Test
+    public void the_checksums_can_be_made_with_many_algorithms_at_once() throws IOException {
+        ChecksumFile md5Only = util.createChecksumFile(PART_LENGTH * 2, PART_LENGTH, "MD5");
+        ChecksumFile cf = util.createChecksumFile(PART_LENGTH * 2, new String[]{"CRC-32", "MD5", "CRC-32"});
+
+        assertEquals(Arrays.asList("CRC-32", "MD5"), Arrays.asList(cf.getAlgorithms()));
+        assertEquals("CRC-32", cf.getAlgorithm());
+        assertTrue(cf.hasAlgorithm("MD5"));
+        assertFalse(cf.hasAlgorithm("SHA-1"));
+
+        assertEquals("B70B4C26", cf.getChecksum(0));
+        assertEquals("B70B4C26", cf.getChecksum(0, "CRC-32"));
+        assertEquals(md5Only.getChecksum(1), cf.getChecksum(1, "MD5"));
+        assertEquals(null, cf.getChecksum(0, "SHA-1"));
+        assertTrue(cf.hasSameChecksum(1, md5Only, "MD5"));
+        assertFalse("no common algorithm", cf.hasSameChecksum(1, md5Only, "CRC-32"));
+    }
+
+    @Test
+    public void the_checksums_of_all_algorithms_are_saved_to_the_file() throws IOException {
+        ChecksumFile original = util.createChecksumFile(PART_LENGTH * 2, new String[]{"CRC-32", "SHA-1"});
+
+        File tmp = util.uniqueFile();
+        original.saveToFile(tmp);
+        ChecksumFile loaded = ChecksumFile.loadFromFile(tmp);
+
+        assertEquals(Arrays.asList(original.getAlgorithms()), Arrays.asList(loaded.getAlgorithms()));
+        assertEquals(original.getChecksum(0, "SHA-1"), loaded.getChecksum(0, "SHA-1"));
+    }
+
+    @Test
+    public void the_checksums_of_parts_can_be_compared_with_other_files() throws IOException {
+        ChecksumFile cf1 = util.createChecksumFile(PART_LENGTH * 2);
+        ChecksumFile cf2 = util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1);
+
+        assertTrue(cf1.hasSameChecksum(0, cf2));
+        assertEquals(cf1.getChecksumHashCode(0), cf2.getChecksumHashCode(0));
+        assertFalse(cf1.hasSameChecksum(1, cf2));
+        assertFalse("missing part", cf1.hasSameChecksum(2, cf2));
+    }
+
+    @Test
+    public void checksums_in_the_old_HEX_format_can_be_converted() throws IOException {
+        ChecksumFile cf = util.createChecksumFile(PART_LENGTH * 2 - 100);
+        String[] hex = {cf.getChecksum(0), cf.getChecksum(1), "0x00"};
+
+        PartChecksums converted = PartChecksums.fromHexValues(ALGORITHM, hex, PART_LENGTH, PART_LENGTH * 3 - 100);
+
+        assertEquals(3, converted.getParts());
+        assertEquals("B70B4C26", converted.getHexValue(0));
+        assertEquals("294D3872", converted.getHexValue(1));
+        assertEquals("0x00", converted.getHexValue(2));
+    }
+
     @Test
     public void the_source_file_can_be_relocated_if_the_file_size_is_the_same() throws IOException {
         int length = PART_LENGTH * 2;
@@ -132,4 +261,21 @@ public class ChecksumFileTest extends Assert {
 
         assertEquals(original, cf.getSourceFile());
     }
+
+    @Test
+    public void the_crc32_checksums_of_longer_parts_are_combined_from_the_checksums_of_the_parts()
+            throws IOException {
+        File file = util.createDummyFile(PART_LENGTH * 5 + 100);
+        ChecksumFile fine = ChecksumFile.createChecksumFile(file, PART_LENGTH, new String[]{"MD5", "CRC-32"});
+        ChecksumFile expected = ChecksumFile.createChecksumFile(file, PART_LENGTH * 2, "CRC-32");
+
+        ChecksumFile coarse = fine.createCoarserChecksumFile(PART_LENGTH * 2);
+
+        assertArrayEquals(new String[]{"CRC-32"}, coarse.getAlgorithms());
+        assertEquals(PART_LENGTH * 2, coarse.getPartLength());
+        assertEquals(expected.getParts(), coarse.getParts());
+        assertTrue(coarse.hasSameChecksums(expected, "CRC-32"));
+        assertSame(fine, fine.createCoarserChecksumFile(PART_LENGTH));
+        assertNull(fine.createCoarserChecksumFile(PART_LENGTH * 3 / 2));
+    }
 }
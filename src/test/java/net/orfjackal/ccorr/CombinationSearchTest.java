@@ -0,0 +1,91 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import org.junit.*;
+
+import java.io.IOException;
+
+import static net.orfjackal.ccorr.TestDataUtil.*;
+
+/**
+ * @author Esko Luontola
+ */
+public class CombinationSearchTest extends Assert {
+
+    private static final long LENGTH = PART_LENGTH * 4 + 100;
+
+    private TestDataUtil util = new TestDataUtil();
+
+    @Before
+    public void initUtil() throws IOException {
+        util.create();
+    }
+
+    @After
+    public void disposeUtil() {
+        util.dispose();
+    }
+
+    private Comparison eachFileCorruptInADifferentPart() throws IOException {
+        return compare(
+                util.createChecksumFile(LENGTH, START_OFFSET_0 + 5),
+                util.createChecksumFile(LENGTH, START_OFFSET_2 + 5),
+                util.createChecksumFile(LENGTH, START_OFFSET_3 + 5));
+    }
+
+    @Test
+    public void the_combination_with_the_known_checksum_is_found() throws IOException {
+        Comparison c = eachFileCorruptInADifferentPart();
+        String md5 = util.checksumOfDummyFile(LENGTH, "MD5");
+
+        CombinationSearch search = new CombinationSearch(c, "MD5", md5);
+        FileCombination found = search.search();
+
+        assertEquals(8, search.getCombinations());
+        assertNotNull(found);
+        assertEquals(md5, found.countChecksum("MD5"));
+    }
+
+    @Test
+    public void algorithms_whose_state_can_not_be_copied_count_each_combination_from_the_beginning()
+            throws IOException {
+        Comparison c = eachFileCorruptInADifferentPart();
+        String crc32 = util.checksumOfDummyFile(LENGTH, "CRC-32");
+
+        FileCombination found = new CombinationSearch(c, "CRC-32", crc32.toLowerCase()).search();
+
+        assertNotNull(found);
+        assertEquals(crc32, found.countChecksum("CRC-32"));
+    }
+
+    @Test
+    public void all_combinations_are_tried_when_none_matches() throws IOException {
+        Comparison c = eachFileCorruptInADifferentPart();
+
+        CombinationSearch search = new CombinationSearch(c, "SHA-1", "0000000000000000000000000000000000000000");
+
+        assertNull(search.search());
+        assertEquals(8, search.getTested());
+    }
+
+    @Test
+    public void files_with_the_same_checksum_are_tried_once_and_marks_limit_the_files_that_are_tried()
+            throws IOException {
+        Comparison c = compare(
+                util.createChecksumFile(LENGTH, START_OFFSET_1),
+                util.createChecksumFile(LENGTH, START_OFFSET_1),
+                util.createChecksumFile(LENGTH),
+                util.createChecksumFile(LENGTH, START_OFFSET_2, START_OFFSET_1 + 1));
+        assertEquals(2, c.getDifferences());
+        assertEquals(3 * 2, new CombinationSearch(c, "MD5", "").getCombinations());
+
+        c.setMark(0, 3, Comparison.MARK_IS_BAD);
+        assertEquals(2 * 2, new CombinationSearch(c, "MD5", "").getCombinations());
+
+        c.setMark(1, 0, Comparison.MARK_IS_GOOD);
+        assertEquals(2, new CombinationSearch(c, "MD5", "").getCombinations());
+    }
+}
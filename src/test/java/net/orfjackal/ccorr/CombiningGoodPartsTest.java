@@ -104,6 +104,41 @@ public class CombiningGoodPartsTest extends Assert {
         assertEquals(MARK_IS_GOOD, c.getMark(DIFF_1, 2));
     }
 
+    @Test
+    public void when_a_good_combination_is_written_with_verifying_then_the_checksums_of_the_output_are_returned()
+            throws IOException {
+        Comparison c = comparisonWithTwoDiffsMarkedGood();
+
+        File result = util.uniqueFile();
+        ChecksumFile written = c.createGoodCombination().writeVerifiedFile(result, PART_LENGTH, ALGORITHM);
+
+        assertNotNull(written);
+        assertEquals(result, written.getSourceFile());
+        assertTrue(written.hasSameChecksums(ChecksumFile.createChecksumFile(result, PART_LENGTH, ALGORITHM), null));
+        c.addFile(written);
+        c.doCompare();
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_0, 2));
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_1, 2));
+    }
+
+    @Test
+    public void when_a_file_has_changed_after_making_its_checksums_then_writing_with_verifying_fails()
+            throws IOException {
+        Comparison c = comparisonWithTwoDiffsMarkedGood();
+        FileCombination good = c.createGoodCombination();
+        RandomAccessFile raf = new RandomAccessFile(c.getFile(1).getSourceFile(), "rw");
+        raf.seek(START_OFFSET_0 + 10);
+        int b = raf.read();
+        raf.seek(START_OFFSET_0 + 10);
+        raf.write(~b);
+        raf.close();
+
+        File result = util.uniqueFile();
+
+        assertNull(good.writeVerifiedFile(result, PART_LENGTH, ALGORITHM));
+        assertFalse(result.exists());
+    }
+
     @Test
     public void when_a_good_combination_is_written_then_the_progress_monitor_is_notified() throws IOException {
         Comparison c = comparisonWithTwoDiffsMarkedGood();
@@ -121,4 +156,282 @@ public class CombiningGoodPartsTest extends Assert {
         verify(monitor).setNote("Completed 50%");
         verify(monitor, atLeastOnce()).setProgress(100);
     }
+
+    @Test
+    public void when_a_block_of_differences_is_marked_good_then_it_is_read_as_one_item() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_1, START_OFFSET_2));
+        c.doCompare();
+        assertEquals(2, c.getDifferences());
+        assertEquals(1, c.getBlocks());
+
+        c.setBlockMark(0, 0, MARK_IS_GOOD);
+        FileCombination fc = c.createGoodCombination();
+
+        assertEquals(1, fc.getItems());
+        assertEquals(c.getFile(0).getSourceFile(), fc.getFile(0));
+        assertEquals(0, fc.getStart(0));
+        assertEquals(c.getFile(0).getSourceFileLength(), fc.getEnd(0));
+    }
+
+    @Test
+    public void when_the_differences_of_a_block_are_good_in_different_files_then_they_are_read_separately()
+            throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_1, START_OFFSET_2));
+        c.doCompare();
+
+        c.setMark(0, 0, MARK_IS_GOOD);
+        c.setMark(1, 1, MARK_IS_GOOD);
+        FileCombination fc = c.createGoodCombination();
+
+        assertEquals(2, fc.getItems());
+        assertEquals(c.getFile(0).getSourceFile(), fc.getFile(0));
+        assertEquals(c.getFile(1).getSourceFile(), fc.getFile(1));
+        assertEquals(END_OFFSET_1 + 1, fc.getStart(1));
+    }
+
+    @Test
+    public void when_every_file_is_damaged_in_the_same_part_then_refining_the_part_makes_a_good_combination()
+            throws IOException {
+        long partLength = PART_LENGTH * 4;
+        long length = partLength * 3;
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength + 10));
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength * 2 - 10));
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength + PART_LENGTH + 10));
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+        c.markGoodParts(0, c.getDifferences() - 1);
+        assertNull(c.createGoodCombination());
+
+        assertTrue(c.refine(PART_LENGTH));
+
+        assertEquals(PART_LENGTH, c.getPartLength());
+        assertEquals(3, c.getDifferences());
+        assertEquals(4, c.getPart(0));
+        assertEquals(5, c.getPart(1));
+        assertEquals(7, c.getPart(2));
+        c.markGoodParts(0, c.getDifferences() - 1);
+        File result = util.uniqueFile();
+        c.createGoodCombination().writeFile(result);
+
+        FileCombination original = new FileCombination();
+        File dummy = util.createDummyFile(length);
+        original.addItem(dummy, 0, length - 1);
+        FileCombination written = new FileCombination();
+        written.addItem(result, 0, length - 1);
+        assertEquals(original.countChecksum(ALGORITHM), written.countChecksum(ALGORITHM));
+    }
+
+    @Test
+    public void the_CRC32_of_a_combination_of_whole_parts_is_counted_without_reading_the_files() throws IOException {
+        Comparison c = comparisonWithTwoDiffsMarkedGood();
+        FileCombination fc = c.createGoodCombination();
+        String expected = fc.countChecksum(ALGORITHM);
+
+        // the same data with a different part of the same length, which is not read
+        File source = c.getFile(0).getSourceFile();
+        RandomAccessFile raf = new RandomAccessFile(source, "rw");
+        raf.seek(START_OFFSET_1 + 10);
+        int b = raf.read();
+        raf.seek(START_OFFSET_1 + 10);
+        raf.write(~b);
+        raf.close();
+
+        FileCombination readFromFiles = new FileCombination();
+        for (int i = 0; i < fc.getItems(); i++) {
+            readFromFiles.addItem(fc.getFile(i), fc.getStart(i), fc.getEnd(i));
+        }
+        assertEquals(expected, fc.countChecksum(ALGORITHM));
+        assertFalse(expected.equals(readFromFiles.countChecksum(ALGORITHM)));
+    }
+
+    @Test
+    public void the_CRC32_of_a_combination_of_refined_files_is_the_same_as_when_read_from_the_files()
+            throws IOException {
+        long partLength = PART_LENGTH * 4;
+        long length = partLength * 3 - 100;
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength + 10, partLength * 2 + 10));
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength * 2 - 10));
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM, partLength + PART_LENGTH + 10));
+        c.doCompare();
+        assertTrue(c.refine(PART_LENGTH));
+        c.markGoodParts(0, c.getDifferences() - 1);
+
+        FileCombination fc = c.createGoodCombination();
+        FileCombination readFromFiles = new FileCombination();
+        for (int i = 0; i < fc.getItems(); i++) {
+            readFromFiles.addItem(fc.getFile(i), fc.getStart(i), fc.getEnd(i));
+        }
+        assertEquals(readFromFiles.countChecksum(ALGORITHM), fc.countChecksum(ALGORITHM));
+    }
+
+    @Test
+    public void a_file_hashed_with_the_refined_part_length_is_compared_with_the_refined_files() throws IOException {
+        long partLength = PART_LENGTH * 4;
+        long length = partLength * 4;
+        ChecksumFile cf = util.createChecksumFile(length, partLength, ALGORITHM, partLength + 10);
+        Comparison c = new Comparison();
+        c.addFile(cf);
+        c.addFile(util.createChecksumFile(length, partLength, ALGORITHM));
+        c.doCompare();
+        assertTrue(c.refine(PART_LENGTH));
+        assertEquals(1, c.getDifferences());
+
+        // a copy of the first file, whose parts all have checksums of their own
+        c.addFile(ChecksumFile.createChecksumFile(cf.getSourceFile(), PART_LENGTH, ALGORITHM));
+
+        assertEquals(3, c.getFiles());
+        assertEquals(1, c.getDifferences());
+        assertEquals(4, c.getPart(0));
+        assertEquals(c.getChecksum(0, 0), c.getChecksum(0, 2));
+        assertFalse(c.getChecksum(0, 1).equals(c.getChecksum(0, 2)));
+    }
+
+    @Test
+    public void a_file_hashed_with_the_refined_part_length_is_not_added_if_the_algorithm_is_not_CRC32()
+            throws IOException {
+        long partLength = PART_LENGTH * 4;
+        long length = partLength * 4;
+        ChecksumFile cf = util.createChecksumFile(length, partLength, "MD5", partLength + 10);
+        Comparison c = new Comparison();
+        c.addFile(cf);
+        c.addFile(util.createChecksumFile(length, partLength, "MD5"));
+        c.doCompare();
+        assertTrue(c.refine(PART_LENGTH));
+
+        c.addFile(ChecksumFile.createChecksumFile(cf.getSourceFile(), PART_LENGTH, "MD5"));
+
+        assertEquals(2, c.getFiles());
+    }
+
+    @Test
+    public void a_combination_of_many_small_items_is_written_and_counted_like_the_good_file() throws IOException {
+        long length = PART_LENGTH * 2;
+        File good = util.createDummyFile(length);
+        File bad1 = util.createChecksumFile(length, START_OFFSET_0 + 1, START_OFFSET_1 + 301).getSourceFile();
+        File bad2 = util.createChecksumFile(length, START_OFFSET_1 + 1).getSourceFile();
+
+        // the corrupt bytes are taken from the other file, and each file is read many times
+        FileCombination fc = new FileCombination();
+        for (long pos = 0; pos < length; pos += 100) {
+            boolean corruptIn1 = (pos <= 1 && 1 < pos + 100) || (pos <= 1325 && 1325 < pos + 100);
+            long end = (pos + 100 < length) ? pos + 99 : length;
+            fc.addItem(corruptIn1 ? bad2 : bad1, pos, end);
+        }
+        File result = util.uniqueFile();
+
+        assertTrue(fc.writeFile(result));
+        assertEquals(length, result.length());
+        assertEquals(checksumOf(good), checksumOf(result));
+        assertEquals(checksumOf(good), fc.countChecksum("MD5"));
+    }
+
+    @Test
+    public void long_combinations_are_written_in_parallel() throws IOException {
+        long length = FileCombination.PARALLEL_WRITING_MIN_LENGTH + 100;
+        long corrupt1 = 12345;
+        long corrupt2 = length - 2;
+        File good = util.createDummyFile(length);
+        File bad1 = util.createChecksumFile(length, corrupt1).getSourceFile();
+        File bad2 = util.createChecksumFile(length, corrupt2).getSourceFile();
+
+        FileCombination fc = new FileCombination();
+        long itemLength = 3 * 1024 * 1024 + 7;
+        for (long pos = 0; pos < length; pos += itemLength) {
+            boolean corruptIn1 = pos <= corrupt1 && corrupt1 < pos + itemLength;
+            long end = (pos + itemLength < length) ? pos + itemLength - 1 : length;
+            fc.addItem(corruptIn1 ? bad2 : bad1, pos, end);
+        }
+        File result = util.uniqueFile();
+
+        Settings.setWorkerThreads(4);
+        try {
+            assertTrue(fc.writeFile(result));
+        } finally {
+            Settings.setWorkerThreads(0);
+        }
+        assertEquals(length, result.length());
+        assertEquals(checksumOf(good), checksumOf(result));
+    }
+
+    @Test
+    public void all_possible_combinations_are_written_at_once() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4 + 100, START_OFFSET_0));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4 + 100, START_OFFSET_2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4 + 100, START_OFFSET_2 + 1));
+        c.doCompare();
+        FileCombination[] fc = c.createPossibleCombinations();
+        assertEquals(3 * 3, fc.length);
+        File[] results = new File[fc.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = util.uniqueFile();
+        }
+
+        long read = FileCombination.writeFiles(fc, results);
+
+        // the data is read once, except that the parts which are different in the files are read once per version:
+        // part 0 has two versions and part 2 has three, instead of reading 9 whole files
+        assertEquals(PART_LENGTH * 4 + 100 + PART_LENGTH + 2 * PART_LENGTH, read);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(PART_LENGTH * 4 + 100, results[i].length());
+            assertEquals(fc[i].countChecksum("MD5"), checksumOf(results[i]));
+        }
+    }
+
+    @Test
+    public void the_file_with_most_good_parts_is_repaired_in_place_and_the_repair_can_be_undone()
+            throws IOException {
+        long length = PART_LENGTH * 4 + 100;
+        String good = checksumOf(util.createDummyFile(length));
+        ChecksumFile cf1 = util.createChecksumFile(length, START_OFFSET_0, START_OFFSET_2);
+        ChecksumFile cf2 = util.createChecksumFile(length, START_OFFSET_3);
+        String original = checksumOf(cf2.getSourceFile());
+        Comparison c = new Comparison();
+        c.addFile(cf1);
+        c.addFile(cf2);
+        c.doCompare();
+        c.setMark(0, 1, MARK_IS_GOOD);
+        c.setMark(1, 1, MARK_IS_GOOD);
+        c.setMark(2, 0, MARK_IS_GOOD);
+        FileCombination fc = c.createGoodCombination();
+        File journal = util.uniqueFile();
+
+        assertEquals(cf2.getSourceFile(), fc.findRepairBase());
+        assertTrue(fc.repairInPlace(cf2.getSourceFile(), journal));
+        assertEquals(length, cf2.getSourceFile().length());
+        assertEquals(good, checksumOf(cf2.getSourceFile()));
+        assertTrue("only the bad part is saved", journal.length() < PART_LENGTH + 100);
+
+        assertTrue(FileCombination.undoRepair(cf2.getSourceFile(), journal));
+        assertEquals(original, checksumOf(cf2.getSourceFile()));
+    }
+
+    @Test
+    public void a_repair_does_not_write_over_an_existing_undo_journal() throws IOException {
+        long length = PART_LENGTH * 4 + 100;
+        ChecksumFile cf1 = util.createChecksumFile(length, START_OFFSET_0);
+        ChecksumFile cf2 = util.createChecksumFile(length, START_OFFSET_3);
+        String original = checksumOf(cf2.getSourceFile());
+        Comparison c = new Comparison();
+        c.addFile(cf1);
+        c.addFile(cf2);
+        c.doCompare();
+        c.setMark(0, 1, MARK_IS_GOOD);
+        c.setMark(1, 0, MARK_IS_GOOD);
+        FileCombination fc = c.createGoodCombination();
+        File journal = util.uniqueFile();
+        FileOutputStream out = new FileOutputStream(journal);
+        out.write(42);
+        out.close();
+
+        assertFalse(fc.repairInPlace(cf2.getSourceFile(), journal));
+        assertEquals(1, journal.length());
+        assertEquals(original, checksumOf(cf2.getSourceFile()));
+    }
 }
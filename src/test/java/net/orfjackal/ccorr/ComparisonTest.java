@@ -7,6 +7,7 @@ package net.orfjackal.ccorr;
 import org.junit.*;
 
 import java.io.*;
+import java.util.Arrays;
 
 import static net.orfjackal.ccorr.TestDataUtil.*;
 
@@ -92,13 +93,71 @@ public class ComparisonTest extends Assert {
     }
 
     @Test
-    public void files_with_different_part_length_can_not_be_added_to_the_comparison() throws IOException {
+    public void when_the_comparison_is_up_to_date_then_adding_a_file_updates_it_incrementally() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.doCompare();
+        c.setMark(0, 1, Comparison.MARK_IS_GOOD);
+
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_1));
+
+        assertEquals("no need to compare again", 2, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(2, c.getPart(1));
+        assertEquals(0, c.getChecksumClass(0, 0));
+        assertEquals(1, c.getChecksumClass(0, 1));
+        assertEquals(1, c.getChecksumClass(0, 2));
+        assertEquals(0, c.getChecksumClass(0, 3));
+        assertEquals(0, c.getChecksumClass(1, 0));
+        assertEquals(1, c.getChecksumClass(1, 2));
+        assertEquals(-1, c.getChecksumClass(1, 3));
+
+        assertEquals("old mark is kept", Comparison.MARK_IS_GOOD, c.getMark(0, 1));
+        assertEquals("mark is mirrored to new file", Comparison.MARK_IS_GOOD, c.getMark(0, 2));
+        assertEquals(Comparison.MARK_IS_UNDEFINED, c.getMark(0, 3));
+        assertEquals("end of short file", Comparison.MARK_IS_BAD, c.getMark(1, 3));
+
+        assertEquals(2.0 / 3.0, c.getSimilarity(0, 1), 0.0001);
+        assertEquals(1.0 / 3.0, c.getSimilarity(0, 2), 0.0001);
+        assertEquals(1.0, c.getSimilarity(0, 3), 0.0001);
+        assertEquals(0.5, c.getSimilarity(3, 1), 0.0001);
+    }
+
+    @Test
+    public void when_the_comparison_is_up_to_date_then_removing_a_file_updates_it_incrementally() throws IOException {
+        Comparison c = new Comparison();
+        ChecksumFile cf1 = util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1);
+        ChecksumFile cf2 = util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_2);
+        ChecksumFile cf3 = util.createChecksumFile(PART_LENGTH * 3);
+        c.addFile(cf1);
+        c.addFile(cf2);
+        c.addFile(cf3);
+        c.doCompare();
+        c.setMark(0, 2, Comparison.MARK_IS_BAD);
+        assertEquals(2, c.getDifferences());
+
+        c.removeFile(cf2);
+
+        assertEquals(2, c.getFiles());
+        assertEquals("only the file that was removed was different", 1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(0, c.getChecksumClass(0, 0));
+        assertEquals("classes are renumbered", 1, c.getChecksumClass(0, 1));
+        assertEquals(Comparison.MARK_IS_BAD, c.getMark(0, 1));
+        assertEquals(2.0 / 3.0, c.getSimilarity(0, 1), 0.0001);
+    }
+
+    @Test
+    public void files_with_different_part_length_can_not_be_added_to_the_comparison_without_crc32()
+            throws IOException {
         Comparison c = new Comparison();
         File file1 = util.createDummyFile(PART_LENGTH * 2);
         File file2 = util.createDummyFile(PART_LENGTH * 2);
 
-        ChecksumFile cf1 = ChecksumFile.createChecksumFile(file1, PART_LENGTH, ALGORITHM);
-        ChecksumFile cf2 = ChecksumFile.createChecksumFile(file2, PART_LENGTH * 2, ALGORITHM);
+        ChecksumFile cf1 = ChecksumFile.createChecksumFile(file1, PART_LENGTH, "MD5");
+        ChecksumFile cf2 = ChecksumFile.createChecksumFile(file2, PART_LENGTH * 2, "MD5");
 
         c.addFile(cf1);
         c.addFile(cf2);
@@ -107,6 +166,76 @@ public class ComparisonTest extends Assert {
         assertEquals(cf1, c.getFile(0));
     }
 
+    @Test
+    public void crc32_files_with_a_shorter_part_length_are_compared_at_the_part_length_of_the_comparison()
+            throws IOException {
+        Comparison c = new Comparison();
+        ChecksumFile cf1 = util.createChecksumFile(PART_LENGTH * 6 + 100, PART_LENGTH * 2, "CRC-32", START_OFFSET_3);
+        ChecksumFile cf2 = util.createChecksumFile(PART_LENGTH * 6 + 100, PART_LENGTH, "CRC-32");
+
+        c.addFile(cf1);
+        c.addFile(cf2);
+        c.doCompare();
+
+        assertEquals(2, c.getFiles());
+        assertEquals(PART_LENGTH * 2, c.getPartLength());
+        assertSame(cf1, c.getFile(0));
+        assertEquals(cf2.getSourceFile(), c.getFile(1).getSourceFile());
+        assertEquals(1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+    }
+
+    @Test
+    public void crc32_files_with_a_longer_part_length_are_added_only_after_coarsening_the_comparison()
+            throws IOException {
+        Comparison c = new Comparison();
+        ChecksumFile cf1 = util.createChecksumFile(PART_LENGTH * 6 + 100, PART_LENGTH * 2, "CRC-32", START_OFFSET_3);
+        ChecksumFile cf2 = util.createChecksumFile(PART_LENGTH * 6 + 100, PART_LENGTH * 3, "CRC-32");
+        ChecksumFile cf3 = util.createChecksumFile(PART_LENGTH * 6 + 100, PART_LENGTH * 6, "CRC-32");
+
+        c.addFile(cf1);
+        c.addFile(cf2);
+        assertEquals(1, c.getFiles());
+        assertSame(cf1, c.getFile(0));
+        assertEquals(PART_LENGTH * 6, c.getCommonPartLength(cf2));
+
+        assertTrue(c.coarsen(c.getCommonPartLength(cf2)));
+        c.addFile(cf2);
+        c.addFile(cf3);
+        c.doCompare();
+
+        assertEquals(3, c.getFiles());
+        assertEquals(PART_LENGTH * 6, c.getPartLength());
+        assertEquals(cf2.getSourceFile(), c.getFile(1).getSourceFile());
+        assertSame(cf3, c.getFile(2));
+        assertEquals(1, c.getDifferences());
+        assertEquals(0, c.getPart(0));
+        assertEquals(cf1.getSourceFile(), c.getFile(0).getSourceFile());
+    }
+
+    @Test
+    public void when_the_comparison_is_coarsened_the_marks_that_agree_in_a_longer_part_are_kept()
+            throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 8, PART_LENGTH, "CRC-32", START_OFFSET_0, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 8, PART_LENGTH, "CRC-32", START_OFFSET_2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 8, PART_LENGTH, "CRC-32"));
+        c.doCompare();
+        assertEquals(3, c.getDifferences());
+        c.setMark(0, 1, Comparison.MARK_IS_GOOD);
+        c.setMark(1, 1, Comparison.MARK_IS_GOOD);
+        c.setMark(0, 0, Comparison.MARK_IS_BAD);
+        c.setMark(1, 0, Comparison.MARK_IS_UNSURE);
+
+        assertTrue(c.coarsen(PART_LENGTH * 2));
+
+        assertEquals(PART_LENGTH * 2, c.getPartLength());
+        assertEquals(2, c.getDifferences());
+        assertEquals(0, c.getPart(0));
+        assertEquals(Comparison.MARK_IS_GOOD, c.getMark(0, 1));
+        assertEquals(Comparison.MARK_IS_UNDEFINED, c.getMark(0, 0));
+    }
+
     @Test
     public void files_with_different_algorithm_can_not_be_added_to_the_comparison() throws IOException {
         Comparison c = new Comparison();
@@ -123,6 +252,31 @@ public class ComparisonTest extends Assert {
         assertEquals(cf1, c.getFile(0));
     }
 
+    @Test
+    public void files_can_be_compared_with_any_algorithm_that_all_of_them_have() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, new String[]{"MD5", "CRC-32"}));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, new String[]{"CRC-32", "MD5"}, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, new String[]{"CRC-32"}));
+        c.doCompare();
+
+        assertEquals(2, c.getFiles());
+        assertEquals("MD5", c.getAlgorithm());
+        assertEquals(1, c.getDifferences());
+        assertEquals(32, c.getChecksum(0, 1).length());
+        assertEquals(Arrays.asList("MD5", "CRC-32"), Arrays.asList(c.getCommonAlgorithms()));
+
+        assertTrue(c.setAlgorithm("CRC-32"));
+        assertEquals(-1, c.getDifferences());
+        c.doCompare();
+        assertEquals("CRC-32", c.getAlgorithm());
+        assertEquals(1, c.getDifferences());
+        assertEquals("0761E377", c.getChecksum(0, 1));
+
+        assertFalse(c.setAlgorithm("SHA-1"));
+        assertEquals("CRC-32", c.getAlgorithm());
+    }
+
     @Test
     public void when_files_are_identical_then_they_have_no_differences() throws IOException {
         Comparison c = new Comparison();
@@ -188,6 +342,61 @@ public class ComparisonTest extends Assert {
         assertEquals(1, c.getDifferences());
     }
 
+    @Test
+    public void files_with_the_same_checksum_in_a_differing_part_belong_to_the_same_class() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1 + 1));
+        c.addFile(util.createChecksumFile(PART_LENGTH));
+        c.doCompare();
+
+        assertEquals(1, c.getDifferences());
+        assertEquals(1, c.getPart(0));
+        assertEquals(0, c.getChecksumClass(0, 0));
+        assertEquals(1, c.getChecksumClass(0, 1));
+        assertEquals(0, c.getChecksumClass(0, 2));
+        assertEquals(2, c.getChecksumClass(0, 3));
+        assertEquals(-1, c.getChecksumClass(0, 4));
+
+        assertEquals(1.0, c.getSimilarity(0, 2), 0.0001);
+        assertEquals(2.0 / 3.0, c.getSimilarity(0, 1), 0.0001);
+        assertEquals(1.0, c.getSimilarity(0, 4), 0.0001);
+    }
+
+    @Test
+    public void ranges_of_parts_can_be_compared_in_parallel() throws IOException {
+        ChecksumFile[] files = {
+                util.createChecksumFile(PART_LENGTH * 10, START_OFFSET_1, START_OFFSET_3 * 2),
+                util.createChecksumFile(PART_LENGTH * 10),
+                util.createChecksumFile(PART_LENGTH * 8, START_OFFSET_1, START_OFFSET_3),
+        };
+        Settings.setWorkerThreads(4);
+        try {
+            PartRangeComparison[] ranges = PartRangeComparison.split(files, ALGORITHM, 3, true);
+            PartRangeComparison.compareAll(ranges);
+
+            assertEquals(4, ranges.length);
+            int[] parts = new int[3];
+            ranges[0].copyPartsThatDiffer(parts, 0);
+            ranges[1].copyPartsThatDiffer(parts, ranges[0].getDifferences());
+            ranges[2].copyPartsThatDiffer(parts, ranges[0].getDifferences() + ranges[1].getDifferences());
+            assertEquals(0, ranges[3].getDifferences());
+            assertEquals("[1, 3, 6]", Arrays.toString(parts));
+
+            int[][] numberOfDifferences = new int[3][3];
+            for (PartRangeComparison range : ranges) {
+                range.addNumberOfDifferences(numberOfDifferences);
+            }
+            assertEquals(2, numberOfDifferences[0][1]);
+            assertEquals(2, numberOfDifferences[0][2]);
+            assertEquals(2, numberOfDifferences[1][2]);
+        } finally {
+            Settings.setWorkerThreads(0);
+        }
+    }
+
     @Test
     public void when_some_files_are_shorter_but_end_at_even_offsets_then_they_are_not_necessarily_different() throws IOException {
         // TODO: maybe this behaviour should be changed, so that the length of a file is always explicitly shown to the user and selection is possible
@@ -244,4 +453,178 @@ public class ComparisonTest extends Assert {
         assertEquals(original.getMark(0, 0), original.getMark(0, 0));
         assertEquals(original.getMark(0, 1), original.getMark(0, 1));
     }
+
+    @Test
+    public void each_item_has_its_own_mark_and_caption_which_are_saved_with_the_comparison() throws IOException {
+        Comparison original = new Comparison();
+        original.addFile(util.createChecksumFile(PART_LENGTH * 6));
+        original.addFile(util.createChecksumFile(PART_LENGTH * 6, 0, PART_LENGTH, PART_LENGTH * 2,
+                PART_LENGTH * 3, PART_LENGTH * 4, PART_LENGTH * 5));
+        original.doCompare();
+        assertEquals(6, original.getDifferences());
+
+        int[] marks = {Comparison.MARK_IS_GOOD, Comparison.MARK_IS_BAD, Comparison.MARK_IS_UNSURE,
+                Comparison.MARK_IS_UNDEFINED, Comparison.MARK_IS_UNSURE, Comparison.MARK_IS_GOOD};
+        for (int difference = 0; difference < marks.length; difference++) {
+            original.getItem(difference, 1).setMark(marks[difference]);
+        }
+        original.getItem(4, 1).setCaption("bar");
+
+        File tmp = util.uniqueFile();
+        original.saveToFile(tmp);
+        Comparison loaded = Comparison.loadFromFile(tmp);
+
+        for (Comparison c : new Comparison[]{original, loaded}) {
+            for (int difference = 0; difference < marks.length; difference++) {
+                assertEquals(Comparison.MARK_IS_UNDEFINED, c.getMark(difference, 0));
+                assertEquals(marks[difference], c.getMark(difference, 1));
+                assertEquals(marks[difference], c.getItem(difference, 1).getMark());
+            }
+            assertEquals("bar", c.getItem(4, 1).getCaption());
+            assertEquals(c.getChecksum(4, 0), c.getItem(4, 0).getCaption());
+            assertEquals(c.getChecksum(3, 1), c.getItem(3, 1).getCaption());
+        }
+    }
+
+    @Test
+    public void consecutive_differences_where_the_same_files_differ_are_grouped_into_blocks() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 6));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 6, PART_LENGTH, PART_LENGTH * 2, PART_LENGTH * 3,
+                PART_LENGTH * 5));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 6, PART_LENGTH * 3));
+        c.doCompare();
+        assertEquals(4, c.getDifferences());
+
+        // parts 1-2, part 3 where also the third file differs, and part 5 which is not consecutive
+        assertEquals(3, c.getBlocks());
+        assertEquals(0, c.getBlockStart(0));
+        assertEquals(1, c.getBlockEnd(0));
+        assertEquals(2, c.getBlockStart(1));
+        assertEquals(2, c.getBlockEnd(1));
+        assertEquals(3, c.getBlockStart(2));
+        assertEquals(3, c.getBlockEnd(2));
+        assertEquals(0, c.getBlock(1));
+        assertEquals(2, c.getBlock(3));
+        assertEquals(-1, c.getBlock(4));
+    }
+
+    @Test
+    public void a_mark_set_to_a_block_applies_to_all_of_its_differences() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 4, START_OFFSET_1, START_OFFSET_2, START_OFFSET_3));
+        c.doCompare();
+        assertEquals(1, c.getBlocks());
+
+        c.setBlockMark(0, 1, Comparison.MARK_IS_BAD);
+        assertEquals(Comparison.MARK_IS_BAD, c.getBlockMark(0, 1));
+        for (int difference = 0; difference < c.getDifferences(); difference++) {
+            assertEquals(Comparison.MARK_IS_BAD, c.getMark(difference, 1));
+        }
+
+        c.setMark(1, 1, Comparison.MARK_IS_GOOD);
+        assertEquals("different marks", -1, c.getBlockMark(0, 1));
+    }
+
+    @Test
+    public void identical_files_are_compared_only_once() throws IOException {
+        String[] algorithms = {"CRC-32", "MD5"};
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, algorithms));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, algorithms, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, algorithms));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, algorithms, START_OFFSET_1));
+        c.setAlgorithm("MD5");
+        c.doCompare();
+
+        assertEquals(0, c.getRepresentative(0));
+        assertEquals(1, c.getRepresentative(1));
+        assertEquals(0, c.getRepresentative(2));
+        assertEquals(1, c.getRepresentative(3));
+
+        assertEquals(1, c.getDifferences());
+        assertEquals(c.getChecksumClass(0, 0), c.getChecksumClass(0, 2));
+        assertEquals(c.getChecksumClass(0, 1), c.getChecksumClass(0, 3));
+        assertEquals(1.0, c.getSimilarity(0, 2), 0.0);
+        assertEquals(c.getSimilarity(0, 1), c.getSimilarity(2, 3), 0.0);
+    }
+
+    @Test
+    public void when_there_are_many_different_files_then_their_similarity_is_estimated() throws IOException {
+        String[] algorithms = {"CRC-32", "MD5"};
+        Comparison c = new Comparison();
+        int files = Comparison.MAX_FILES_FOR_EXACT_SIMILARITY + 2;
+        for (int i = 0; i < files; i++) {
+            // every file has a different corruption in one of the parts
+            c.addFile(util.createChecksumFile(PART_LENGTH * 4, algorithms, PART_LENGTH * (i % 4) + i));
+        }
+        c.setAlgorithm("MD5");
+        c.doCompare();
+
+        // the files have so few parts that the estimates are exact
+        for (int i = 0; i < files; i++) {
+            assertEquals(i, c.getRepresentative(i));
+            assertEquals(1.0, c.getSimilarity(i, i), 0.0);
+            for (int j = i + 1; j < files; j++) {
+                int differences = (i % 4 == j % 4) ? 1 : 2;
+                assertEquals(1.0 - differences / 4.0, c.getSimilarity(i, j), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void in_paged_mode_the_checksum_classes_are_found_out_on_demand() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1, START_OFFSET_2));
+        c.addFile(util.createChecksumFile(PART_LENGTH));
+        c.doCompare();
+        assertFalse(c.isPaged());
+        c.setMark(1, 2, Comparison.MARK_IS_GOOD);
+
+        c.setAlwaysPaged(true);
+        c.doCompare();
+        assertTrue(c.isPaged());
+
+        assertEquals(2, c.getDifferences());
+        assertEquals(0, c.getChecksumClass(0, 0));
+        assertEquals(1, c.getChecksumClass(0, 1));
+        assertEquals(0, c.getChecksumClass(0, 2));
+        assertEquals(-1, c.getChecksumClass(0, 3));
+        assertEquals(Comparison.MARK_IS_BAD, c.getMark(0, 3));
+        assertEquals(Comparison.MARK_IS_GOOD, c.getMark(1, 2));
+        assertEquals(2, c.getBlocks());
+
+        File tmp = util.uniqueFile();
+        c.saveToFile(tmp);
+        Comparison loaded = Comparison.loadFromFile(tmp);
+        assertTrue(loaded.isPaged());
+        assertEquals(1, loaded.getChecksumClass(1, 2));
+        assertEquals(Comparison.MARK_IS_GOOD, loaded.getMark(1, 2));
+    }
+
+    @Test
+    public void files_can_be_added_to_and_removed_from_a_paged_comparison() throws IOException {
+        Comparison c = new Comparison();
+        c.setAlwaysPaged(true);
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 3));
+        c.doCompare();
+        c.setMark(0, 0, Comparison.MARK_IS_BAD);
+
+        ChecksumFile added = util.createChecksumFile(PART_LENGTH * 3, START_OFFSET_2);
+        c.addFile(added);
+        c.doCompare();
+        assertTrue(c.isPaged());
+        assertEquals(2, c.getDifferences());
+        assertEquals(Comparison.MARK_IS_BAD, c.getMark(0, 0));
+        assertEquals(1, c.getChecksumClass(1, 2));
+
+        c.removeFile(added);
+        c.doCompare();
+        assertEquals(1, c.getDifferences());
+        assertEquals(Comparison.MARK_IS_BAD, c.getMark(0, 0));
+    }
 }
@@ -0,0 +1,104 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import org.junit.*;
+
+import java.io.*;
+
+import static net.orfjackal.ccorr.TestDataUtil.*;
+
+/**
+ * @author Esko Luontola
+ */
+public class CorruptionMapTest extends Assert {
+
+    private static final long LENGTH = PART_LENGTH * 4;
+
+    private TestDataUtil util = new TestDataUtil();
+
+    @Before
+    public void initUtil() throws IOException {
+        util.create();
+    }
+
+    @After
+    public void disposeUtil() {
+        util.dispose();
+    }
+
+    private void assertSameAsDummyFile(FileCombination fc) throws IOException {
+        File result = util.uniqueFile();
+        assertTrue(fc.writeFile(result));
+        assertEquals(util.checksumOfDummyFile(LENGTH, "MD5"), checksumOf(result));
+    }
+
+    @Test
+    public void the_bytes_which_differ_are_found_with_the_files_that_agree_in_them() throws IOException {
+        Comparison c = compare(
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 10),
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 10, START_OFFSET_1 + 11),
+                util.createChecksumFile(LENGTH));
+
+        CorruptionMap map = c.createCorruptionMap();
+
+        assertEquals(2, map.getRanges());
+        assertEquals(START_OFFSET_1 + 10, map.getStart(0));
+        assertEquals(START_OFFSET_1 + 10, map.getEnd(0));
+        assertEquals(0, map.getByteClass(0, 0));
+        assertEquals(0, map.getByteClass(0, 1));
+        assertEquals(1, map.getByteClass(0, 2));
+        assertEquals(START_OFFSET_1 + 11, map.getStart(1));
+        assertEquals(0, map.getByteClass(1, 0));
+        assertEquals(1, map.getByteClass(1, 1));
+        assertEquals(0, map.getByteClass(1, 2));
+        assertEquals(2, map.getDifferingBytes());
+    }
+
+    @Test
+    public void consecutive_differing_bytes_with_the_same_classes_are_one_range() throws IOException {
+        long[] offsets = new long[12];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = START_OFFSET_2 - 6 + i;
+        }
+        Comparison c = compare(util.createChecksumFile(LENGTH, offsets), util.createChecksumFile(LENGTH));
+        assertEquals(2, c.getDifferences());
+
+        CorruptionMap map = c.createCorruptionMap();
+
+        assertEquals(1, map.getRanges());
+        assertEquals(START_OFFSET_2 - 6, map.getStart(0));
+        assertEquals(START_OFFSET_2 + 5, map.getEnd(0));
+    }
+
+    @Test
+    public void when_every_file_is_damaged_in_the_same_part_then_the_good_bytes_make_a_good_combination()
+            throws IOException {
+        Comparison c = compare(
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 1, START_OFFSET_3),
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 500),
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 900, START_OFFSET_1 + 901, LENGTH - 1));
+        c.markGoodParts(0, c.getDifferences() - 1);
+        assertNull(c.createGoodCombination());
+
+        CorruptionMap map = c.createCorruptionMap();
+        assertEquals(5, map.getRanges());
+
+        assertSameAsDummyFile(c.createByteCombination(map));
+    }
+
+    @Test
+    public void the_file_marked_good_is_used_when_the_files_do_not_agree() throws IOException {
+        Comparison c = compare(
+                util.createChecksumFile(LENGTH, START_OFFSET_1 + 10),
+                util.createChecksumFile(LENGTH));
+        CorruptionMap map = c.createCorruptionMap();
+        assertNull("two files, no majority", c.createByteCombination(map));
+
+        c.setMark(0, 1, Comparison.MARK_IS_GOOD);
+
+        assertSameAsDummyFile(c.createByteCombination(map));
+    }
+}
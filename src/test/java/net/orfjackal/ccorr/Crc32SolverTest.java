@@ -0,0 +1,99 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import org.junit.*;
+
+import java.io.IOException;
+
+import static net.orfjackal.ccorr.TestDataUtil.*;
+
+/**
+ * @author Esko Luontola
+ */
+public class Crc32SolverTest extends Assert {
+
+    private TestDataUtil util = new TestDataUtil();
+
+    @Before
+    public void initUtil() throws IOException {
+        util.create();
+    }
+
+    @After
+    public void disposeUtil() {
+        util.dispose();
+    }
+
+    @Test
+    public void the_combination_with_the_known_crc32_is_solved_from_the_part_checksums() throws IOException {
+        long length = PART_LENGTH * 4 + 100;
+        Comparison c = compare(
+                util.createChecksumFile(length, START_OFFSET_0 + 5),
+                util.createChecksumFile(length, START_OFFSET_2 + 5),
+                util.createChecksumFile(length, START_OFFSET_3 + 5));
+        String crc32 = util.checksumOfDummyFile(length, "CRC-32");
+
+        Crc32Solver solver = new Crc32Solver(c, crc32);
+        FileCombination[] found = solver.solve();
+
+        assertTrue(solver.isSolvable());
+        assertEquals(8, solver.getCombinations());
+        assertEquals(3, solver.getVariables());
+        assertEquals(1, found.length);
+        assertEquals(crc32, found[0].countChecksum("CRC-32"));
+        assertEquals(util.checksumOfDummyFile(length, "MD5"), found[0].countChecksum("MD5"));
+    }
+
+    @Test
+    public void when_the_crc32_matches_many_combinations_they_are_verified_with_a_stronger_checksum()
+            throws IOException {
+        // 41 differences with two files in each, so there are 2^41 combinations and about 2^9 of them match
+        int parts = 41;
+        long length = PART_LENGTH * parts;
+        long[] even = new long[(parts + 1) / 2];
+        long[] odd = new long[parts / 2];
+        for (int i = 0; i < parts; i++) {
+            if (i % 2 == 0) {
+                even[i / 2] = PART_LENGTH * i + 7;
+            } else {
+                odd[i / 2] = PART_LENGTH * i + 7;
+            }
+        }
+        Comparison c = compare(
+                util.createChecksumFile(length, even),
+                util.createChecksumFile(length, odd));
+        String crc32 = util.checksumOfDummyFile(length, "CRC-32");
+        String md5 = util.checksumOfDummyFile(length, "MD5");
+
+        Crc32Solver solver = new Crc32Solver(c, crc32);
+        FileCombination[] candidates = solver.solve();
+
+        assertEquals(parts, c.getDifferences());
+        assertEquals(parts, solver.getVariables());
+        assertEquals(32, solver.getRank());
+        assertEquals(1 << (parts - 32), candidates.length);
+        for (FileCombination candidate : candidates) {
+            assertEquals(crc32, candidate.countChecksum("CRC-32"));
+        }
+        FileCombination found = solver.solve("MD5", md5);
+        assertNotNull(found);
+        assertEquals(md5, found.countChecksum("MD5"));
+        assertEquals("solving again should not change the rank", 32, solver.getRank());
+    }
+
+    @Test
+    public void the_system_can_not_be_solved_without_crc32_checksums_of_the_parts() throws IOException {
+        long length = PART_LENGTH * 4 + 100;
+        Comparison c = compare(
+                util.createChecksumFile(length, PART_LENGTH, "MD5", START_OFFSET_0 + 5),
+                util.createChecksumFile(length, PART_LENGTH, "MD5", START_OFFSET_2 + 5));
+
+        Crc32Solver solver = new Crc32Solver(c, util.checksumOfDummyFile(length, "CRC-32"));
+
+        assertFalse(solver.isSolvable());
+        assertNull(solver.solve());
+    }
+}
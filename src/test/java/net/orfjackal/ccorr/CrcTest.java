@@ -34,9 +34,77 @@ public class CrcTest extends Assert {
         assertEquals("494179714a6cd627239dfededf2de9ef994caf03", calculate("SHA-1", DATA));
     }
 
+    @Test
+    public void the_checksums_are_available_in_binary_format() {
+        CRC crc32 = new CRC("CRC-32");
+        crc32.update(DATA, 0, DATA.length);
+        assertTrue(crc32.hasIntValue());
+        assertEquals(0x456CD746, crc32.getIntValue());
+
+        CRC md5 = new CRC("MD5");
+        md5.update(DATA, 0, DATA.length);
+        assertFalse(md5.hasIntValue());
+        assertEquals(16, md5.getDigestLength());
+        assertEquals((byte) 0xc5, md5.getByteArray()[0]);
+    }
+
+    @Test
+    public void a_copy_continues_from_the_same_state_independently() {
+        CRC md5 = new CRC("MD5");
+        md5.update(DATA, 0, 4);
+        CRC copy = md5.copy();
+        copy.update(DATA, 4, DATA.length - 4);
+        md5.update(DATA, 4, 2);
+
+        assertEquals("c56bd5480f6e5413cb62a0ad9666613a", copy.getHexValue());
+        assertEquals(calculate("MD5", new byte[]{0, 1, 2, 3, 4, 5}), md5.getHexValue());
+        assertFalse(new CRC("CRC-32").canCopy());
+    }
+
+    @Test
+    public void the_CRC32_of_data_is_combined_from_the_CRC32_of_its_pieces() {
+        CRC first = new CRC("CRC-32");
+        first.update(DATA, 0, 3);
+        CRC second = new CRC("CRC-32");
+        second.update(DATA, 3, DATA.length - 3);
+
+        assertEquals(0x456CD746, Crc32Combine.combine(first.getIntValue(), second.getIntValue(), DATA.length - 3));
+
+        Crc32Combine crc = new Crc32Combine();
+        crc.append(first.getIntValue(), 3, -1);
+        crc.append(second.getIntValue(), DATA.length - 3, -1);
+        assertEquals("456CD746", crc.getHexValue());
+        assertEquals(DATA.length, crc.getLength());
+    }
+
+    @Test
+    public void combined_pieces_of_the_same_byte_are_shown_in_hex() {
+        CRC spaces = new CRC("CRC-32");
+        spaces.update(new byte[]{' ', ' '}, 0, 2);
+
+        Crc32Combine crc = new Crc32Combine();
+        crc.append(spaces.getIntValue(), 2, ' ');
+        crc.append(spaces.getIntValue(), 2, ' ');
+        assertEquals("0x20", crc.getHexValue());
+
+        crc.append(spaces.getIntValue(), 2, -1);
+        assertEquals(8, crc.getHexValue().length());
+    }
+
     @Test
     public void when_data_contains_entirely_the_same_byte_then_the_byte_is_shown_in_hex() {
         assertEquals("0x00", calculate("CRC-32", new byte[]{0, 0, 0, 0, 0, 0}));
         assertEquals("0x20", calculate("CRC-32", new byte[]{' ', ' ', ' ', ' '}));
     }
+
+    @Test
+    public void the_whole_updated_range_is_checked_for_being_the_same_byte() {
+        CRC crc = new CRC("CRC-32");
+        crc.update(new byte[]{0, 0, 1, 2}, 2, 2);
+        assertEquals(calculate("CRC-32", new byte[]{1, 2}), crc.getHexValue());
+
+        crc.reset();
+        crc.update(new byte[]{0, 0, 1, 1, 2}, 2, 2);
+        assertEquals("0x01", crc.getHexValue());
+    }
 }
@@ -59,12 +59,12 @@ public class LargeFilesTest extends Assert {
         c.setMark(DIFF_1, 0, MARK_IS_GOOD);
         c.setMark(DIFF_1, 1, MARK_IS_BAD);
 
-        log("Writing resulting 2GB file");
+        log("Writing and checking resulting 2GB file");
         File output = util.uniqueFile();
-        c.createGoodCombination().writeFile(output);
+        ChecksumFile written = c.createGoodCombination().writeVerifiedFile(output, BIG_PART_LENGTH, ALGORITHM);
+        assertNotNull(written);
 
-        log("Checking resulting 2GB file");
-        c.addFile(ChecksumFile.createChecksumFile(output, BIG_PART_LENGTH, ALGORITHM));
+        c.addFile(written);
         c.doCompare();
 
         assertEquals(3, c.getFiles());
@@ -158,6 +158,75 @@ public class MarkingDifferencesTest extends Assert {
         assertEquals(MARK_IS_BAD, c.getMark(DIFF_0, 2));
     }
 
+    @Test
+    public void the_confidence_of_a_guess_is_the_margin_between_the_two_most_common_checksums() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_0));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_1));
+        c.doCompare();
+
+        assertEquals((4 - 1) / 5.0, c.getConfidence(DIFF_0), 0.0001);
+        assertEquals((3 - 2) / 5.0, c.getConfidence(DIFF_1), 0.0001);
+        assertEquals(-1.0, c.getConfidence(c.getDifferences()), 0.0);
+
+        c.markGoodParts(0, c.getDifferences() - 1);
+        assertEquals((4 - 1) / 5.0, c.getConfidence(DIFF_0), 0.0001);
+        assertEquals(MARK_IS_UNDEFINED, c.getMark(DIFF_0, 0));
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_0, 1));
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_1, 0));
+        assertEquals(MARK_IS_UNDEFINED, c.getMark(DIFF_1, 3));
+    }
+
+    @Test
+    public void guessing_marks_many_ranges_of_rows_in_parallel() {
+        int rows = ConsensusMarker.RANGE_LENGTH * 2 + 10;
+        int[][] classes = new int[3][rows];
+        for (int row = 0; row < rows; row++) {
+            classes[0][row] = 0;
+            classes[1][row] = (row % 2 == 0) ? 0 : 1;
+            classes[2][row] = (row % 3 == 0) ? PartClassifier.MISSING : 1;
+        }
+        ComparisonColumn[] columns = new ComparisonColumn[classes.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ComparisonColumn(null, classes[i]);
+        }
+        float[] confidences = new float[rows];
+
+        Settings.setWorkerThreads(4);
+        try {
+            ConsensusMarker[] ranges = ConsensusMarker.split(columns, 0, rows, 5, rows - 5, confidences);
+            assertEquals(3, ranges.length);
+            ConsensusMarker.markAll(ranges);
+        } finally {
+            Settings.setWorkerThreads(0);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            boolean marked = row >= 5 && row < rows - 5;
+            boolean missing = (row % 3 == 0);
+            boolean agree = (row % 2 == 0);
+            int expected0 = MARK_IS_UNDEFINED;
+            int expected1 = MARK_IS_UNDEFINED;
+            int expected2 = missing ? MARK_IS_BAD : MARK_IS_UNDEFINED;
+            if (marked && agree) {
+                expected0 = MARK_IS_GOOD;
+                expected1 = MARK_IS_GOOD;
+            } else if (marked && !missing) {
+                expected1 = MARK_IS_GOOD;
+                expected2 = MARK_IS_GOOD;
+            }
+            assertEquals("row " + row, expected0, columns[0].getMark(row));
+            assertEquals("row " + row, expected1, columns[1].getMark(row));
+            assertEquals("row " + row, expected2, columns[2].getMark(row));
+        }
+        assertEquals(1.0f / 3, confidences[1], 0.0001f);
+        assertEquals(1.0f, confidences[6], 0.0001f);
+        assertEquals(0.0f, confidences[3], 0.0001f);
+    }
+
     @Test
     public void marks_can_be_cleared() throws IOException {
         Comparison c = new Comparison();
@@ -174,9 +243,39 @@ public class MarkingDifferencesTest extends Assert {
         assertEquals(MARK_IS_UNDEFINED, c.getMark(DIFF_1, 0));
     }
 
-    // TODO: tests for the marking of multiple parts with one command (if they have previously the same mark)
-    // See for example:
-    // net.orfjackal.ccorr.gui.ComparisonTableModel.setMarks()
-    // net.orfjackal.ccorr.gui.ComparisonPanel.markSelectedGood()
-    // net.orfjackal.ccorr.gui.ComparisonPanel.markSelectedNext()
+    @Test
+    public void many_differences_and_files_can_be_marked_with_one_command() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_0, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_0, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2));
+        c.doCompare();
+
+        assertTrue(c.setMarks(DIFF_0, DIFF_1, new int[]{0, 2}, MARK_IS_BAD));
+
+        for (int difference = DIFF_0; difference <= DIFF_1; difference++) {
+            assertEquals(MARK_IS_BAD, c.getMark(difference, 0));
+            assertEquals(MARK_IS_BAD, c.getMark(difference, 1));
+            assertEquals(MARK_IS_BAD, c.getMark(difference, 2));
+            assertEquals(MARK_IS_BAD, c.getMark(difference, 3));
+        }
+        assertFalse(c.setMarks(DIFF_0, c.getDifferences(), new int[]{0}, MARK_IS_GOOD));
+        assertFalse(c.setMarks(DIFF_0, DIFF_1, new int[]{4}, MARK_IS_GOOD));
+    }
+
+    @Test
+    public void when_many_differences_are_changed_to_the_next_mark_they_all_get_the_same_mark() throws IOException {
+        Comparison c = new Comparison();
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2, START_OFFSET_0, START_OFFSET_1));
+        c.addFile(util.createChecksumFile(PART_LENGTH * 2));
+        c.doCompare();
+        c.setMark(DIFF_1, 0, MARK_IS_BAD);
+
+        c.setMarks(DIFF_0, DIFF_1, new int[]{0}, NEXT_MARK);
+
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_0, 0));
+        assertEquals(MARK_IS_GOOD, c.getMark(DIFF_1, 0));
+        assertEquals(MARK_IS_UNDEFINED, c.getMark(DIFF_0, 1));
+    }
 }
@@ -0,0 +1,64 @@
+// Copyright © 2003-2006, 2010, Esko Luontola <www.orfjackal.net>
+// This software is released under the GNU General Public License, version 2 or later.
+// The license text is at http://www.gnu.org/licenses/gpl.html
+
+package net.orfjackal.ccorr;
+
+import org.junit.*;
+
+import java.io.IOException;
+
+import static net.orfjackal.ccorr.TestDataUtil.*;
+
+/**
+ * @author Esko Luontola
+ */
+public class SimilaritySketchTest extends Assert {
+
+    private static final int PARTS = SimilaritySketch.SIZE * 8;
+
+    private TestDataUtil util = new TestDataUtil();
+
+    @Before
+    public void initUtil() throws IOException {
+        util.create();
+    }
+
+    @After
+    public void disposeUtil() {
+        util.dispose();
+    }
+
+    private ChecksumFile fileWithEveryNthPartCorrupt(int parts, int n) throws IOException {
+        long[] offsets = new long[parts / n];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (long) PART_LENGTH * n * i;
+        }
+        return util.createChecksumFile((long) PART_LENGTH * parts, offsets);
+    }
+
+    @Test
+    public void identical_files_are_estimated_to_be_equal() throws IOException {
+        SimilaritySketch a = new SimilaritySketch(util.createChecksumFile(PART_LENGTH * PARTS), null);
+        SimilaritySketch b = new SimilaritySketch(util.createChecksumFile(PART_LENGTH * PARTS), null);
+
+        assertEquals(1.0, a.estimateSimilarity(b), 0.0);
+    }
+
+    @Test
+    public void the_share_of_equal_parts_is_estimated() throws IOException {
+        SimilaritySketch good = new SimilaritySketch(util.createChecksumFile(PART_LENGTH * PARTS), null);
+        SimilaritySketch corrupt = new SimilaritySketch(fileWithEveryNthPartCorrupt(PARTS, 5), null);
+
+        assertEquals(0.8, good.estimateSimilarity(corrupt), 0.05);
+        assertEquals(good.estimateSimilarity(corrupt), corrupt.estimateSimilarity(good), 0.0);
+    }
+
+    @Test
+    public void only_the_parts_that_both_files_have_are_compared() throws IOException {
+        SimilaritySketch good = new SimilaritySketch(util.createChecksumFile(PART_LENGTH * PARTS), null);
+        SimilaritySketch shortAndCorrupt = new SimilaritySketch(fileWithEveryNthPartCorrupt(PARTS / 2, 10), null);
+
+        assertEquals(0.9, good.estimateSimilarity(shortAndCorrupt), 0.05);
+    }
+}
@@ -42,12 +42,41 @@ public class TestDataUtil {
         return ChecksumFile.createChecksumFile(file, partLength, algorithm);
     }
 
+    public ChecksumFile createChecksumFile(long length, String[] algorithms, long... corruptedOffsets) throws IOException {
+        File file = createDummyFile(length);
+        corruptDataAtOffsets(file, corruptedOffsets);
+        return ChecksumFile.createChecksumFile(file, PART_LENGTH, algorithms);
+    }
+
     public File createDummyFile(long length) throws IOException {
         File file = uniqueFile();
         writeDummyData(file, length);
         return file;
     }
 
+    public String checksumOfDummyFile(long length, String algorithm) throws IOException {
+        return checksumOf(createDummyFile(length), algorithm);
+    }
+
+    public static String checksumOf(File file) {
+        return checksumOf(file, "MD5");
+    }
+
+    public static String checksumOf(File file, String algorithm) {
+        FileCombination fc = new FileCombination();
+        fc.addItem(file, 0, file.length() - 1);
+        return fc.countChecksum(algorithm);
+    }
+
+    public static Comparison compare(ChecksumFile... files) {
+        Comparison c = new Comparison();
+        for (ChecksumFile file : files) {
+            c.addFile(file);
+        }
+        c.doCompare();
+        return c;
+    }
+
     public File uniqueFile() {
         File file = new File(temp.getDirectory(), "file" + nextFileId + ".tmp");
         nextFileId++;